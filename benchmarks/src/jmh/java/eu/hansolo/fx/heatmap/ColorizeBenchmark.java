@@ -0,0 +1,65 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures the colorize pass for one megapixel (1000 x 1000) for
+ * every color mapping. The density grid is filled headless, so this
+ * benchmark does not need a running toolkit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ColorizeBenchmark {
+    private static final int SIZE = 1000;
+
+    @Param
+    public ColorMapping colorMapping;
+
+    @Param({ "true", "false" })
+    public boolean fadeColors;
+
+    private DensityGrid densityGrid;
+    private int[]       pixels;
+
+
+    @Setup(Level.Trial) public void setup() {
+        double[][] positions = FxToolkit.randomPositions(10_000, SIZE, SIZE, 42);
+        densityGrid = new DensityGrid(SIZE, SIZE);
+        Kernel kernel = densityGrid.getKernel(15.5, OpacityDistribution.CUSTOM);
+        for (int i = 0 ; i < positions[0].length ; i++) {
+            densityGrid.stamp(kernel, positions[0][i] - 15.5, positions[1][i] - 15.5, 1f);
+        }
+        pixels = new int[SIZE * SIZE];
+    }
+
+    @Benchmark public int[] colorizeMegapixel() {
+        densityGrid.colorize(colorMapping.lookupTable, fadeColors, pixels);
+        return pixels;
+    }
+}
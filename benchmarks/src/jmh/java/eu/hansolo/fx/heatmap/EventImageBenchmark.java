@@ -0,0 +1,64 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import javafx.scene.image.Image;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures the creation of event images and of the kernels that
+ * replaced them for a range of radii. SimpleHeatMap takes the kernels
+ * of its event images from the KernelCache, so createEventImage() only
+ * measures the conversion of a cached kernel into an image, while
+ * createKernel() computes the kernel on each invocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventImageBenchmark {
+
+    @Param({ "5", "15.5", "50", "100" })
+    public double radius;
+
+    @Param({ "CUSTOM", "EXPONENTIAL" })
+    public OpacityDistribution opacityDistribution;
+
+    private SimpleHeatMap simpleHeatMap;
+
+
+    @Setup(Level.Trial) public void setup() throws InterruptedException {
+        FxToolkit.start();
+        simpleHeatMap = new SimpleHeatMap(100, 100);
+    }
+
+    @Benchmark public Image createEventImage() {
+        return simpleHeatMap.createEventImage(radius, opacityDistribution);
+    }
+
+    @Benchmark public Kernel createKernel() {
+        return Kernel.create(radius, opacityDistribution);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures the throughput of adding events to a HeatMap including the
+ * recreation of the heat map image.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EventIngestionBenchmark {
+    private static final int POSITIONS = 4096;
+
+    @Param({ "400", "1920" })
+    public int size;
+
+    @Param({ "100" })
+    public int batchSize;
+
+    private HeatMap  heatMap;
+    private double[] xs;
+    private double[] ys;
+    private double[] batchXs;
+    private double[] batchYs;
+    private int      index;
+
+
+    @Setup(Level.Trial) public void setup() throws InterruptedException {
+        FxToolkit.start();
+        double[][] positions = FxToolkit.randomPositions(POSITIONS, size, size, 42);
+        xs      = positions[0];
+        ys      = positions[1];
+        batchXs = new double[batchSize];
+        batchYs = new double[batchSize];
+        System.arraycopy(xs, 0, batchXs, 0, batchSize);
+        System.arraycopy(ys, 0, batchYs, 0, batchSize);
+        heatMap = new HeatMap(size, size);
+    }
+
+    @Setup(Level.Iteration) public void clear() {
+        heatMap.clearHeatMap();
+    }
+
+    @Benchmark public HeatMap addEvent() {
+        int i = index++ & (POSITIONS - 1);
+        heatMap.addEvent(xs[i], ys[i]);
+        return heatMap;
+    }
+
+    @Benchmark public HeatMap addEvents() {
+        heatMap.addEvents(batchXs, batchYs);
+        return heatMap;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import javafx.application.Platform;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+
+/**
+ * Starts the JavaFX toolkit once per benchmark fork. The benchmarks are
+ * meant to run headless on Monocle (see benchmarks/build.gradle).
+ */
+final class FxToolkit {
+    private static volatile boolean started;
+
+
+    // ******************** Constructors **************************************
+    private FxToolkit() {}
+
+
+    // ******************** Methods *******************************************
+    static synchronized void start() throws InterruptedException {
+        if (started) { return; }
+        final CountDownLatch LATCH = new CountDownLatch(1);
+        try {
+            Platform.startup(LATCH::countDown);
+        } catch (IllegalStateException exception) {
+            // toolkit already running
+            LATCH.countDown();
+        }
+        LATCH.await();
+        Platform.setImplicitExit(false);
+        started = true;
+    }
+
+    /**
+     * Creates reproducible random coordinates within the given bounds
+     * @param COUNT
+     * @param WIDTH
+     * @param HEIGHT
+     * @param SEED
+     * @return an array with the x coordinates at index 0 and the y coordinates at index 1
+     */
+    static double[][] randomPositions(final int COUNT, final double WIDTH, final double HEIGHT, final long SEED) {
+        final Random     RND       = new Random(SEED);
+        final double[][] POSITIONS = new double[2][COUNT];
+        for (int i = 0 ; i < COUNT ; i++) {
+            POSITIONS[0][i] = RND.nextDouble() * WIDTH;
+            POSITIONS[1][i] = RND.nextDouble() * HEIGHT;
+        }
+        return POSITIONS;
+    }
+}
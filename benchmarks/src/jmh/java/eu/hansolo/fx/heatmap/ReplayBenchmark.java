@@ -0,0 +1,65 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures how long it takes to replay all events of a HeatMap, e.g.
+ * after the opacity distribution has been changed. With cacheLayers set
+ * to false every invocation replays all events, with cacheLayers set to
+ * true the binned events and rendered layers of the HeatMap are used.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReplayBenchmark {
+    private static final int SIZE = 1000;
+
+    @Param({ "1000", "100000", "1000000" })
+    public int noOfEvents;
+
+    @Param({ "false", "true" })
+    public boolean cacheLayers;
+
+    private HeatMap heatMap;
+    private int     index;
+
+
+    @Setup(Level.Trial) public void setup() throws InterruptedException {
+        FxToolkit.start();
+        double[][] positions = FxToolkit.randomPositions(noOfEvents, SIZE, SIZE, 42);
+        heatMap = new HeatMap(SIZE, SIZE);
+        heatMap.setDensityLayersEnabled(cacheLayers);
+        heatMap.addEvents(positions[0], positions[1]);
+    }
+
+    @Benchmark public HeatMap updateMonochromeMap() {
+        OpacityDistribution[] distributions = OpacityDistribution.values();
+        heatMap.updateMonochromeMap(distributions[index++ % distributions.length]);
+        return heatMap;
+    }
+}
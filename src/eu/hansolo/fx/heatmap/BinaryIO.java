@@ -0,0 +1,146 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+
+/**
+ * Writes and reads primitive arrays to and from channels in little endian
+ * byte order by using a reusable buffer, so arrays with millions of
+ * values are transferred in large blocks without boxing or per value
+ * calls to the channel.
+ */
+public final class BinaryIO {
+    public static final int BUFFER_SIZE = 1 << 16;
+
+
+    // ******************** Constructors **************************************
+    private BinaryIO() {}
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Returns a direct buffer in little endian byte order that could be
+     * used for the transfer methods
+     * @return a direct buffer in little endian byte order
+     */
+    public static ByteBuffer createBuffer() {
+        return ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public static void writeDoubles(final WritableByteChannel CHANNEL, final ByteBuffer BUFFER, final double[] VALUES, final int OFFSET, final int LENGTH) throws IOException {
+        final int CHUNK = BUFFER.capacity() / Double.BYTES;
+        for (int i = 0 ; i < LENGTH ; i += CHUNK) {
+            final int COUNT = Math.min(CHUNK, LENGTH - i);
+            BUFFER.clear();
+            BUFFER.asDoubleBuffer().put(VALUES, OFFSET + i, COUNT);
+            BUFFER.limit(COUNT * Double.BYTES);
+            writeFully(CHANNEL, BUFFER);
+        }
+    }
+
+    public static void writeFloats(final WritableByteChannel CHANNEL, final ByteBuffer BUFFER, final float[] VALUES, final int OFFSET, final int LENGTH) throws IOException {
+        final int CHUNK = BUFFER.capacity() / Float.BYTES;
+        for (int i = 0 ; i < LENGTH ; i += CHUNK) {
+            final int COUNT = Math.min(CHUNK, LENGTH - i);
+            BUFFER.clear();
+            BUFFER.asFloatBuffer().put(VALUES, OFFSET + i, COUNT);
+            BUFFER.limit(COUNT * Float.BYTES);
+            writeFully(CHANNEL, BUFFER);
+        }
+    }
+
+    public static void writeInts(final WritableByteChannel CHANNEL, final ByteBuffer BUFFER, final int[] VALUES, final int OFFSET, final int LENGTH) throws IOException {
+        final int CHUNK = BUFFER.capacity() / Integer.BYTES;
+        for (int i = 0 ; i < LENGTH ; i += CHUNK) {
+            final int COUNT = Math.min(CHUNK, LENGTH - i);
+            BUFFER.clear();
+            BUFFER.asIntBuffer().put(VALUES, OFFSET + i, COUNT);
+            BUFFER.limit(COUNT * Integer.BYTES);
+            writeFully(CHANNEL, BUFFER);
+        }
+    }
+
+    public static void writeBytes(final WritableByteChannel CHANNEL, final ByteBuffer BUFFER, final byte[] VALUES, final int OFFSET, final int LENGTH) throws IOException {
+        final int CHUNK = BUFFER.capacity();
+        for (int i = 0 ; i < LENGTH ; i += CHUNK) {
+            final int COUNT = Math.min(CHUNK, LENGTH - i);
+            BUFFER.clear();
+            BUFFER.put(VALUES, OFFSET + i, COUNT).flip();
+            writeFully(CHANNEL, BUFFER);
+        }
+    }
+
+    public static void readDoubles(final ReadableByteChannel CHANNEL, final ByteBuffer BUFFER, final double[] VALUES, final int OFFSET, final int LENGTH) throws IOException {
+        final int CHUNK = BUFFER.capacity() / Double.BYTES;
+        for (int i = 0 ; i < LENGTH ; i += CHUNK) {
+            final int COUNT = Math.min(CHUNK, LENGTH - i);
+            BUFFER.clear().limit(COUNT * Double.BYTES);
+            readFully(CHANNEL, BUFFER);
+            BUFFER.flip();
+            BUFFER.asDoubleBuffer().get(VALUES, OFFSET + i, COUNT);
+        }
+    }
+
+    public static void readFloats(final ReadableByteChannel CHANNEL, final ByteBuffer BUFFER, final float[] VALUES, final int OFFSET, final int LENGTH) throws IOException {
+        final int CHUNK = BUFFER.capacity() / Float.BYTES;
+        for (int i = 0 ; i < LENGTH ; i += CHUNK) {
+            final int COUNT = Math.min(CHUNK, LENGTH - i);
+            BUFFER.clear().limit(COUNT * Float.BYTES);
+            readFully(CHANNEL, BUFFER);
+            BUFFER.flip();
+            BUFFER.asFloatBuffer().get(VALUES, OFFSET + i, COUNT);
+        }
+    }
+
+    public static void readBytes(final ReadableByteChannel CHANNEL, final ByteBuffer BUFFER, final byte[] VALUES, final int OFFSET, final int LENGTH) throws IOException {
+        final int CHUNK = BUFFER.capacity();
+        for (int i = 0 ; i < LENGTH ; i += CHUNK) {
+            final int COUNT = Math.min(CHUNK, LENGTH - i);
+            BUFFER.clear().limit(COUNT);
+            readFully(CHANNEL, BUFFER);
+            BUFFER.flip();
+            BUFFER.get(VALUES, OFFSET + i, COUNT);
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of the given buffer to the given channel
+     * @param CHANNEL
+     * @param BUFFER
+     * @throws IOException
+     */
+    public static void writeFully(final WritableByteChannel CHANNEL, final ByteBuffer BUFFER) throws IOException {
+        while (BUFFER.hasRemaining()) { CHANNEL.write(BUFFER); }
+    }
+
+    /**
+     * Fills the remaining space of the given buffer from the given channel
+     * @param CHANNEL
+     * @param BUFFER
+     * @throws IOException if the end of the channel is reached before
+     */
+    public static void readFully(final ReadableByteChannel CHANNEL, final ByteBuffer BUFFER) throws IOException {
+        while (BUFFER.hasRemaining()) {
+            if (CHANNEL.read(BUFFER) < 0) { throw new EOFException("Unexpected end of data"); }
+        }
+    }
+}
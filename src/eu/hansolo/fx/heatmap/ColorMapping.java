@@ -45,8 +45,10 @@ public enum ColorMapping {
     WHITE_BLACK(new Stop(0.0, Color.WHITE), new Stop(1.0, Color.BLACK));
 
     public LinearGradient mapping;
+    public int[]          lookupTable;
 
     ColorMapping(final Stop... STOPS) {
-        mapping = new LinearGradient(0, 0, 100, 0, false, CycleMethod.NO_CYCLE, STOPS);        
+        mapping     = new LinearGradient(0, 0, 100, 0, false, CycleMethod.NO_CYCLE, STOPS);
+        lookupTable = Helper.createColorLookupTable(mapping);
     }
 }
@@ -0,0 +1,986 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * A density grid accumulates the kernels of events in a float array
+ * without the need of a JavaFX toolkit. It does not depend on the FX
+ * application thread and can therefore be used to compute heat maps
+ * on any thread, e.g. on a server. The grid is not thread safe, so
+ * access from more than one thread at a time has to be synchronized
+ * by the caller. Replaying events and colorizing could be split into
+ * bands of rows that will be processed in parallel on a given
+ * ForkJoinPool. Each band only touches its own rows and processes the
+ * events in the same order, so the result is identical to the serial
+ * path.
+ * Decaying the grid is done lazily by a global scale factor that will
+ * be applied when reading the cells, so decaying costs O(1) and the
+ * cells only have to be rescaled once in a while to keep the precision.
+ * The max density and a coarse histogram of the densities are updated
+ * while stamping, so normalizing the densities before colorizing does
+ * not need an extra pass over the grid.
+ */
+public class DensityGrid {
+    private static final int         OPACITY_TABLE_SIZE = 1 << 14;
+    private static final double      MAX_DEPTH          = Math.log(512);
+    private static final float       STEPS_PER_DEPTH    = (float) (OPACITY_TABLE_SIZE / MAX_DEPTH);
+    private static final int[]       OPACITY_TABLE      = createOpacityTable();
+    private static final float       MIN_SCALE          = 1e-6f;
+    private static final int         SCALING_TABLE_SIZE = 1 << 14;
+    private static final int[][]     SCALING_TABLES     = createScalingTables();
+    private static final KernelCache KERNEL_CACHE       = new KernelCache();
+    private static final int         MAX_BINNED_KERNELS = 4;
+    private int                      width;
+    private int                      height;
+    private float[]                  data;
+    private float                    scale;
+    private DensityHistogram         histogram;
+    private SummedAreaTable          summedAreaTable;
+    private int                      dirtyMinX;
+    private int                      dirtyMinY;
+    private int                      dirtyMaxX;
+    private int                      dirtyMaxY;
+
+
+    // ******************** Constructors **************************************
+    public DensityGrid(final int WIDTH, final int HEIGHT) {
+        width           = WIDTH < 0 ? 0 : WIDTH;
+        height          = HEIGHT < 0 ? 0 : HEIGHT;
+        data            = new float[width * height];
+        scale           = 1f;
+        histogram       = new DensityHistogram();
+        summedAreaTable = null;
+        resetDirtyRegion();
+        markDirty(0, 0, width, height);
+    }
+    /**
+     * Creates a grid that uses the given array as its backing array
+     * @param WIDTH
+     * @param HEIGHT
+     * @param DATA the density of all cells in row major order
+     */
+    public DensityGrid(final int WIDTH, final int HEIGHT, final float[] DATA) {
+        if (WIDTH < 0 || HEIGHT < 0 || DATA.length != WIDTH * HEIGHT) { throw new IllegalArgumentException("Grid size does not match the number of cells"); }
+        width           = WIDTH;
+        height          = HEIGHT;
+        data            = DATA;
+        scale           = 1f;
+        histogram       = new DensityHistogram();
+        summedAreaTable = null;
+        histogram.rebuild(data);
+        resetDirtyRegion();
+        markDirty(0, 0, width, height);
+    }
+
+
+    // ******************** Methods *******************************************
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the accumulated density of all cells in row major order.
+     * The returned array is the backing array of the grid. If the grid
+     * has been decayed the pending scale factor will be applied to all
+     * cells before.
+     * @return the accumulated density of all cells in row major order
+     */
+    public float[] getData() {
+        applyScale();
+        return data;
+    }
+
+    /**
+     * Returns the accumulated density at the given position or 0 if the
+     * position is outside of the grid
+     * @param X
+     * @param Y
+     * @return the accumulated density at the given position
+     */
+    public float getDensity(final int X, final int Y) {
+        if (X < 0 || Y < 0 || X >= width || Y >= height) { return 0f; }
+        return data[Y * width + X] * scale;
+    }
+
+    /**
+     * Returns the opacity at the given position in the range of 0 - 255,
+     * which is the value the monochrome canvas would have contained
+     * @param X
+     * @param Y
+     * @return the opacity at the given position in the range of 0 - 255
+     */
+    public int getOpacity(final int X, final int Y) {
+        return toOpacity(getDensity(X, Y));
+    }
+
+    /**
+     * Returns the kernel for the given radius and opacity distribution.
+     * Kernels are shared by all grids and kept in a bounded cache so that
+     * they only have to be computed once as long as they are in use.
+     * @param RADIUS
+     * @param OPACITY_DISTRIBUTION
+     * @return the kernel for the given radius and opacity distribution
+     */
+    public Kernel getKernel(final double RADIUS, final OpacityDistribution OPACITY_DISTRIBUTION) {
+        return KERNEL_CACHE.get(RADIUS, OPACITY_DISTRIBUTION);
+    }
+
+    /**
+     * Stamps the kernel of the given event multiplied by its weight into
+     * the grid centered at the position of the event
+     * @param EVENT
+     */
+    public void addEvent(final HeatMapEvent EVENT) {
+        final double RADIUS = EVENT.getRadius() < 1 ? 1 : EVENT.getRadius();
+        stamp(getKernel(RADIUS, EVENT.getOpacityDistribution()), EVENT.getX() - RADIUS, EVENT.getY() - RADIUS, (float) EVENT.getWeight());
+    }
+
+    /**
+     * Adds the given kernel multiplied by the given weight to the grid with
+     * its upper left corner at the given position. Parts of the kernel that
+     * lie outside of the grid will be ignored.
+     * @param KERNEL
+     * @param LEFT
+     * @param TOP
+     * @param WEIGHT
+     */
+    public void stamp(final Kernel KERNEL, final double LEFT, final double TOP, final float WEIGHT) {
+        final int LEFT_X = (int) Math.round(LEFT);
+        final int TOP_Y  = (int) Math.round(TOP);
+        final float   W      = WEIGHT / scale;
+        final int     K_W    = KERNEL.getWidth();
+        final float[] DEPTHS = KERNEL.getDepths();
+        final int     MIN_X  = Math.max(0, LEFT_X);
+        final int     MAX_X  = Math.min(width, LEFT_X + K_W);
+        final int     MIN_Y  = Math.max(0, TOP_Y);
+        final int     MAX_Y  = Math.min(height, TOP_Y + KERNEL.getHeight());
+        for (int y = MIN_Y ; y < MAX_Y ; y++) {
+            int kernelIndex = (y - TOP_Y) * K_W + (MIN_X - LEFT_X);
+            int gridIndex   = y * width + MIN_X;
+            for (int x = MIN_X ; x < MAX_X ; x++) {
+                float oldValue = data[gridIndex];
+                float newValue = oldValue + DEPTHS[kernelIndex++] * W;
+                data[gridIndex++] = newValue;
+                histogram.update(oldValue, newValue);
+            }
+        }
+        invalidateSummedAreaTable(MIN_X, MIN_Y);
+        markDirty(LEFT_X, TOP_Y, LEFT_X + K_W, TOP_Y + KERNEL.getHeight());
+    }
+
+    /**
+     * Adds all events of the given store to the grid. The weights of the
+     * events are binned first by the pixel of the upper left corner of
+     * their kernel, so each occupied pixel is stamped only once with the
+     * sum of the weights of its events. This gives the same result as
+     * stamping each event up to float rounding but the time that is needed
+     * depends on the number of occupied pixels and not on the number of
+     * events. Events are binned separately per radius and opacity
+     * distribution for the first few combinations if stamping their events
+     * costs more than scanning the grid once, all other events will be
+     * stamped one by one. If a pool is given the grid will be split into
+     * bands of rows which will be processed in parallel. The histogram
+     * will be rebuilt once after all events have been added.
+     * @param EVENTS
+     * @param POOL the pool that should be used or null to use the calling thread
+     */
+    public void addEvents(final EventStore EVENTS, final ForkJoinPool POOL) {
+        addEvents(EVENTS, 0, EVENTS.size(), POOL);
+    }
+
+    /**
+     * Adds the events of the given store from index FROM (inclusive) to
+     * index TO (exclusive) like addEvents(EventStore, ForkJoinPool)
+     * @param EVENTS
+     * @param FROM inclusive
+     * @param TO exclusive
+     * @param POOL the pool that should be used or null to use the calling thread
+     */
+    public void addEvents(final EventStore EVENTS, final int FROM, final int TO, final ForkJoinPool POOL) {
+        if (FROM < 0 || TO > EVENTS.size() || FROM > TO) { throw new IllegalArgumentException("Range is outside of the store"); }
+        if (FROM == TO) { return; }
+        final List<KernelBins> GROUPS     = createBins(EVENTS, FROM, TO);
+        int[]                  direct     = new int[0];
+        int                    noOfDirect = 0;
+        KernelBins             bins       = null;
+        for (int i = FROM ; i < TO ; i++) {
+            float               radius              = EVENTS.getRadius(i) < 1 ? 1 : EVENTS.getRadius(i);
+            OpacityDistribution opacityDistribution = EVENTS.getOpacityDistribution(i);
+            if (null == bins || radius != bins.radius || opacityDistribution != bins.opacityDistribution) {
+                bins = findBins(GROUPS, radius, opacityDistribution);
+            }
+            if (null == bins) {
+                if (noOfDirect == direct.length) { direct = Arrays.copyOf(direct, Math.max(16, direct.length * 2)); }
+                direct[noOfDirect++] = i;
+            } else {
+                bins.add((int) Math.round(EVENTS.getX(i) - radius), (int) Math.round(EVENTS.getY(i) - radius), EVENTS.getWeight(i));
+            }
+        }
+        final int[] DIRECT        = direct;
+        final int   NO_OF_DIRECT  = noOfDirect;
+        final float INVERSE_SCALE = 1f / scale;
+        RowBands.forEachBand(POOL, 0, height, (FROM_Y, TO_Y) -> {
+            for (KernelBins kernelBins : GROUPS) { stamp(kernelBins, INVERSE_SCALE, FROM_Y, TO_Y); }
+            Kernel              kernel             = null;
+            float               kernelRadius       = 0;
+            OpacityDistribution kernelDistribution = null;
+            for (int n = 0 ; n < NO_OF_DIRECT ; n++) {
+                int                 i                   = DIRECT[n];
+                float               radius              = EVENTS.getRadius(i) < 1 ? 1 : EVENTS.getRadius(i);
+                OpacityDistribution opacityDistribution = EVENTS.getOpacityDistribution(i);
+                int                 top                 = (int) Math.round(EVENTS.getY(i) - radius);
+                if (top >= TO_Y || top + 2 * radius < FROM_Y) { continue; }
+                if (null == kernel || radius != kernelRadius || opacityDistribution != kernelDistribution) {
+                    kernel             = getKernel(radius, opacityDistribution);
+                    kernelRadius       = radius;
+                    kernelDistribution = opacityDistribution;
+                }
+                stamp(kernel, (int) Math.round(EVENTS.getX(i) - radius), top, EVENTS.getWeight(i) * INVERSE_SCALE, FROM_Y, TO_Y);
+            }
+        });
+        histogram.rebuild(data);
+        invalidateSummedAreaTable(0, 0);
+        markDirty(0, 0, width, height);
+    }
+
+    /**
+     * Adds the events at the given positions with the given kernel to the
+     * grid, the kernel will be centered at each position by subtracting
+     * the given radius. If stamping all events costs more than scanning
+     * the grid once the weights of the events will be binned by pixel
+     * first (see addEvents(EventStore, ForkJoinPool)), otherwise each
+     * event will be stamped.
+     * @param KERNEL
+     * @param RADIUS
+     * @param XS
+     * @param YS
+     * @param WEIGHTS the weights of the events or null to use a weight of 1
+     * @param COUNT the number of events to add from the start of the arrays
+     * @param POOL the pool that should be used or null to use the calling thread
+     */
+    public void addEvents(final Kernel KERNEL, final double RADIUS, final double[] XS, final double[] YS, final float[] WEIGHTS, final int COUNT, final ForkJoinPool POOL) {
+        if (COUNT > XS.length || COUNT > YS.length || (null != WEIGHTS && COUNT > WEIGHTS.length)) { throw new IllegalArgumentException("Arrays contain less than " + COUNT + " events"); }
+        final long STAMPED_CELLS = (long) COUNT * KERNEL.getWidth() * KERNEL.getHeight();
+        if (STAMPED_CELLS < (long) (width + KERNEL.getWidth()) * (height + KERNEL.getHeight())) {
+            for (int i = 0 ; i < COUNT ; i++) { stamp(KERNEL, XS[i] - RADIUS, YS[i] - RADIUS, null == WEIGHTS ? 1f : WEIGHTS[i]); }
+            return;
+        }
+        final KernelBins BINS = new KernelBins(KERNEL, 0, null, width, height);
+        for (int i = 0 ; i < COUNT ; i++) {
+            BINS.add((int) Math.round(XS[i] - RADIUS), (int) Math.round(YS[i] - RADIUS), null == WEIGHTS ? 1f : WEIGHTS[i]);
+        }
+        if (BINS.isEmpty()) { return; }
+        final float INVERSE_SCALE = 1f / scale;
+        RowBands.forEachBand(POOL, Math.max(0, BINS.minTop), Math.min(height, BINS.maxTop + KERNEL.getHeight()), (FROM_Y, TO_Y) -> stamp(BINS, INVERSE_SCALE, FROM_Y, TO_Y));
+        histogram.rebuild(data);
+        invalidateSummedAreaTable(BINS.minLeft, BINS.minTop);
+        markDirty(BINS.minLeft, BINS.minTop, BINS.maxLeft + KERNEL.getWidth(), BINS.maxTop + KERNEL.getHeight());
+    }
+
+    /**
+     * Stamps the given kernel once per occupied bin with the summed weight
+     * of the bin, which gives the same result as stamping each binned event
+     * with the given radius up to float rounding. If a pool is given the grid will be split into
+     * bands of rows which will be processed in parallel.
+     * @param BINS bins with the same size as the grid that are compatible with the given radius
+     * @param KERNEL
+     * @param RADIUS
+     * @param POOL the pool that should be used or null to use the calling thread
+     */
+    public void addEvents(final EventBins BINS, final Kernel KERNEL, final double RADIUS, final ForkJoinPool POOL) {
+        if (BINS.getWidth() != width || BINS.getHeight() != height) { throw new IllegalArgumentException("Bins differ in size"); }
+        if (!BINS.isCompatible(RADIUS)) { throw new IllegalArgumentException("Bins can't be stamped with a radius of " + RADIUS); }
+        if (BINS.isEmpty()) { return; }
+        final int     SHIFT         = (int) Math.floor(RADIUS < 1 ? 1 : RADIUS);
+        final int     K_W           = KERNEL.getWidth();
+        final int     K_H           = KERNEL.getHeight();
+        final float[] WEIGHTS       = BINS.getWeights();
+        final int     BIN_WIDTH     = BINS.getBinWidth();
+        final int     MARGIN        = BINS.getMargin();
+        final int     MIN_LEFT      = BINS.getMinX() - SHIFT;
+        final int     MAX_LEFT      = BINS.getMaxX() - SHIFT;
+        final int     MIN_TOP       = BINS.getMinY() - SHIFT;
+        final int     MAX_TOP       = BINS.getMaxY() - SHIFT;
+        final float   INVERSE_SCALE = 1f / scale;
+        RowBands.forEachBand(POOL, Math.max(0, MIN_TOP), Math.min(height, MAX_TOP + K_H), (FROM_Y, TO_Y) -> {
+            for (int top = Math.max(MIN_TOP, FROM_Y - K_H + 1) ; top <= Math.min(MAX_TOP, TO_Y - 1) ; top++) {
+                int index = (top + SHIFT + MARGIN) * BIN_WIDTH + BINS.getMinX() + MARGIN;
+                for (int left = MIN_LEFT ; left <= MAX_LEFT ; left++) {
+                    float weight = WEIGHTS[index++];
+                    if (0f == weight) { continue; }
+                    stamp(KERNEL, left, top, weight * INVERSE_SCALE, FROM_Y, TO_Y);
+                }
+            }
+        });
+        histogram.rebuild(data);
+        invalidateSummedAreaTable(MIN_LEFT, MIN_TOP);
+        markDirty(MIN_LEFT, MIN_TOP, MAX_LEFT + K_W, MAX_TOP + K_H);
+    }
+
+    /**
+     * Counts the events of the first few combinations of radius and opacity
+     * distribution and creates bins for the combinations whose events cost
+     * more to stamp one by one than scanning the bins, which need one
+     * float per pixel of the grid
+     * @param EVENTS
+     * @param FROM inclusive
+     * @param TO exclusive
+     * @return the bins for the combinations that should be binned
+     */
+    private List<KernelBins> createBins(final EventStore EVENTS, final int FROM, final int TO) {
+        final float[]               RADII         = new float[MAX_BINNED_KERNELS];
+        final OpacityDistribution[] DISTRIBUTIONS = new OpacityDistribution[MAX_BINNED_KERNELS];
+        final int[]                 COUNTS        = new int[MAX_BINNED_KERNELS];
+        int                         noOfGroups    = 0;
+        int                         group         = -1;
+        for (int i = FROM ; i < TO ; i++) {
+            float               radius              = EVENTS.getRadius(i) < 1 ? 1 : EVENTS.getRadius(i);
+            OpacityDistribution opacityDistribution = EVENTS.getOpacityDistribution(i);
+            if (-1 == group || radius != RADII[group] || opacityDistribution != DISTRIBUTIONS[group]) {
+                group = -1;
+                for (int g = 0 ; g < noOfGroups ; g++) {
+                    if (RADII[g] == radius && DISTRIBUTIONS[g] == opacityDistribution) { group = g; }
+                }
+                if (-1 == group && noOfGroups < MAX_BINNED_KERNELS) {
+                    group                = noOfGroups++;
+                    RADII[group]         = radius;
+                    DISTRIBUTIONS[group] = opacityDistribution;
+                }
+            }
+            if (-1 != group) { COUNTS[group]++; }
+        }
+        final List<KernelBins> GROUPS = new ArrayList<>();
+        for (int g = 0 ; g < noOfGroups ; g++) {
+            final Kernel KERNEL        = getKernel(RADII[g], DISTRIBUTIONS[g]);
+            final long   STAMPED_CELLS = (long) COUNTS[g] * KERNEL.getWidth() * KERNEL.getHeight();
+            if (STAMPED_CELLS < (long) (width + KERNEL.getWidth()) * (height + KERNEL.getHeight())) { continue; }
+            GROUPS.add(new KernelBins(KERNEL, RADII[g], DISTRIBUTIONS[g], width, height));
+        }
+        return GROUPS;
+    }
+
+    private KernelBins findBins(final List<KernelBins> GROUPS, final float RADIUS, final OpacityDistribution OPACITY_DISTRIBUTION) {
+        for (KernelBins bins : GROUPS) {
+            if (bins.radius == RADIUS && bins.opacityDistribution == OPACITY_DISTRIBUTION) { return bins; }
+        }
+        return null;
+    }
+
+    /**
+     * Stamps the kernel of the given bins once per occupied pixel with the
+     * binned weight into the given band of rows
+     */
+    private void stamp(final KernelBins BINS, final float INVERSE_SCALE, final int FROM_Y, final int TO_Y) {
+        if (BINS.isEmpty()) { return; }
+        final int     K_H     = BINS.kernel.getHeight();
+        final float[] WEIGHTS = BINS.weights;
+        final int     MIN_TOP = Math.max(BINS.minTop, FROM_Y - K_H + 1);
+        final int     MAX_TOP = Math.min(BINS.maxTop, TO_Y - 1);
+        for (int top = MIN_TOP ; top <= MAX_TOP ; top++) {
+            int index = (top + BINS.offsetY) * BINS.binWidth + BINS.minLeft + BINS.offsetX;
+            for (int left = BINS.minLeft ; left <= BINS.maxLeft ; left++) {
+                float weight = WEIGHTS[index++];
+                if (0f == weight) { continue; }
+                stamp(BINS.kernel, left, top, weight * INVERSE_SCALE, FROM_Y, TO_Y);
+            }
+        }
+    }
+
+    /**
+     * Adds the density of the given region of another grid multiplied by
+     * the given factor to the same region of this grid. A factor of -1
+     * subtracts the density of the other grid.
+     * @param GRID a grid with the same size as this grid
+     * @param FACTOR
+     * @param MIN_X inclusive
+     * @param MIN_Y inclusive
+     * @param MAX_X exclusive
+     * @param MAX_Y exclusive
+     */
+    public void add(final DensityGrid GRID, final float FACTOR, final int MIN_X, final int MIN_Y, final int MAX_X, final int MAX_Y) {
+        if (GRID.width != width || GRID.height != height) { throw new IllegalArgumentException("Grids differ in size"); }
+        final float[] OTHER  = GRID.data;
+        final float   WEIGHT = FACTOR * GRID.scale / scale;
+        for (int y = MIN_Y ; y < MAX_Y ; y++) {
+            final int END = y * width + MAX_X;
+            for (int i = y * width + MIN_X ; i < END ; i++) {
+                float oldValue = data[i];
+                float newValue = oldValue + OTHER[i] * WEIGHT;
+                data[i] = newValue;
+                histogram.update(oldValue, newValue);
+            }
+        }
+        invalidateSummedAreaTable(MIN_X, MIN_Y);
+        markDirty(MIN_X, MIN_Y, MAX_X, MAX_Y);
+    }
+
+    /**
+     * Replaces the density of the given region with the mean density of
+     * the 2 x 2 cells of the given grid that are covered by each cell, e.g.
+     * to compute a grid with half of the resolution of the given grid.
+     * The cell at OFFSET_X, OFFSET_Y covers the upper left 2 x 2 cells of
+     * the given grid.
+     * @param GRID
+     * @param OFFSET_X
+     * @param OFFSET_Y
+     * @param MIN_X inclusive
+     * @param MIN_Y inclusive
+     * @param MAX_X exclusive
+     * @param MAX_Y exclusive
+     */
+    public void downsample(final DensityGrid GRID, final int OFFSET_X, final int OFFSET_Y, final int MIN_X, final int MIN_Y, final int MAX_X, final int MAX_Y) {
+        if (MIN_X < Math.max(0, OFFSET_X) || MIN_Y < Math.max(0, OFFSET_Y) || MAX_X > width || MAX_Y > height ||
+            2 * (MAX_X - OFFSET_X) > GRID.width || 2 * (MAX_Y - OFFSET_Y) > GRID.height) { throw new IllegalArgumentException("Region is outside of the grids"); }
+        final float[] OTHER       = GRID.getData();
+        final int     OTHER_WIDTH = GRID.width;
+        applyScale();
+        for (int y = MIN_Y ; y < MAX_Y ; y++) {
+            final int ROW_0 = 2 * (y - OFFSET_Y) * OTHER_WIDTH;
+            final int ROW_1 = ROW_0 + OTHER_WIDTH;
+            int       index = y * width + MIN_X;
+            for (int x = 2 * (MIN_X - OFFSET_X) ; x < 2 * (MAX_X - OFFSET_X) ; x += 2) {
+                float oldValue = data[index];
+                float newValue = (OTHER[ROW_0 + x] + OTHER[ROW_0 + x + 1] + OTHER[ROW_1 + x] + OTHER[ROW_1 + x + 1]) * 0.25f;
+                data[index++] = newValue;
+                histogram.update(oldValue, newValue);
+            }
+        }
+        invalidateSummedAreaTable(MIN_X, MIN_Y);
+        markDirty(MIN_X, MIN_Y, MAX_X, MAX_Y);
+    }
+
+    private void stamp(final Kernel KERNEL, final int LEFT_X, final int TOP_Y, final float WEIGHT, final int FROM_Y, final int TO_Y) {
+        final int     K_W    = KERNEL.getWidth();
+        final int     K_H    = KERNEL.getHeight();
+        final float[] DEPTHS = KERNEL.getDepths();
+        final int     MIN_X  = Math.max(0, LEFT_X);
+        final int     MAX_X  = Math.min(width, LEFT_X + K_W);
+        final int     MIN_Y  = Math.max(FROM_Y, TOP_Y);
+        final int     MAX_Y  = Math.min(TO_Y, TOP_Y + K_H);
+        for (int y = MIN_Y ; y < MAX_Y ; y++) {
+            int kernelIndex = (y - TOP_Y) * K_W + (MIN_X - LEFT_X);
+            int gridIndex   = y * width + MIN_X;
+            for (int x = MIN_X ; x < MAX_X ; x++) {
+                data[gridIndex++] += DEPTHS[kernelIndex++] * WEIGHT;
+            }
+        }
+    }
+
+    /**
+     * Replaces the density of all cells with the given values, e.g. with
+     * the result of a kernel density estimation
+     * @param DATA
+     * @param OFFSET the index of the value of the upper left cell
+     * @param STRIDE the distance between the values of two rows
+     */
+    public void setData(final float[] DATA, final int OFFSET, final int STRIDE) {
+        if (STRIDE < width || OFFSET < 0 || (height > 0 && OFFSET + (height - 1) * STRIDE + width > DATA.length)) { throw new IllegalArgumentException("Data does not contain all cells"); }
+        for (int y = 0 ; y < height ; y++) {
+            System.arraycopy(DATA, OFFSET + y * STRIDE, data, y * width, width);
+        }
+        scale = 1f;
+        histogram.rebuild(data);
+        invalidateSummedAreaTable(0, 0);
+        markDirty(0, 0, width, height);
+    }
+
+    /**
+     * Returns a new grid with the same size and density as this grid
+     * @return a copy of this grid
+     */
+    public DensityGrid copy() {
+        final float[] DATA = data.clone();
+        if (1f != scale) {
+            for (int i = 0 ; i < DATA.length ; i++) { DATA[i] *= scale; }
+        }
+        return new DensityGrid(width, height, DATA);
+    }
+
+    /**
+     * Writes the density of all cells in row major order to the given channel
+     * @param CHANNEL
+     * @param BUFFER a buffer created by BinaryIO.createBuffer()
+     * @throws IOException
+     */
+    public void write(final WritableByteChannel CHANNEL, final ByteBuffer BUFFER) throws IOException {
+        applyScale();
+        BinaryIO.writeFloats(CHANNEL, BUFFER, data, 0, data.length);
+    }
+
+    /**
+     * Replaces the density of all cells with the density that has been
+     * written with write() by a grid of the same size
+     * @param CHANNEL
+     * @param BUFFER a buffer created by BinaryIO.createBuffer()
+     * @throws IOException
+     */
+    public void read(final ReadableByteChannel CHANNEL, final ByteBuffer BUFFER) throws IOException {
+        BinaryIO.readFloats(CHANNEL, BUFFER, data, 0, data.length);
+        scale = 1f;
+        histogram.rebuild(data);
+        invalidateSummedAreaTable(0, 0);
+        markDirty(0, 0, width, height);
+    }
+
+    /**
+     * Resets the density of all cells to 0
+     */
+    public void clear() {
+        Arrays.fill(data, 0f);
+        scale = 1f;
+        histogram.clear();
+        invalidateSummedAreaTable(0, 0);
+        markDirty(0, 0, width, height);
+    }
+
+    /**
+     * Resets the density of the cells in the given region to 0, the
+     * costs only depend on the size of the region
+     * @param MIN_X inclusive
+     * @param MIN_Y inclusive
+     * @param MAX_X exclusive
+     * @param MAX_Y exclusive
+     */
+    public void clear(final int MIN_X, final int MIN_Y, final int MAX_X, final int MAX_Y) {
+        if (MIN_X <= 0 && MIN_Y <= 0 && MAX_X >= width && MAX_Y >= height) {
+            clear();
+            return;
+        }
+        final int FROM_X = Math.max(0, MIN_X);
+        final int FROM_Y = Math.max(0, MIN_Y);
+        final int TO_X   = Math.min(width, MAX_X);
+        final int TO_Y   = Math.min(height, MAX_Y);
+        if (FROM_X >= TO_X || FROM_Y >= TO_Y) { return; }
+        for (int y = FROM_Y ; y < TO_Y ; y++) {
+            final int END = y * width + TO_X;
+            for (int i = y * width + FROM_X ; i < END ; i++) {
+                histogram.update(data[i], 0f);
+                data[i] = 0f;
+            }
+        }
+        invalidateSummedAreaTable(FROM_X, FROM_Y);
+        markDirty(FROM_X, FROM_Y, TO_X, TO_Y);
+    }
+
+    /**
+     * Changes the size of the grid. The density of cells that are part of
+     * the old and the new grid will be preserved.
+     * @param WIDTH
+     * @param HEIGHT
+     */
+    public void resize(final int WIDTH, final int HEIGHT) {
+        final int NEW_WIDTH  = WIDTH < 0 ? 0 : WIDTH;
+        final int NEW_HEIGHT = HEIGHT < 0 ? 0 : HEIGHT;
+        if (NEW_WIDTH == width && NEW_HEIGHT == height) { return; }
+        applyScale();
+        final float[] NEW_DATA = new float[NEW_WIDTH * NEW_HEIGHT];
+        final int     COPY_W   = Math.min(width, NEW_WIDTH);
+        final int     COPY_H   = Math.min(height, NEW_HEIGHT);
+        for (int y = 0 ; y < COPY_H ; y++) {
+            System.arraycopy(data, y * width, NEW_DATA, y * NEW_WIDTH, COPY_W);
+        }
+        width  = NEW_WIDTH;
+        height = NEW_HEIGHT;
+        data   = NEW_DATA;
+        histogram.rebuild(data);
+        if (null != summedAreaTable) { summedAreaTable = new SummedAreaTable(width, height); }
+        resetDirtyRegion();
+        markDirty(0, 0, width, height);
+    }
+
+    /**
+     * Multiplies the density of all cells with the given factor, e.g.
+     * 0.5 halves the density. This only changes a global scale factor
+     * and therefore does not depend on the size of the grid.
+     * @param FACTOR a value between 0 and 1
+     */
+    public void decay(final double FACTOR) {
+        if (FACTOR >= 1) { return; }
+        if (FACTOR <= 0) {
+            clear();
+            return;
+        }
+        scale *= FACTOR;
+        if (scale < MIN_SCALE) { applyScale(); }
+        markDirty(0, 0, width, height);
+    }
+
+    private void invalidateSummedAreaTable(final int MIN_X, final int MIN_Y) {
+        if (null != summedAreaTable) { summedAreaTable.invalidate(MIN_X, MIN_Y); }
+    }
+
+    /**
+     * Multiplies all cells with the pending scale factor and resets it to 1
+     */
+    private void applyScale() {
+        if (1f == scale) { return; }
+        final float SCALE = scale;
+        for (int i = 0 ; i < data.length ; i++) { data[i] *= SCALE; }
+        scale = 1f;
+        histogram.rebuild(data);
+        if (null != summedAreaTable) { summedAreaTable.scale(SCALE); }
+    }
+
+    public boolean isSummedAreaTableEnabled() {
+        return null != summedAreaTable;
+    }
+    /**
+     * If enabled the grid maintains a summed-area table of its cells, so
+     * the sum, mean and ratio of the density in any rectangle could be
+     * queried in constant time. The table needs 8 bytes per cell and will
+     * be updated lazily on the next query for the cells that have been
+     * changed. If disabled the queries scan the cells of the rectangle.
+     * @param ENABLED
+     */
+    public void setSummedAreaTableEnabled(final boolean ENABLED) {
+        if (ENABLED == isSummedAreaTableEnabled()) { return; }
+        summedAreaTable = ENABLED ? new SummedAreaTable(width, height) : null;
+    }
+
+    /**
+     * Returns the sum of the density of all cells in the given rectangle,
+     * parts of the rectangle outside of the grid will be ignored
+     * @param MIN_X inclusive
+     * @param MIN_Y inclusive
+     * @param MAX_X exclusive
+     * @param MAX_Y exclusive
+     * @return the sum of the density in the given rectangle
+     */
+    public double getSum(final int MIN_X, final int MIN_Y, final int MAX_X, final int MAX_Y) {
+        if (null != summedAreaTable) {
+            summedAreaTable.update(data);
+            return summedAreaTable.sum(MIN_X, MIN_Y, MAX_X, MAX_Y) * scale;
+        }
+        final int X0  = Math.max(0, MIN_X);
+        final int Y0  = Math.max(0, MIN_Y);
+        final int X1  = Math.min(width, MAX_X);
+        final int Y1  = Math.min(height, MAX_Y);
+        double    sum = 0;
+        for (int y = Y0 ; y < Y1 ; y++) {
+            final int END = y * width + X1;
+            for (int i = y * width + X0 ; i < END ; i++) { sum += data[i]; }
+        }
+        return sum * scale;
+    }
+
+    /**
+     * Returns the mean density of the cells in the given rectangle, parts
+     * of the rectangle outside of the grid will be ignored
+     * @param MIN_X inclusive
+     * @param MIN_Y inclusive
+     * @param MAX_X exclusive
+     * @param MAX_Y exclusive
+     * @return the mean density in the given rectangle or 0 if it does not contain any cells
+     */
+    public double getMean(final int MIN_X, final int MIN_Y, final int MAX_X, final int MAX_Y) {
+        final long AREA = (long) Math.max(0, Math.min(width, MAX_X) - Math.max(0, MIN_X)) * Math.max(0, Math.min(height, MAX_Y) - Math.max(0, MIN_Y));
+        return 0 == AREA ? 0 : getSum(MIN_X, MIN_Y, MAX_X, MAX_Y) / AREA;
+    }
+
+    /**
+     * Returns the share of the density in the given rectangle of the
+     * density of the whole grid, e.g. 0.25 if a quarter of the heat is in
+     * the given rectangle
+     * @param MIN_X inclusive
+     * @param MIN_Y inclusive
+     * @param MAX_X exclusive
+     * @param MAX_Y exclusive
+     * @return the share of the density in the given rectangle in the range of 0 - 1
+     */
+    public double getRatio(final int MIN_X, final int MIN_Y, final int MAX_X, final int MAX_Y) {
+        final double TOTAL = getSum(0, 0, width, height);
+        return TOTAL <= 0 ? 0 : getSum(MIN_X, MIN_Y, MAX_X, MAX_Y) / TOTAL;
+    }
+
+    /**
+     * Returns true if cells have been changed since the last call of
+     * resetDirtyRegion()
+     * @return true if cells have been changed since the last reset
+     */
+    public boolean isDirty() {
+        return dirtyMinX < dirtyMaxX && dirtyMinY < dirtyMaxY;
+    }
+
+    /**
+     * The dirty region is the union of the bounds of all changes since the
+     * last call of resetDirtyRegion(). Min values are inclusive, max values
+     * are exclusive.
+     * @return the inclusive left bound of the dirty region
+     */
+    public int getDirtyMinX() {
+        return dirtyMinX;
+    }
+
+    public int getDirtyMinY() {
+        return dirtyMinY;
+    }
+
+    public int getDirtyMaxX() {
+        return dirtyMaxX;
+    }
+
+    public int getDirtyMaxY() {
+        return dirtyMaxY;
+    }
+
+    /**
+     * Adds the given region to the dirty region
+     * @param MIN_X inclusive
+     * @param MIN_Y inclusive
+     * @param MAX_X exclusive
+     * @param MAX_Y exclusive
+     */
+    public void markDirty(final int MIN_X, final int MIN_Y, final int MAX_X, final int MAX_Y) {
+        if (MIN_X >= MAX_X || MIN_Y >= MAX_Y) { return; }
+        dirtyMinX = Math.max(0, Math.min(dirtyMinX, MIN_X));
+        dirtyMinY = Math.max(0, Math.min(dirtyMinY, MIN_Y));
+        dirtyMaxX = Math.min(width, Math.max(dirtyMaxX, MAX_X));
+        dirtyMaxY = Math.min(height, Math.max(dirtyMaxY, MAX_Y));
+    }
+
+    /**
+     * Marks the whole grid as clean, should be called after the dirty
+     * region has been rendered
+     */
+    public void resetDirtyRegion() {
+        dirtyMinX = Integer.MAX_VALUE;
+        dirtyMinY = Integer.MAX_VALUE;
+        dirtyMaxX = 0;
+        dirtyMaxY = 0;
+    }
+
+    /**
+     * Maps the density of each cell to a color of the given lookup table and
+     * writes the resulting ARGB values into the given pixel array which
+     * must have a size of at least width * height.
+     * @param LOOKUP_TABLE
+     * @param FADE_COLORS
+     * @param PIXELS
+     */
+    public void colorize(final int[] LOOKUP_TABLE, final boolean FADE_COLORS, final int[] PIXELS) {
+        colorize(LOOKUP_TABLE, FADE_COLORS, PIXELS, 0, 0, width, height, null);
+    }
+
+    /**
+     * Maps the density of the cells in the given region to a color of the
+     * given lookup table and writes the resulting ARGB values into the given
+     * pixel array which has the same layout as the grid.
+     * @param LOOKUP_TABLE
+     * @param FADE_COLORS
+     * @param PIXELS
+     * @param MIN_X inclusive
+     * @param MIN_Y inclusive
+     * @param MAX_X exclusive
+     * @param MAX_Y exclusive
+     * @param POOL the pool that should be used or null to use the calling thread
+     */
+    public void colorize(final int[] LOOKUP_TABLE, final boolean FADE_COLORS, final int[] PIXELS, final int MIN_X, final int MIN_Y, final int MAX_X, final int MAX_Y, final ForkJoinPool POOL) {
+        colorize(LOOKUP_TABLE, FADE_COLORS, PIXELS, MIN_X, MIN_Y, MAX_X, MAX_Y, POOL, Normalization.COMPOSITE, 0);
+    }
+
+    /**
+     * Maps the density of the cells in the given region to a color of the
+     * given lookup table by using the given normalization and writes the
+     * resulting ARGB values into the given pixel array which has the same
+     * layout as the grid. Except for COMPOSITE the density will be mapped
+     * linearly to the colors where the given reference density (e.g. the
+     * result of getMax()) maps to the last color of the lookup table.
+     * @param LOOKUP_TABLE
+     * @param FADE_COLORS
+     * @param PIXELS
+     * @param MIN_X inclusive
+     * @param MIN_Y inclusive
+     * @param MAX_X exclusive
+     * @param MAX_Y exclusive
+     * @param POOL the pool that should be used or null to use the calling thread
+     * @param NORMALIZATION
+     * @param REFERENCE the density that maps to the last color
+     */
+    public void colorize(final int[] LOOKUP_TABLE, final boolean FADE_COLORS, final int[] PIXELS, final int MIN_X, final int MIN_Y, final int MAX_X, final int MAX_Y, final ForkJoinPool POOL,
+                         final Normalization NORMALIZATION, final float REFERENCE) {
+        colorize(LOOKUP_TABLE, FADE_COLORS, PIXELS, MIN_X, MIN_Y, MAX_X, MAX_Y, POOL, NORMALIZATION, Scaling.LINEAR, REFERENCE);
+    }
+
+    /**
+     * Maps the density of the cells in the given region to a color of the
+     * given lookup table by using the given normalization and scaling and
+     * writes the resulting ARGB values into the given pixel array which has
+     * the same layout as the grid. Except for COMPOSITE the density will be
+     * divided by the given reference density (e.g. the result of getMax())
+     * and mapped to the colors with the given scaling. The scaling is done
+     * with a precomputed table, so LOG and SQRT cost the same as LINEAR.
+     * @param LOOKUP_TABLE a lookup table with 256 colors
+     * @param FADE_COLORS
+     * @param PIXELS
+     * @param MIN_X inclusive
+     * @param MIN_Y inclusive
+     * @param MAX_X exclusive
+     * @param MAX_Y exclusive
+     * @param POOL the pool that should be used or null to use the calling thread
+     * @param NORMALIZATION
+     * @param SCALING
+     * @param REFERENCE the density that maps to the last color
+     */
+    public void colorize(final int[] LOOKUP_TABLE, final boolean FADE_COLORS, final int[] PIXELS, final int MIN_X, final int MIN_Y, final int MAX_X, final int MAX_Y, final ForkJoinPool POOL,
+                         final Normalization NORMALIZATION, final Scaling SCALING, final float REFERENCE) {
+        final float   SCALE         = scale;
+        final boolean COMPOSITE     = Normalization.COMPOSITE == NORMALIZATION;
+        final float   FACTOR        = REFERENCE > 0 ? SCALE * (SCALING_TABLE_SIZE - 1) / REFERENCE : 0;
+        final int[]   SCALING_TABLE = SCALING_TABLES[SCALING.ordinal()];
+        RowBands.forEachBand(POOL, MIN_Y, MAX_Y, (FROM_Y, TO_Y) -> {
+            int opacity;
+            int index;
+            for (int y = FROM_Y ; y < TO_Y ; y++) {
+                final int END = y * width + MAX_X;
+                for (int i = y * width + MIN_X ; i < END ; i++) {
+                    if (COMPOSITE) {
+                        opacity = toOpacity(data[i] * SCALE);
+                    } else {
+                        index   = (int) (data[i] * FACTOR);
+                        opacity = SCALING_TABLE[index < 0 ? 0 : index >= SCALING_TABLE_SIZE ? SCALING_TABLE_SIZE - 1 : index];
+                    }
+                    PIXELS[i] = FADE_COLORS ? (opacity << 24) | (LOOKUP_TABLE[opacity] & 0x00FFFFFF) : LOOKUP_TABLE[opacity];
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the max density of all cells. The max is maintained while
+     * stamping, only if the cell with the max density has been decreased
+     * (e.g. by subtracting a grid) the cells have to be scanned again.
+     * @return the max density of all cells
+     */
+    public float getMax() {
+        if (!histogram.isMaxValid()) {
+            float max = 0;
+            for (float value : data) { if (value > max) { max = value; } }
+            histogram.setMax(max);
+        }
+        return histogram.getMax() * scale;
+    }
+
+    /**
+     * Returns the density below which the given percentage of all cells
+     * that contain a density lie. The result is taken from a coarse
+     * histogram that is maintained while stamping, so no scan of the
+     * cells is needed, and is accurate to about 9% of the density.
+     * @param PERCENTILE in the range of 0 - 100
+     * @return the density at the given percentile
+     */
+    public float getPercentile(final double PERCENTILE) {
+        getMax();
+        return histogram.getPercentile(PERCENTILE) * scale;
+    }
+
+    /**
+     * Converts the given accumulated density into an opacity in the range
+     * of 0 - 255 by using a precomputed table for 1 - exp(-density)
+     * @param DENSITY
+     * @return the opacity in the range of 0 - 255
+     */
+    public static int toOpacity(final float DENSITY) {
+        if (DENSITY <= 0) { return 0; }
+        final int INDEX = (int) (DENSITY * STEPS_PER_DEPTH);
+        return INDEX < OPACITY_TABLE_SIZE ? OPACITY_TABLE[INDEX] : 255;
+    }
+
+    private static int[][] createScalingTables() {
+        final Scaling[] SCALINGS = Scaling.values();
+        final int[][]   TABLES   = new int[SCALINGS.length][SCALING_TABLE_SIZE];
+        for (Scaling scaling : SCALINGS) {
+            for (int i = 0 ; i < SCALING_TABLE_SIZE ; i++) {
+                TABLES[scaling.ordinal()][i] = (int) Math.round(255 * scaling.apply((double) i / (SCALING_TABLE_SIZE - 1)));
+            }
+        }
+        return TABLES;
+    }
+
+    private static int[] createOpacityTable() {
+        final int[] TABLE = new int[OPACITY_TABLE_SIZE];
+        for (int i = 0 ; i < OPACITY_TABLE_SIZE ; i++) {
+            double depth = (i + 0.5) / STEPS_PER_DEPTH;
+            TABLE[i] = (int) Math.min(255, Math.round(255 * -Math.expm1(-depth)));
+        }
+        return TABLE;
+    }
+
+
+    // ******************** Inner Classes *************************************
+    /**
+     * The summed weights of events with the same kernel per pixel of the
+     * upper left corner of the kernel. Only kernels that overlap the grid
+     * are binned, so the bins extend the grid by the size of the kernel
+     * to the left and the top.
+     */
+    private static class KernelBins {
+        private final Kernel              kernel;
+        private final float               radius;
+        private final OpacityDistribution opacityDistribution;
+        private final int                 offsetX;
+        private final int                 offsetY;
+        private final int                 binWidth;
+        private final int                 maxX;
+        private final int                 maxY;
+        private final float[]             weights;
+        private int                       minLeft;
+        private int                       minTop;
+        private int                       maxLeft;
+        private int                       maxTop;
+
+        KernelBins(final Kernel KERNEL, final float RADIUS, final OpacityDistribution OPACITY_DISTRIBUTION, final int WIDTH, final int HEIGHT) {
+            kernel              = KERNEL;
+            radius              = RADIUS;
+            opacityDistribution = OPACITY_DISTRIBUTION;
+            offsetX             = KERNEL.getWidth() - 1;
+            offsetY             = KERNEL.getHeight() - 1;
+            binWidth            = WIDTH + offsetX;
+            maxX                = WIDTH;
+            maxY                = HEIGHT;
+            weights             = new float[binWidth * (HEIGHT + offsetY)];
+            minLeft             = Integer.MAX_VALUE;
+            minTop              = Integer.MAX_VALUE;
+            maxLeft             = Integer.MIN_VALUE;
+            maxTop              = Integer.MIN_VALUE;
+        }
+
+        void add(final int LEFT, final int TOP, final float WEIGHT) {
+            if (LEFT < -offsetX || TOP < -offsetY || LEFT >= maxX || TOP >= maxY) { return; }
+            weights[(TOP + offsetY) * binWidth + LEFT + offsetX] += WEIGHT;
+            if (LEFT < minLeft) { minLeft = LEFT; }
+            if (LEFT > maxLeft) { maxLeft = LEFT; }
+            if (TOP < minTop)   { minTop = TOP; }
+            if (TOP > maxTop)   { maxTop = TOP; }
+        }
+
+        boolean isEmpty() {
+            return minLeft > maxLeft;
+        }
+    }
+}
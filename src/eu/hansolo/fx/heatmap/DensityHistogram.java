@@ -0,0 +1,148 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import java.util.Arrays;
+
+
+/**
+ * A coarse histogram of the cell values of a density grid together with
+ * the max value that is updated incrementally whenever a cell changes,
+ * so the max and percentiles of the density are available without
+ * scanning the grid. The bins are spaced logarithmically with 8 bins per
+ * power of two which are taken directly from the exponent and the upper
+ * mantissa bits of the float value, so finding the bin of a value only
+ * needs a few integer operations. Percentiles are therefore accurate to
+ * about 9% of the value. Cells with a value of 0 or less are not counted.
+ */
+public class DensityHistogram {
+    private static final int   SHIFT          = 20;
+    private static final float MIN_VALUE      = 1e-5f;
+    private static final float MAX_VALUE      = 1e9f;
+    private static final int   BASE           = Float.floatToRawIntBits(MIN_VALUE) >> SHIFT;
+    public static final int    NO_OF_BINS     = (Float.floatToRawIntBits(MAX_VALUE) >> SHIFT) - BASE + 1;
+    private final int[]        bins;
+    private int                count;
+    private float              max;
+    private boolean            maxValid;
+
+
+    // ******************** Constructors **************************************
+    public DensityHistogram() {
+        bins     = new int[NO_OF_BINS];
+        count    = 0;
+        max      = 0;
+        maxValid = true;
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Moves a cell from the bin of its old value to the bin of its new value
+     * @param OLD_VALUE
+     * @param NEW_VALUE
+     */
+    public void update(final float OLD_VALUE, final float NEW_VALUE) {
+        final int OLD_BIN = bin(OLD_VALUE);
+        final int NEW_BIN = bin(NEW_VALUE);
+        if (OLD_BIN != NEW_BIN) {
+            if (OLD_BIN >= 0) { bins[OLD_BIN]--; count--; }
+            if (NEW_BIN >= 0) { bins[NEW_BIN]++; count++; }
+        }
+        if (NEW_VALUE > max) {
+            max = NEW_VALUE;
+        } else if (OLD_VALUE == max && NEW_VALUE < OLD_VALUE) {
+            maxValid = false;
+        }
+    }
+
+    /**
+     * Recomputes the histogram and the max from the given values
+     * @param VALUES
+     */
+    public void rebuild(final float[] VALUES) {
+        clear();
+        for (float value : VALUES) {
+            final int BIN = bin(value);
+            if (BIN < 0) { continue; }
+            bins[BIN]++;
+            count++;
+            if (value > max) { max = value; }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(bins, 0);
+        count    = 0;
+        max      = 0;
+        maxValid = true;
+    }
+
+    /**
+     * Returns the number of cells with a value greater than 0
+     * @return the number of cells with a value greater than 0
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns false if the cell with the max value has been decreased
+     * since the last rebuild. In this case the max has to be recomputed
+     * with setMax().
+     * @return true if the max is up to date
+     */
+    public boolean isMaxValid() {
+        return maxValid;
+    }
+
+    public float getMax() {
+        return max;
+    }
+
+    public void setMax(final float MAX) {
+        max      = MAX;
+        maxValid = true;
+    }
+
+    /**
+     * Returns the value below which the given percentage of all counted
+     * cells lie. The result is the upper edge of the bin that contains the
+     * percentile but never more than the max.
+     * @param PERCENTILE in the range of 0 - 100
+     * @return the value at the given percentile
+     */
+    public float getPercentile(final double PERCENTILE) {
+        if (0 == count) { return 0; }
+        final double TARGET = count * Math.max(0, Math.min(100, PERCENTILE)) / 100.0;
+        long         sum    = 0;
+        for (int i = 0 ; i < NO_OF_BINS ; i++) {
+            sum += bins[i];
+            if (sum >= TARGET && sum > 0) { return Math.min(max, Float.intBitsToFloat((i + BASE + 1) << SHIFT)); }
+        }
+        return max;
+    }
+
+    /**
+     * Returns the bin of the given value or -1 if the value is 0 or less
+     * @param VALUE
+     * @return the bin of the given value or -1 if the value is 0 or less
+     */
+    private static int bin(final float VALUE) {
+        if (VALUE <= 0) { return -1; }
+        final int BIN = (Float.floatToRawIntBits(VALUE) >> SHIFT) - BASE;
+        return BIN < 0 ? 0 : BIN >= NO_OF_BINS ? NO_OF_BINS - 1 : BIN;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+/**
+ * Defines the kernel that is used by a KernelDensityEstimator to smooth
+ * the binned events. All kernels are separable and are applied as two 1D
+ * passes over the grid. The radius of the kernel is the distance at which
+ * its weight drops to (almost) zero, so GAUSSIAN uses a standard deviation
+ * of a third of the radius. FAST_GAUSSIAN approximates GAUSSIAN by three
+ * box blurs per direction which costs a constant time per cell,
+ * independent of the radius.
+ */
+public enum DensityKernel {
+    GAUSSIAN, FAST_GAUSSIAN, EPANECHNIKOV;
+
+    /**
+     * Returns the weight of the 1D kernel at the given distance from its
+     * center, the weight at the center is always 1
+     * @param DISTANCE
+     * @param RADIUS
+     * @return the weight of the kernel at the given distance in the range of 0 - 1
+     */
+    public double weight(final double DISTANCE, final double RADIUS) {
+        final double FRACTION = DISTANCE / RADIUS;
+        if (EPANECHNIKOV == this) {
+            return FRACTION >= 1 || FRACTION <= -1 ? 0 : 1 - FRACTION * FRACTION;
+        } else {
+            // Standard deviation of RADIUS / 3
+            return Math.exp(-4.5 * FRACTION * FRACTION);
+        }
+    }
+}
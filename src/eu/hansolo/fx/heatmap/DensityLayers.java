@@ -0,0 +1,188 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * Renders all events of an event store with a common radius and opacity
+ * distribution into a density grid and caches the results, so switching
+ * between radii and opacity distributions doesn't need a pass over all
+ * events. Like the kernels the radius is quantized to 1/16 of a pixel.
+ * The weights of the events are kept in EventBins which will be stamped
+ * with the kernel of the requested radius and distribution. Bins only
+ * depend on the fractional part of the radius, so they are kept per
+ * fraction and are shared by all radii with the same fraction. The
+ * resulting densities are kept as layers in a least recently used cache
+ * that is keyed like the KernelCache, so switching back to a combination
+ * that has been rendered before only costs a copy of the layer. Events
+ * that have been added to the store since the last call will be added to
+ * the bins, all bins and layers will be dropped if the store or the size
+ * of the grid changes.
+ */
+public class DensityLayers {
+    public static final int    DEFAULT_NO_OF_LAYERS = 4;
+    public static final int    DEFAULT_NO_OF_BINS   = 4;
+    private static final int   MIN_MARGIN           = 32;
+    private static final long  NO_KEY               = -1L;
+    private final EventStore   eventStore;
+    private final long[]       layerKeys;
+    private final long[]       layerLastUsed;
+    private final float[][]    layers;
+    private final EventBins[]  bins;
+    private final int[]        binnedEvents;
+    private final long[]       binsLastUsed;
+    private long               clock;
+    private int                layerEvents;
+    private int                layerWidth;
+    private int                layerHeight;
+    private int                generation;
+
+
+    // ******************** Constructors **************************************
+    public DensityLayers(final EventStore EVENT_STORE) {
+        this(EVENT_STORE, DEFAULT_NO_OF_LAYERS, DEFAULT_NO_OF_BINS);
+    }
+    public DensityLayers(final EventStore EVENT_STORE, final int MAX_NO_OF_LAYERS) {
+        this(EVENT_STORE, MAX_NO_OF_LAYERS, DEFAULT_NO_OF_BINS);
+    }
+    /**
+     * Creates a cache for the events of the given store
+     * @param EVENT_STORE
+     * @param MAX_NO_OF_LAYERS the number of layers that will be kept, each needs one float per pixel
+     * @param MAX_NO_OF_BINS the number of fractions bins will be kept for, each needs one float per pixel and margin
+     */
+    public DensityLayers(final EventStore EVENT_STORE, final int MAX_NO_OF_LAYERS, final int MAX_NO_OF_BINS) {
+        if (MAX_NO_OF_BINS < 1) { throw new IllegalArgumentException("At least one bins must be kept"); }
+        eventStore    = EVENT_STORE;
+        layerKeys     = new long[MAX_NO_OF_LAYERS < 0 ? 0 : MAX_NO_OF_LAYERS];
+        layerLastUsed = new long[layerKeys.length];
+        layers        = new float[layerKeys.length][];
+        bins          = new EventBins[Math.min(MAX_NO_OF_BINS, KernelCache.RADIUS_STEPS)];
+        binnedEvents  = new int[bins.length];
+        binsLastUsed  = new long[bins.length];
+        clock         = 0;
+        generation    = EVENT_STORE.getGeneration();
+        clear();
+    }
+
+
+    // ******************** Methods *******************************************
+    public EventStore getEventStore() {
+        return eventStore;
+    }
+
+    /**
+     * Replaces the density of the given grid with the density of all events
+     * in the store rendered with the given radius and opacity distribution,
+     * the radius and opacity distribution of the single events will be
+     * ignored
+     * @param GRID
+     * @param RADIUS will be quantized to 1/16 of a pixel
+     * @param OPACITY_DISTRIBUTION
+     * @param POOL the pool that should be used to stamp the bins or null to use the calling thread
+     */
+    public void render(final DensityGrid GRID, final double RADIUS, final OpacityDistribution OPACITY_DISTRIBUTION, final ForkJoinPool POOL) {
+        final long   QUANTIZED_RADIUS = KernelCache.quantize(RADIUS);
+        final double RAD              = (double) QUANTIZED_RADIUS / KernelCache.RADIUS_STEPS;
+        final long   KEY              = ((long) OPACITY_DISTRIBUTION.ordinal() << 32) | QUANTIZED_RADIUS;
+        validate(GRID.getWidth(), GRID.getHeight());
+        clock++;
+        int eldest = 0;
+        for (int i = 0 ; i < layerKeys.length ; i++) {
+            if (layerKeys[i] == KEY) {
+                layerLastUsed[i] = clock;
+                GRID.setData(layers[i], 0, GRID.getWidth());
+                return;
+            }
+            if (layerLastUsed[i] < layerLastUsed[eldest]) { eldest = i; }
+        }
+        GRID.clear();
+        GRID.addEvents(getEventBins(RAD), GRID.getKernel(RAD, OPACITY_DISTRIBUTION), RAD, POOL);
+        if (0 == layerKeys.length) { return; }
+        layerKeys[eldest]     = KEY;
+        layerLastUsed[eldest] = clock;
+        layers[eldest]        = null == layers[eldest] ? GRID.getData().clone() : copy(GRID.getData(), layers[eldest]);
+    }
+
+    /**
+     * Drops all bins and cached layers
+     */
+    public void clear() {
+        Arrays.fill(layerKeys, NO_KEY);
+        Arrays.fill(layerLastUsed, 0);
+        Arrays.fill(layers, null);
+        Arrays.fill(bins, null);
+        Arrays.fill(binnedEvents, 0);
+        Arrays.fill(binsLastUsed, 0);
+        layerEvents = 0;
+        layerWidth  = 0;
+        layerHeight = 0;
+    }
+
+    /**
+     * Returns the bins that could be stamped with the given radius, which
+     * are shared by all radii with the same fraction of 1/16 of a pixel,
+     * and adds the events that have been added to the store since the bins
+     * have been used the last time
+     * @param RADIUS a radius that is quantized to 1/16 of a pixel
+     * @return bins that are up to date and compatible with the given radius
+     */
+    EventBins getEventBins(final double RADIUS) {
+        final double FRACTION = EventBins.fractionOf(RADIUS);
+        int          index    = -1;
+        int          eldest   = 0;
+        for (int i = 0 ; i < bins.length ; i++) {
+            if (null != bins[i] && bins[i].getFraction() == FRACTION) { index = i; }
+            if (binsLastUsed[i] < binsLastUsed[eldest]) { eldest = i; }
+        }
+        if (-1 == index || !bins[index].isCompatible(RADIUS)) {
+            index               = -1 == index ? eldest : index;
+            // Double the margin to leave room for growing radii
+            bins[index]         = new EventBins(layerWidth, layerHeight, (int) Math.max(MIN_MARGIN, 2 * Math.ceil(RADIUS)), FRACTION);
+            binnedEvents[index] = 0;
+        }
+        binsLastUsed[index] = ++clock;
+        bins[index].add(eventStore, binnedEvents[index]);
+        binnedEvents[index] = eventStore.size();
+        return bins[index];
+    }
+
+    /**
+     * Drops the bins and layers that are out of date for the given size of
+     * the grid and the current content of the store
+     */
+    private void validate(final int WIDTH, final int HEIGHT) {
+        final int SIZE = eventStore.size();
+        if (eventStore.getGeneration() != generation || SIZE < layerEvents || WIDTH != layerWidth || HEIGHT != layerHeight) {
+            clear();
+            generation  = eventStore.getGeneration();
+            layerWidth  = WIDTH;
+            layerHeight = HEIGHT;
+        }
+        if (SIZE != layerEvents) {
+            Arrays.fill(layerKeys, NO_KEY);
+            layerEvents = SIZE;
+        }
+    }
+
+    private static float[] copy(final float[] SOURCE, final float[] TARGET) {
+        if (SOURCE.length != TARGET.length) { return SOURCE.clone(); }
+        System.arraycopy(SOURCE, 0, TARGET, 0, SOURCE.length);
+        return TARGET;
+    }
+}
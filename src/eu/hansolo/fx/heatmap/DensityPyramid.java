@@ -0,0 +1,327 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * A multi resolution pyramid of density tiles for heat maps that are
+ * much larger than the screen. Level 0 contains the full resolution
+ * and is kept in a TileStore, either sparse on the heap or in a memory
+ * mapped file, only tiles that have been touched by an event will be
+ * allocated. Each tile of level n + 1 covers 2 x 2 tiles of
+ * level n and contains their mean density. The tiles of the upper
+ * levels are computed lazily when they are requested and are kept in
+ * a bounded least recently used cache. Stamping an event updates the
+ * mean density of the cached tiles above the touched tiles only in the
+ * area of the event, so the costs of an event do not depend on the
+ * size of the map and zooming out does not have to compute the upper
+ * levels again.
+ * The pyramid is not thread safe.
+ */
+public class DensityPyramid {
+    public static final int                        DEFAULT_TILE_SIZE      = 256;
+    public static final int                        DEFAULT_CACHE_CAPACITY = 512;
+    private final int                              width;
+    private final int                              height;
+    private final int                              tileSize;
+    private final int                              noOfLevels;
+    private final KernelCache                      kernelCache;
+    private final TileStore                        tiles;
+    private final LinkedHashMap<Long, DensityGrid> levelTiles;
+    private final long[][]                         tileVersions;
+    private int                                    cacheCapacity;
+    private long                                   version;
+
+
+    // ******************** Constructors **************************************
+    public DensityPyramid(final int WIDTH, final int HEIGHT) {
+        this(WIDTH, HEIGHT, DEFAULT_TILE_SIZE, DEFAULT_CACHE_CAPACITY);
+    }
+    public DensityPyramid(final int WIDTH, final int HEIGHT, final int TILE_SIZE, final int CACHE_CAPACITY) {
+        this(new HeapTileStore(WIDTH, HEIGHT, TILE_SIZE), CACHE_CAPACITY);
+    }
+    public DensityPyramid(final TileStore TILE_STORE, final int CACHE_CAPACITY) {
+        width         = TILE_STORE.getWidth();
+        height        = TILE_STORE.getHeight();
+        tileSize      = TILE_STORE.getTileSize();
+        noOfLevels    = computeNoOfLevels(width, height, tileSize);
+        kernelCache   = new KernelCache();
+        tiles         = TILE_STORE;
+        cacheCapacity = CACHE_CAPACITY;
+        levelTiles    = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(final Map.Entry<Long, DensityGrid> ELDEST) { return size() > cacheCapacity; }
+        };
+        tileVersions  = new long[noOfLevels][];
+        for (int level = 0 ; level < noOfLevels ; level++) { tileVersions[level] = new long[getNoOfTilesX(level) * getNoOfTilesY(level)]; }
+        version       = 0;
+    }
+
+
+    // ******************** Methods *******************************************
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public TileStore getTileStore() {
+        return tiles;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Returns the number of levels, the tiles of the highest level cover
+     * the whole map with a single tile
+     * @return the number of levels
+     */
+    public int getNoOfLevels() {
+        return noOfLevels;
+    }
+
+    /**
+     * Returns the number of tiles in x direction on the given level
+     * @param LEVEL
+     * @return the number of tiles in x direction on the given level
+     */
+    public int getNoOfTilesX(final int LEVEL) {
+        return (int) Math.ceil((double) width / ((long) tileSize << LEVEL));
+    }
+
+    /**
+     * Returns the number of tiles in y direction on the given level
+     * @param LEVEL
+     * @return the number of tiles in y direction on the given level
+     */
+    public int getNoOfTilesY(final int LEVEL) {
+        return (int) Math.ceil((double) height / ((long) tileSize << LEVEL));
+    }
+
+    /**
+     * Returns a number that changes whenever the density of the pyramid
+     * changes which could be used to detect stale rendered tiles
+     * @return a number that changes whenever the density changes
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns a number that changes whenever the density of the given tile
+     * changes, so a renderer could detect stale tiles without requesting
+     * the tile from the pyramid
+     * @param LEVEL
+     * @param TILE_X
+     * @param TILE_Y
+     * @return a number that changes whenever the density of the tile changes or -1 if the tile is outside of the map
+     */
+    public long getTileVersion(final int LEVEL, final int TILE_X, final int TILE_Y) {
+        if (LEVEL < 0 || LEVEL >= noOfLevels) { throw new IllegalArgumentException("Level must be in the range of 0 - " + (noOfLevels - 1)); }
+        final int NO_OF_TILES_X = getNoOfTilesX(LEVEL);
+        if (TILE_X < 0 || TILE_Y < 0 || TILE_X >= NO_OF_TILES_X || TILE_Y >= getNoOfTilesY(LEVEL)) { return -1; }
+        return tileVersions[LEVEL][TILE_Y * NO_OF_TILES_X + TILE_X];
+    }
+
+    /**
+     * Makes sure that at least the given number of tiles of each level
+     * could be used at the same time without being evicted, e.g. all tiles
+     * that are visible in a viewer. The cache of the upper levels will be
+     * twice as large to also keep the ancestors and the tiles they have
+     * been computed from. The capacity will never shrink.
+     * @param NO_OF_TILES
+     */
+    public void ensureCapacity(final int NO_OF_TILES) {
+        if (2 * NO_OF_TILES > cacheCapacity) { cacheCapacity = 2 * NO_OF_TILES; }
+        tiles.ensureCapacity(NO_OF_TILES);
+    }
+
+    /**
+     * Stamps an event with the given radius, opacity distribution and
+     * weight centered at the given position into all tiles of level 0
+     * that are touched by the kernel of the event
+     * @param X
+     * @param Y
+     * @param RADIUS
+     * @param OPACITY_DISTRIBUTION
+     * @param WEIGHT
+     */
+    public void addEvent(final double X, final double Y, final double RADIUS, final OpacityDistribution OPACITY_DISTRIBUTION, final float WEIGHT) {
+        final double RAD = RADIUS < 1 ? 1 : RADIUS;
+        stamp(kernelCache.get(RAD, OPACITY_DISTRIBUTION), X - RAD, Y - RAD, WEIGHT);
+    }
+
+    /**
+     * Adds the given kernel multiplied by the given weight with its upper
+     * left corner at the given position to all tiles of level 0 that are
+     * touched by the kernel. The tiles will be created if needed.
+     * @param KERNEL
+     * @param LEFT
+     * @param TOP
+     * @param WEIGHT
+     */
+    public void stamp(final Kernel KERNEL, final double LEFT, final double TOP, final float WEIGHT) {
+        final long LEFT_X   = Math.round(LEFT);
+        final long TOP_Y    = Math.round(TOP);
+        final long RIGHT_X  = Math.min(width, LEFT_X + KERNEL.getWidth());
+        final long BOTTOM_Y = Math.min(height, TOP_Y + KERNEL.getHeight());
+        if (RIGHT_X <= 0 || BOTTOM_Y <= 0 || LEFT_X >= width || TOP_Y >= height) { return; }
+        final int MIN_TX = (int) (Math.max(0, LEFT_X) / tileSize);
+        final int MIN_TY = (int) (Math.max(0, TOP_Y) / tileSize);
+        final int MAX_TX = (int) ((RIGHT_X - 1) / tileSize);
+        final int MAX_TY = (int) ((BOTTOM_Y - 1) / tileSize);
+        version++;
+        for (int ty = MIN_TY ; ty <= MAX_TY ; ty++) {
+            for (int tx = MIN_TX ; tx <= MAX_TX ; tx++) {
+                final long  TILE_LEFT = LEFT_X - (long) tx * tileSize;
+                final long  TILE_TOP  = TOP_Y - (long) ty * tileSize;
+                DensityGrid tile      = tiles.getOrCreateTile(tx, ty);
+                tile.stamp(KERNEL, TILE_LEFT, TILE_TOP, WEIGHT);
+                tiles.markModified(tx, ty);
+                update(tx, ty, (int) Math.max(0, TILE_LEFT), (int) Math.max(0, TILE_TOP),
+                       (int) Math.min(tileSize, TILE_LEFT + KERNEL.getWidth()), (int) Math.min(tileSize, TILE_TOP + KERNEL.getHeight()));
+            }
+        }
+    }
+
+    /**
+     * Returns the tile at the given position of the given level or null if
+     * there is no density in the area of the tile. Tiles of level 0 will be
+     * returned directly, tiles of the upper levels will be computed from
+     * the level below if they are not in the cache. The density of the
+     * returned tile must not be modified, a renderer could use
+     * getTileVersion() to detect changes of the tile.
+     * @param LEVEL
+     * @param TILE_X
+     * @param TILE_Y
+     * @return the tile at the given position or null if it is empty
+     */
+    public DensityGrid getTile(final int LEVEL, final int TILE_X, final int TILE_Y) {
+        if (LEVEL < 0 || LEVEL >= noOfLevels) { throw new IllegalArgumentException("Level must be in the range of 0 - " + (noOfLevels - 1)); }
+        if (0 == LEVEL) { return tiles.getTile(TILE_X, TILE_Y); }
+        final long KEY = key(LEVEL, TILE_X, TILE_Y);
+        DensityGrid tile = levelTiles.get(KEY);
+        if (null == tile && !levelTiles.containsKey(KEY)) {
+            tile = downsample(LEVEL, TILE_X, TILE_Y);
+            levelTiles.put(KEY, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Returns the max density of all tiles of level 0
+     * @return the max density of all tiles of level 0
+     */
+    public float getMax() {
+        return tiles.getMax();
+    }
+
+    /**
+     * Removes all tiles
+     */
+    public void clear() {
+        tiles.clear();
+        levelTiles.clear();
+        version++;
+        for (long[] versions : tileVersions) { Arrays.fill(versions, version); }
+    }
+
+    /**
+     * Combines the 2 x 2 tiles of the level below that are covered by the
+     * given tile into a tile with the mean density of each 2 x 2 cells
+     * @param LEVEL
+     * @param TILE_X
+     * @param TILE_Y
+     * @return the combined tile or null if all tiles below are empty
+     */
+    private DensityGrid downsample(final int LEVEL, final int TILE_X, final int TILE_Y) {
+        final int   HALF = tileSize / 2;
+        DensityGrid tile = null;
+        for (int child = 0 ; child < 4 ; child++) {
+            final int   CHILD_X = (child & 1) * HALF;
+            final int   CHILD_Y = (child >> 1) * HALF;
+            DensityGrid childTile = getTile(LEVEL - 1, TILE_X * 2 + (child & 1), TILE_Y * 2 + (child >> 1));
+            if (null == childTile) { continue; }
+            if (null == tile) { tile = new DensityGrid(tileSize, tileSize); }
+            tile.downsample(childTile, CHILD_X, CHILD_Y, CHILD_X, CHILD_Y, CHILD_X + HALF, CHILD_Y + HALF);
+        }
+        return tile;
+    }
+
+    /**
+     * Updates the mean density of the cached tiles of all levels above the
+     * given tile of level 0 in the given region of the tile and updates
+     * the version of the tile and all tiles above. Tiles above a level
+     * whose tile is not cached will be removed, because they could only
+     * be updated by computing the missing tile.
+     * @param TILE_X
+     * @param TILE_Y
+     * @param MIN_X inclusive
+     * @param MIN_Y inclusive
+     * @param MAX_X exclusive
+     * @param MAX_Y exclusive
+     */
+    private void update(final int TILE_X, final int TILE_Y, final int MIN_X, final int MIN_Y, final int MAX_X, final int MAX_Y) {
+        tileVersions[0][TILE_Y * getNoOfTilesX(0) + TILE_X] = version;
+        DensityGrid child = tiles.getTile(TILE_X, TILE_Y);
+        // The region in cells of the current level relative to the map (max inclusive)
+        int         minX  = TILE_X * tileSize + MIN_X;
+        int         minY  = TILE_Y * tileSize + MIN_Y;
+        int         maxX  = TILE_X * tileSize + MAX_X - 1;
+        int         maxY  = TILE_Y * tileSize + MAX_Y - 1;
+        for (int level = 1 ; level < noOfLevels ; level++) {
+            final int  PARENT_X = TILE_X >> level;
+            final int  PARENT_Y = TILE_Y >> level;
+            final long KEY      = key(level, PARENT_X, PARENT_Y);
+            tileVersions[level][PARENT_Y * getNoOfTilesX(level) + PARENT_X] = version;
+            final DensityGrid PARENT = null == child ? null : levelTiles.get(KEY);
+            if (null == PARENT) {
+                levelTiles.remove(KEY);
+                child = null;
+                continue;
+            }
+            // The child covers one quadrant of its parent
+            final int OFFSET_X = ((TILE_X >> (level - 1)) & 1) * (tileSize / 2);
+            final int OFFSET_Y = ((TILE_Y >> (level - 1)) & 1) * (tileSize / 2);
+            minX >>= 1;
+            minY >>= 1;
+            maxX >>= 1;
+            maxY >>= 1;
+            PARENT.downsample(child, OFFSET_X, OFFSET_Y, minX - PARENT_X * tileSize, minY - PARENT_Y * tileSize, maxX - PARENT_X * tileSize + 1, maxY - PARENT_Y * tileSize + 1);
+            child = PARENT;
+        }
+    }
+
+    private static long key(final int LEVEL, final int TILE_X, final int TILE_Y) {
+        return ((long) LEVEL << 56) | ((long) TILE_X << 28) | TILE_Y;
+    }
+
+    private static int computeNoOfLevels(final int WIDTH, final int HEIGHT, final int TILE_SIZE) {
+        int  levels = 1;
+        long size   = TILE_SIZE;
+        while (size < WIDTH || size < HEIGHT) {
+            size <<= 1;
+            levels++;
+        }
+        return levels;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * A sliding time window over a density grid. The density of the window
+ * is split into a ring of time buckets, each one a density grid of its
+ * own. New events are stamped into the grid and into the current bucket.
+ * Advancing the window subtracts the oldest bucket from the grid and
+ * reuses it as the new current bucket, so the grid always contains the
+ * sum of all buckets in the window. The costs of advancing only depend
+ * on the area that has been touched in the expired bucket and not on
+ * the number of events in the window. To avoid an accumulation of
+ * rounding errors the grid will be recomputed from the touched areas of
+ * the buckets once per revolution of the ring, which costs one pass
+ * over the grid every NO_OF_BUCKETS steps. The window also counts the
+ * events per bucket, so the owner of the events knows how many of its
+ * oldest events have left the window and could drop them.
+ */
+public class DensityWindow {
+    private final DensityGrid   grid;
+    private final DensityGrid[] buckets;
+    private final int[]         noOfEvents;
+    private int                 current;
+    private int                 ticks;
+
+
+    // ******************** Constructors **************************************
+    /**
+     * Creates a window over the given grid. The density that the grid
+     * already contains will be treated as part of the current bucket.
+     * @param GRID
+     * @param NO_OF_BUCKETS
+     * @param NO_OF_EVENTS the number of events the grid already contains
+     */
+    public DensityWindow(final DensityGrid GRID, final int NO_OF_BUCKETS, final int NO_OF_EVENTS) {
+        if (NO_OF_BUCKETS < 1) { throw new IllegalArgumentException("At least one bucket is needed"); }
+        grid       = GRID;
+        buckets    = new DensityGrid[NO_OF_BUCKETS];
+        noOfEvents = new int[NO_OF_BUCKETS];
+        for (int i = 0 ; i < NO_OF_BUCKETS ; i++) {
+            buckets[i] = new DensityGrid(GRID.getWidth(), GRID.getHeight());
+            buckets[i].resetDirtyRegion();
+        }
+        current             = 0;
+        ticks               = 0;
+        noOfEvents[current] = NO_OF_EVENTS;
+        buckets[current].add(GRID, 1f, 0, 0, GRID.getWidth(), GRID.getHeight());
+    }
+
+
+    // ******************** Methods *******************************************
+    public DensityGrid getGrid() {
+        return grid;
+    }
+
+    public int getNoOfBuckets() {
+        return buckets.length;
+    }
+
+    /**
+     * Returns the number of events in all buckets of the window
+     * @return the number of events in the window
+     */
+    public int getNoOfEvents() {
+        int sum = 0;
+        for (int count : noOfEvents) { sum += count; }
+        return sum;
+    }
+
+    /**
+     * Adds the given number of events to the count of the current bucket,
+     * should be called for each event that is stamped or added
+     * @param COUNT
+     */
+    public void countEvents(final int COUNT) {
+        noOfEvents[current] += COUNT;
+    }
+
+    /**
+     * Adds the given kernel to the grid and to the current bucket
+     * @param KERNEL
+     * @param LEFT
+     * @param TOP
+     * @param WEIGHT
+     */
+    public void stamp(final Kernel KERNEL, final double LEFT, final double TOP, final float WEIGHT) {
+        grid.stamp(KERNEL, LEFT, TOP, WEIGHT);
+        buckets[current].stamp(KERNEL, LEFT, TOP, WEIGHT);
+    }
+
+    /**
+     * Adds the density of the given grid in the given region to the grid
+     * and to the current bucket
+     * @param GRID
+     * @param MIN_X inclusive
+     * @param MIN_Y inclusive
+     * @param MAX_X exclusive
+     * @param MAX_Y exclusive
+     */
+    public void add(final DensityGrid GRID, final int MIN_X, final int MIN_Y, final int MAX_X, final int MAX_Y) {
+        grid.add(GRID, 1f, MIN_X, MIN_Y, MAX_X, MAX_Y);
+        buckets[current].add(GRID, 1f, MIN_X, MIN_Y, MAX_X, MAX_Y);
+    }
+
+    /**
+     * Moves the window by one bucket. The density of the oldest bucket
+     * will be removed from the grid and the bucket becomes the new
+     * current bucket.
+     * @return the number of events of the expired bucket
+     */
+    public int advance() {
+        current = (current + 1) % buckets.length;
+        final DensityGrid EXPIRED        = buckets[current];
+        final int         EXPIRED_EVENTS = noOfEvents[current];
+        noOfEvents[current] = 0;
+        if (++ticks % buckets.length == 0) {
+            clear(EXPIRED);
+            grid.clear();
+            for (DensityGrid bucket : buckets) {
+                if (bucket.isDirty()) { grid.add(bucket, 1f, bucket.getDirtyMinX(), bucket.getDirtyMinY(), bucket.getDirtyMaxX(), bucket.getDirtyMaxY()); }
+            }
+        } else if (EXPIRED.isDirty()) {
+            grid.add(EXPIRED, -1f, EXPIRED.getDirtyMinX(), EXPIRED.getDirtyMinY(), EXPIRED.getDirtyMaxX(), EXPIRED.getDirtyMaxY());
+            clear(EXPIRED);
+        }
+        return EXPIRED_EVENTS;
+    }
+
+    /**
+     * Recomputes the density of all buckets and of the grid from the
+     * given events, e.g. after the opacity distribution of the events has
+     * been changed. The store must contain the events of the window in
+     * the order they have been added, so each event will be put into the
+     * bucket it has been counted for.
+     * @param EVENTS
+     * @param POOL the pool that should be used or null to use the calling thread
+     */
+    public void replay(final EventStore EVENTS, final ForkJoinPool POOL) {
+        if (EVENTS.size() != getNoOfEvents()) { throw new IllegalArgumentException("Store does not contain the events of the window"); }
+        grid.clear();
+        int from = 0;
+        for (int i = 1 ; i <= buckets.length ; i++) {
+            final int         INDEX  = (current + i) % buckets.length;
+            final DensityGrid BUCKET = buckets[INDEX];
+            clear(BUCKET);
+            BUCKET.addEvents(EVENTS, from, from + noOfEvents[INDEX], POOL);
+            from += noOfEvents[INDEX];
+            if (BUCKET.isDirty()) { grid.add(BUCKET, 1f, BUCKET.getDirtyMinX(), BUCKET.getDirtyMinY(), BUCKET.getDirtyMaxX(), BUCKET.getDirtyMaxY()); }
+        }
+    }
+
+    /**
+     * Resets only the area of the given bucket that has been touched
+     * since it became the current bucket
+     * @param BUCKET
+     */
+    private static void clear(final DensityGrid BUCKET) {
+        if (BUCKET.isDirty()) { BUCKET.clear(BUCKET.getDirtyMinX(), BUCKET.getDirtyMinY(), BUCKET.getDirtyMaxX(), BUCKET.getDirtyMaxY()); }
+        BUCKET.resetDirtyRegion();
+    }
+
+    /**
+     * Removes the density of all buckets and of the grid
+     */
+    public void clear() {
+        for (DensityGrid bucket : buckets) {
+            bucket.clear();
+            bucket.resetDirtyRegion();
+        }
+        Arrays.fill(noOfEvents, 0);
+        grid.clear();
+    }
+
+    /**
+     * Resizes all buckets to the size of the grid
+     */
+    public void resize() {
+        for (DensityGrid bucket : buckets) { bucket.resize(grid.getWidth(), grid.getHeight()); }
+    }
+}
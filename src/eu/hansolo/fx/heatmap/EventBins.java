@@ -0,0 +1,171 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import java.util.Arrays;
+
+
+/**
+ * The summed weights of events per pixel which don't depend on the radius
+ * or opacity distribution that is used to render them. A DensityGrid could
+ * stamp the bins with any kernel whose radius has the same fractional part
+ * as the bins and is not greater than their margin, which gives the same
+ * result as stamping each event with that kernel up to float rounding. So changing
+ * the radius or the opacity distribution of all events only costs the
+ * stamping of the occupied pixels and not a pass over all events.
+ * The bins extend the grid by the margin on each side so events outside
+ * of the grid whose kernels reach into it are taken into account.
+ */
+public class EventBins {
+    private final int     width;
+    private final int     height;
+    private final int     margin;
+    private final double  fraction;
+    private final int     binWidth;
+    private final int     binHeight;
+    private final float[] weights;
+    private int           minX;
+    private int           minY;
+    private int           maxX;
+    private int           maxY;
+
+
+    // ******************** Constructors **************************************
+    /**
+     * Creates bins for a grid of the given size
+     * @param WIDTH
+     * @param HEIGHT
+     * @param MARGIN the largest radius the bins could be stamped with
+     * @param FRACTION the fractional part of the radii the bins could be stamped with
+     */
+    public EventBins(final int WIDTH, final int HEIGHT, final int MARGIN, final double FRACTION) {
+        if (WIDTH < 0 || HEIGHT < 0 || MARGIN < 0) { throw new IllegalArgumentException("Size and margin must not be negative"); }
+        if (FRACTION < 0 || FRACTION >= 1) { throw new IllegalArgumentException("Fraction must be in the range of 0 - 1"); }
+        width     = WIDTH;
+        height    = HEIGHT;
+        margin    = MARGIN;
+        fraction  = FRACTION;
+        binWidth  = WIDTH + 2 * MARGIN;
+        binHeight = HEIGHT + 2 * MARGIN;
+        weights   = new float[binWidth * binHeight];
+        clear();
+    }
+
+
+    // ******************** Methods *******************************************
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getMargin() {
+        return margin;
+    }
+
+    public double getFraction() {
+        return fraction;
+    }
+
+    /**
+     * Returns true if the bins could be stamped with a kernel of the given radius
+     * @param RADIUS
+     * @return true if the radius has the fractional part of the bins and is not greater than the margin
+     */
+    public boolean isCompatible(final double RADIUS) {
+        final double RAD = RADIUS < 1 ? 1 : RADIUS;
+        return fractionOf(RAD) == fraction && Math.ceil(RAD) <= margin;
+    }
+
+    public boolean isEmpty() {
+        return minX > maxX;
+    }
+
+    /**
+     * Adds the given weight to the bin of the given position, positions
+     * outside of the grid and its margin will be ignored
+     * @param X
+     * @param Y
+     * @param WEIGHT
+     */
+    public void add(final double X, final double Y, final float WEIGHT) {
+        final long BIN_X = Math.round(X - fraction);
+        final long BIN_Y = Math.round(Y - fraction);
+        if (BIN_X < -margin || BIN_Y < -margin || BIN_X >= width + margin || BIN_Y >= height + margin) { return; }
+        final int CELL_X = (int) BIN_X;
+        final int CELL_Y = (int) BIN_Y;
+        weights[(CELL_Y + margin) * binWidth + CELL_X + margin] += WEIGHT;
+        if (CELL_X < minX) { minX = CELL_X; }
+        if (CELL_X > maxX) { maxX = CELL_X; }
+        if (CELL_Y < minY) { minY = CELL_Y; }
+        if (CELL_Y > maxY) { maxY = CELL_Y; }
+    }
+
+    /**
+     * Adds the weights of the events of the given store from the given
+     * index on, the radius and opacity distribution of the events will
+     * be ignored
+     * @param EVENTS
+     * @param FROM_INDEX
+     */
+    public void add(final EventStore EVENTS, final int FROM_INDEX) {
+        final int SIZE = EVENTS.size();
+        for (int i = Math.max(0, FROM_INDEX) ; i < SIZE ; i++) { add(EVENTS.getX(i), EVENTS.getY(i), EVENTS.getWeight(i)); }
+    }
+
+    public void clear() {
+        Arrays.fill(weights, 0f);
+        minX = Integer.MAX_VALUE;
+        minY = Integer.MAX_VALUE;
+        maxX = Integer.MIN_VALUE;
+        maxY = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Returns the fractional part of the given radius as it is used to
+     * bin events
+     * @param RADIUS
+     * @return the fractional part of the given radius
+     */
+    public static double fractionOf(final double RADIUS) {
+        return RADIUS - Math.floor(RADIUS);
+    }
+
+    float[] getWeights() {
+        return weights;
+    }
+
+    int getBinWidth() {
+        return binWidth;
+    }
+
+    int getMinX() {
+        return minX;
+    }
+
+    int getMinY() {
+        return minY;
+    }
+
+    int getMaxX() {
+        return maxX;
+    }
+
+    int getMaxY() {
+        return maxY;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import java.util.Arrays;
+
+
+/**
+ * A thread safe buffer for events that can be filled from many threads
+ * and will be drained in batches by a single consumer (e.g. the FX
+ * application thread). The events are stored in primitive arrays that
+ * are split into stripes, each producer thread uses the stripe that
+ * belongs to its thread id which keeps the contention between producers
+ * low. Draining a stripe only swaps its arrays with a spare set of arrays
+ * so no allocation is needed once the arrays have reached their size.
+ */
+public class EventBuffer {
+    private static final int INITIAL_CAPACITY = 256;
+    private final Stripe[]   stripes;
+    private final int        mask;
+
+
+    // ******************** Constructors **************************************
+    public EventBuffer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+    public EventBuffer(final int NO_OF_STRIPES) {
+        int noOfStripes = Integer.highestOneBit(Math.max(1, NO_OF_STRIPES - 1)) << 1;
+        stripes = new Stripe[noOfStripes];
+        for (int i = 0 ; i < noOfStripes ; i++) { stripes[i] = new Stripe(); }
+        mask = noOfStripes - 1;
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Adds an event to the buffer, could be called from any thread
+     * @param X
+     * @param Y
+     * @param WEIGHT
+     */
+    public void offer(final double X, final double Y, final float WEIGHT) {
+        long id = Thread.currentThread().getId();
+        int  hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        stripes[(hash ^ (hash >>> 16)) & mask].offer(X, Y, WEIGHT);
+    }
+
+    /**
+     * Passes all events that have been added to the buffer so far to the
+     * given consumer and removes them from the buffer. Must only be called
+     * by one thread at a time.
+     * @param CONSUMER
+     * @return the number of drained events
+     */
+    public int drain(final Consumer CONSUMER) {
+        int drained = 0;
+        for (Stripe stripe : stripes) { drained += stripe.drain(CONSUMER); }
+        return drained;
+    }
+
+    /**
+     * Removes all events from the buffer
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) { stripe.clear(); }
+    }
+
+
+    // ******************** Inner Classes *************************************
+    @FunctionalInterface public interface Consumer {
+        void accept(double x, double y, float weight);
+    }
+
+    private static class Stripe {
+        private double[] xs           = new double[INITIAL_CAPACITY];
+        private double[] ys           = new double[INITIAL_CAPACITY];
+        private float[]  weights      = new float[INITIAL_CAPACITY];
+        private int      size         = 0;
+        private double[] spareXs      = new double[INITIAL_CAPACITY];
+        private double[] spareYs      = new double[INITIAL_CAPACITY];
+        private float[]  spareWeights = new float[INITIAL_CAPACITY];
+
+        synchronized void offer(final double X, final double Y, final float WEIGHT) {
+            if (size == xs.length) {
+                int capacity = size << 1;
+                xs      = Arrays.copyOf(xs, capacity);
+                ys      = Arrays.copyOf(ys, capacity);
+                weights = Arrays.copyOf(weights, capacity);
+            }
+            xs[size]      = X;
+            ys[size]      = Y;
+            weights[size] = WEIGHT;
+            size++;
+        }
+
+        int drain(final Consumer CONSUMER) {
+            final double[] X;
+            final double[] Y;
+            final float[]  WEIGHT;
+            final int      SIZE;
+            synchronized (this) {
+                if (0 == size) { return 0; }
+                X       = xs;
+                Y       = ys;
+                WEIGHT  = weights;
+                SIZE    = size;
+                xs      = spareXs;
+                ys      = spareYs;
+                weights = spareWeights;
+                size    = 0;
+            }
+            for (int i = 0 ; i < SIZE ; i++) { CONSUMER.accept(X[i], Y[i], WEIGHT[i]); }
+            synchronized (this) {
+                spareXs      = X;
+                spareYs      = Y;
+                spareWeights = WEIGHT;
+            }
+            return SIZE;
+        }
+
+        synchronized void clear() {
+            size = 0;
+        }
+    }
+}
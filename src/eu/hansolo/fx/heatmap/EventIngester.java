@@ -0,0 +1,469 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+/**
+ * Streams events from CSV files (x,y[,weight] per line) or from binary
+ * files with fixed width records (see EventRecordFormat) and passes them
+ * in chunks of primitive arrays to a consumer, e.g. one that stamps them
+ * directly into a DensityGrid or a DensityPyramid. No objects will be
+ * created per event and only one chunk is held in memory, so event logs
+ * that are larger than the heap could be turned into a heat map in
+ * constant memory. Binary files will be read through memory mapped
+ * windows of the file.
+ * A progress listener will be informed after each chunk and the running
+ * read could be cancelled from any thread, in this case the read returns
+ * after the current chunk and isCancelled() returns true. Reading will
+ * also stop if the reading thread is interrupted.
+ * The reads of one ingester must not run concurrently.
+ */
+public class EventIngester {
+    public static final int         DEFAULT_CHUNK_SIZE = 1 << 16;
+    private static final long       MAP_WINDOW_SIZE    = 1L << 26;
+    private static final int        MAX_LINE_LENGTH    = 1 << 20;
+    private static final int        MAX_DIGITS         = 15;
+    private static final double[]   POWERS_OF_TEN      = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+                                                            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+    private final double[]          xs;
+    private final double[]          ys;
+    private final float[]           weights;
+    private ProgressListener        progressListener;
+    private volatile boolean        cancelled;
+
+
+    // ******************** Constructors **************************************
+    public EventIngester() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+    public EventIngester(final int CHUNK_SIZE) {
+        if (CHUNK_SIZE < 1) { throw new IllegalArgumentException("Chunk size must be greater than 0"); }
+        xs               = new double[CHUNK_SIZE];
+        ys               = new double[CHUNK_SIZE];
+        weights          = new float[CHUNK_SIZE];
+        progressListener = null;
+        cancelled        = false;
+    }
+
+
+    // ******************** Methods *******************************************
+    public int getChunkSize() {
+        return xs.length;
+    }
+
+    public ProgressListener getProgressListener() {
+        return progressListener;
+    }
+    /**
+     * Defines a listener that will be called on the reading thread after
+     * each chunk has been passed to the consumer
+     * @param LISTENER the listener or null
+     */
+    public void setProgressListener(final ProgressListener LISTENER) {
+        progressListener = LISTENER;
+    }
+
+    /**
+     * Stops the running read after the current chunk. The flag will be
+     * reset when the next read starts.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns true if the last read has been cancelled (or the reading
+     * thread has been interrupted) before all events have been read
+     * @return true if the last read has been cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns a consumer that stamps the events with the given radius and
+     * opacity distribution into the given grid, the events of large
+     * chunks will be binned by pixel before they are stamped
+     * @param GRID
+     * @param RADIUS
+     * @param OPACITY_DISTRIBUTION
+     * @return a consumer that stamps the events into the given grid
+     */
+    public static ChunkConsumer stampInto(final DensityGrid GRID, final double RADIUS, final OpacityDistribution OPACITY_DISTRIBUTION) {
+        final double RAD    = RADIUS < 1 ? 1 : RADIUS;
+        final Kernel KERNEL = GRID.getKernel(RAD, OPACITY_DISTRIBUTION);
+        return (xs, ys, weights, count) -> {
+            GRID.addEvents(KERNEL, RAD, xs, ys, weights, count, null);
+        };
+    }
+
+    /**
+     * Returns a consumer that stamps the events with the given radius and
+     * opacity distribution into level 0 of the given pyramid
+     * @param PYRAMID
+     * @param RADIUS
+     * @param OPACITY_DISTRIBUTION
+     * @return a consumer that stamps the events into the given pyramid
+     */
+    public static ChunkConsumer stampInto(final DensityPyramid PYRAMID, final double RADIUS, final OpacityDistribution OPACITY_DISTRIBUTION) {
+        return (xs, ys, weights, count) -> {
+            for (int i = 0 ; i < count ; i++) { PYRAMID.addEvent(xs[i], ys[i], RADIUS, OPACITY_DISTRIBUTION, weights[i]); }
+        };
+    }
+
+    /**
+     * Reads the events from the given CSV file
+     * @param FILE
+     * @param DELIMITER e.g. ',' or ';'
+     * @param CONSUMER
+     * @return the number of events that have been read
+     * @throws IOException if the file could not be read or contains an invalid line
+     */
+    public long readCsv(final Path FILE, final char DELIMITER, final ChunkConsumer CONSUMER) throws IOException {
+        try (InputStream input = Files.newInputStream(FILE)) {
+            return readCsv(input, Files.size(FILE), DELIMITER, CONSUMER);
+        }
+    }
+
+    /**
+     * Reads the events from the given CSV stream, the stream will not be
+     * closed. Each line contains the x and y coordinate and optionally the
+     * weight of one event (default 1), further columns will be ignored.
+     * Empty lines, lines that start with # and a first line that does not
+     * start with a number (the header) will be skipped.
+     * @param INPUT
+     * @param TOTAL_BYTES the size of the stream for the progress or -1 if unknown
+     * @param DELIMITER e.g. ',' or ';'
+     * @param CONSUMER
+     * @return the number of events that have been read
+     * @throws IOException if the stream could not be read or contains an invalid line
+     */
+    public long readCsv(final InputStream INPUT, final long TOTAL_BYTES, final char DELIMITER, final ChunkConsumer CONSUMER) throws IOException {
+        cancelled = false;
+        final byte SEPARATOR = (byte) DELIMITER;
+        byte[]     buffer    = new byte[BinaryIO.BUFFER_SIZE];
+        int        limit     = 0;
+        int        start     = 0;
+        int        count     = 0;
+        long       events    = 0;
+        long       bytesRead = 0;
+        long       lineNo    = 0;
+        boolean    eof       = false;
+        while (!eof) {
+            // Keep the incomplete last line and fill the rest of the buffer
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, limit - start);
+                limit -= start;
+                start  = 0;
+            }
+            if (limit == buffer.length) {
+                if (buffer.length >= MAX_LINE_LENGTH) { throw new IOException("Line " + (lineNo + 1) + " is too long"); }
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            final int READ = INPUT.read(buffer, limit, buffer.length - limit);
+            if (READ < 0) {
+                eof = true;
+                if (limit > 0 && buffer[limit - 1] != '\n') {
+                    if (limit == buffer.length) { buffer = Arrays.copyOf(buffer, buffer.length + 1); }
+                    buffer[limit++] = '\n';
+                }
+            } else {
+                limit     += READ;
+                bytesRead += READ;
+            }
+
+            for (int i = start ; i < limit ; i++) {
+                if (buffer[i] != '\n') { continue; }
+                lineNo++;
+                if (parseLine(buffer, start, i, SEPARATOR, count)) {
+                    if (++count == xs.length) {
+                        CONSUMER.accept(xs, ys, weights, count);
+                        events += count;
+                        count   = 0;
+                        if (progress(events, bytesRead - (limit - i - 1), TOTAL_BYTES)) { return events; }
+                    }
+                } else if (!isSkippable(buffer, start, i, lineNo)) {
+                    throw new IOException("Invalid event in line " + lineNo + ": " + new String(buffer, start, Math.min(i - start, 80), StandardCharsets.ISO_8859_1).trim());
+                }
+                start = i + 1;
+            }
+        }
+        if (count > 0) {
+            CONSUMER.accept(xs, ys, weights, count);
+            events += count;
+        }
+        progress(events, bytesRead, TOTAL_BYTES);
+        return events;
+    }
+
+    /**
+     * Reads the events from the given binary file with fixed width records
+     * through memory mapped windows of the file. An incomplete record at
+     * the end of the file will be ignored.
+     * @param FILE
+     * @param FORMAT
+     * @param ORDER the byte order of the values in the file
+     * @param OFFSET the number of bytes to skip at the start of the file (e.g. a header)
+     * @param CONSUMER
+     * @return the number of events that have been read
+     * @throws IOException
+     */
+    public long readBinary(final Path FILE, final EventRecordFormat FORMAT, final ByteOrder ORDER, final long OFFSET, final ChunkConsumer CONSUMER) throws IOException {
+        if (OFFSET < 0) { throw new IllegalArgumentException("Offset must not be negative"); }
+        cancelled = false;
+        try (FileChannel channel = FileChannel.open(FILE, StandardOpenOption.READ)) {
+            final int  RECORD_SIZE   = FORMAT.recordSize;
+            final long SIZE          = channel.size();
+            final long NO_OF_RECORDS = Math.max(0, SIZE - OFFSET) / RECORD_SIZE;
+            final long WINDOW        = MAP_WINDOW_SIZE / RECORD_SIZE * RECORD_SIZE;
+            final long END           = OFFSET + NO_OF_RECORDS * RECORD_SIZE;
+            long       events        = 0;
+            for (long position = OFFSET ; position < END ; position += WINDOW) {
+                final MappedByteBuffer MAPPED = channel.map(MapMode.READ_ONLY, position, Math.min(WINDOW, END - position));
+                MAPPED.order(ORDER);
+                while (MAPPED.hasRemaining()) {
+                    final int COUNT = readRecords(MAPPED, FORMAT);
+                    CONSUMER.accept(xs, ys, weights, COUNT);
+                    events += COUNT;
+                    if (progress(events, position + MAPPED.position(), SIZE)) { return events; }
+                }
+            }
+            progress(events, SIZE, SIZE);
+            return events;
+        }
+    }
+
+    /**
+     * Reads the events from the given channel with fixed width records,
+     * the channel will not be closed. An incomplete record at the end of
+     * the channel will be ignored.
+     * @param CHANNEL e.g. Channels.newChannel(INPUT_STREAM)
+     * @param TOTAL_BYTES the size of the data for the progress or -1 if unknown
+     * @param FORMAT
+     * @param ORDER the byte order of the values
+     * @param CONSUMER
+     * @return the number of events that have been read
+     * @throws IOException
+     */
+    public long readBinary(final ReadableByteChannel CHANNEL, final long TOTAL_BYTES, final EventRecordFormat FORMAT, final ByteOrder ORDER, final ChunkConsumer CONSUMER) throws IOException {
+        cancelled = false;
+        final ByteBuffer BUFFER    = ByteBuffer.allocateDirect(Math.max(BinaryIO.BUFFER_SIZE, xs.length * FORMAT.recordSize)).order(ORDER);
+        long             events    = 0;
+        long             bytesRead = 0;
+        boolean          eof       = false;
+        while (!eof) {
+            final int READ = CHANNEL.read(BUFFER);
+            if (READ < 0) {
+                eof = true;
+            } else {
+                bytesRead += READ;
+            }
+            if (!eof && BUFFER.hasRemaining()) { continue; }
+            BUFFER.flip();
+            while (BUFFER.remaining() >= FORMAT.recordSize) {
+                final int COUNT = readRecords(BUFFER, FORMAT);
+                CONSUMER.accept(xs, ys, weights, COUNT);
+                events += COUNT;
+                if (progress(events, bytesRead - BUFFER.remaining(), TOTAL_BYTES)) { return events; }
+            }
+            BUFFER.compact();
+        }
+        progress(events, bytesRead, TOTAL_BYTES);
+        return events;
+    }
+
+    /**
+     * Reads as many complete records as fit into the chunk from the
+     * current position of the given buffer
+     * @param BUFFER
+     * @param FORMAT
+     * @return the number of records that have been read
+     */
+    private int readRecords(final ByteBuffer BUFFER, final EventRecordFormat FORMAT) {
+        final int COUNT = Math.min(xs.length, BUFFER.remaining() / FORMAT.recordSize);
+        int       index = BUFFER.position();
+        if (FORMAT.doublePrecision) {
+            for (int i = 0 ; i < COUNT ; i++) {
+                xs[i]      = BUFFER.getDouble(index);
+                ys[i]      = BUFFER.getDouble(index + 8);
+                weights[i] = FORMAT.weighted ? (float) BUFFER.getDouble(index + 16) : 1f;
+                index += FORMAT.recordSize;
+            }
+        } else {
+            for (int i = 0 ; i < COUNT ; i++) {
+                xs[i]      = BUFFER.getFloat(index);
+                ys[i]      = BUFFER.getFloat(index + 4);
+                weights[i] = FORMAT.weighted ? BUFFER.getFloat(index + 8) : 1f;
+                index += FORMAT.recordSize;
+            }
+        }
+        BUFFER.position(index);
+        return COUNT;
+    }
+
+    /**
+     * Informs the progress listener and returns true if reading should stop
+     */
+    private boolean progress(final long EVENTS, final long BYTES_READ, final long TOTAL_BYTES) {
+        if (null != progressListener) { progressListener.onProgress(EVENTS, BYTES_READ, TOTAL_BYTES); }
+        if (Thread.currentThread().isInterrupted()) { cancelled = true; }
+        return cancelled;
+    }
+
+    /**
+     * Parses the line between FROM and TO into the chunk at the given index
+     * @return true if the line contains a valid event
+     */
+    private boolean parseLine(final byte[] BUFFER, final int FROM, final int TO, final byte SEPARATOR, final int INDEX) {
+        final int END_X = indexOf(BUFFER, FROM, TO, SEPARATOR);
+        if (END_X == TO) { return false; }
+        final int END_Y = indexOf(BUFFER, END_X + 1, TO, SEPARATOR);
+        final double X = parseDouble(BUFFER, FROM, END_X);
+        final double Y = parseDouble(BUFFER, END_X + 1, END_Y);
+        double weight = 1;
+        if (END_Y < TO) {
+            final int END_W = indexOf(BUFFER, END_Y + 1, TO, SEPARATOR);
+            if (!isBlank(BUFFER, END_Y + 1, END_W)) { weight = parseDouble(BUFFER, END_Y + 1, END_W); }
+        }
+        if (!Double.isFinite(X) || !Double.isFinite(Y) || !Double.isFinite(weight)) { return false; }
+        xs[INDEX]      = X;
+        ys[INDEX]      = Y;
+        weights[INDEX] = (float) weight;
+        return true;
+    }
+
+    private static boolean isSkippable(final byte[] BUFFER, final int FROM, final int TO, final long LINE_NO) {
+        int from = FROM;
+        while (from < TO && isPadding(BUFFER[from])) { from++; }
+        return from == TO || BUFFER[from] == '#' || (1 == LINE_NO && !isNumberStart(BUFFER[from]));
+    }
+
+    private static int indexOf(final byte[] BUFFER, final int FROM, final int TO, final byte VALUE) {
+        for (int i = FROM ; i < TO ; i++) { if (BUFFER[i] == VALUE) { return i; } }
+        return TO;
+    }
+
+    private static boolean isBlank(final byte[] BUFFER, final int FROM, final int TO) {
+        for (int i = FROM ; i < TO ; i++) { if (!isPadding(BUFFER[i])) { return false; } }
+        return true;
+    }
+
+    private static boolean isPadding(final byte VALUE) {
+        // Quotes around values are treated like whitespace
+        return VALUE == ' ' || VALUE == '\t' || VALUE == '\r' || VALUE == '"';
+    }
+
+    private static boolean isNumberStart(final byte VALUE) {
+        return (VALUE >= '0' && VALUE <= '9') || VALUE == '-' || VALUE == '+' || VALUE == '.';
+    }
+
+    /**
+     * Parses a decimal number without creating any objects. Plain decimal
+     * numbers with up to 15 significant digits and small exponents will
+     * be converted exactly, everything else falls back to
+     * Double.parseDouble().
+     * @return the parsed number or NaN if the text is not a number
+     */
+    static double parseDouble(final byte[] BUFFER, final int FROM, final int TO) {
+        int from = FROM;
+        int to   = TO;
+        while (from < to && isPadding(BUFFER[from])) { from++; }
+        while (to > from && isPadding(BUFFER[to - 1])) { to--; }
+        if (from == to) { return Double.NaN; }
+
+        int     i        = from;
+        boolean negative = false;
+        if (BUFFER[i] == '-') {
+            negative = true;
+            i++;
+        } else if (BUFFER[i] == '+') {
+            i++;
+        }
+        long    mantissa = 0;
+        int     digits   = 0;
+        int     exponent = 0;
+        boolean anyDigit = false;
+        boolean exact    = true;
+        for ( ; i < to && BUFFER[i] >= '0' && BUFFER[i] <= '9' ; i++) {
+            anyDigit = true;
+            mantissa = mantissa * 10 + (BUFFER[i] - '0');
+            if (mantissa != 0 && ++digits > MAX_DIGITS) { exact = false; }
+        }
+        if (i < to && BUFFER[i] == '.') {
+            for (i++ ; i < to && BUFFER[i] >= '0' && BUFFER[i] <= '9' ; i++) {
+                anyDigit = true;
+                mantissa = mantissa * 10 + (BUFFER[i] - '0');
+                exponent--;
+                if (mantissa != 0 && ++digits > MAX_DIGITS) { exact = false; }
+            }
+        }
+        if (anyDigit && i < to && (BUFFER[i] == 'e' || BUFFER[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (BUFFER[i] == '-' || BUFFER[i] == '+')) { negativeExponent = BUFFER[i++] == '-'; }
+            int value = 0;
+            int start = i;
+            for ( ; i < to && BUFFER[i] >= '0' && BUFFER[i] <= '9' && value < 10000 ; i++) { value = value * 10 + (BUFFER[i] - '0'); }
+            if (i == start) { exact = false; }
+            exponent += negativeExponent ? -value : value;
+        }
+        if (anyDigit && exact && i == to && Math.abs(exponent) < POWERS_OF_TEN.length) {
+            final double VALUE = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+            return negative ? -VALUE : VALUE;
+        }
+        try {
+            return Double.parseDouble(new String(BUFFER, from, to - from, StandardCharsets.ISO_8859_1));
+        } catch (NumberFormatException exception) {
+            return Double.NaN;
+        }
+    }
+
+
+    // ******************** Inner Classes *************************************
+    @FunctionalInterface public interface ChunkConsumer {
+        /**
+         * Receives the next chunk of events, the arrays will be reused for
+         * the next chunk and only the first count entries are valid
+         */
+        void accept(double[] xs, double[] ys, float[] weights, int count);
+    }
+
+    @FunctionalInterface public interface EventSource {
+        /**
+         * Reads all events and passes them in chunks to the given consumer,
+         * e.g. consumer -> ingester.readCsv(file, ',', consumer)
+         * @return the number of events that have been read
+         */
+        long read(ChunkConsumer consumer) throws IOException;
+    }
+
+    @FunctionalInterface public interface ProgressListener {
+        void onProgress(long events, long bytesRead, long totalBytes);
+    }
+}
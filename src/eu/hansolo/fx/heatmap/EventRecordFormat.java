@@ -0,0 +1,38 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+/**
+ * Defines the layout of the fixed width records of a binary event file
+ * that could be read with the EventIngester. Each record contains the
+ * x and y coordinate and optionally the weight of one event, all values
+ * either as 32 bit floats or as 64 bit doubles without any padding.
+ */
+public enum EventRecordFormat {
+    FLOAT_XY(false, false),
+    FLOAT_XYW(false, true),
+    DOUBLE_XY(true, false),
+    DOUBLE_XYW(true, true);
+
+    public final boolean doublePrecision;
+    public final boolean weighted;
+    public final int     recordSize;
+
+    EventRecordFormat(final boolean DOUBLE_PRECISION, final boolean WEIGHTED) {
+        doublePrecision = DOUBLE_PRECISION;
+        weighted        = WEIGHTED;
+        recordSize      = (WEIGHTED ? 3 : 2) * (DOUBLE_PRECISION ? Double.BYTES : Float.BYTES);
+    }
+}
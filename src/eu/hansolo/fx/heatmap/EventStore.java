@@ -0,0 +1,277 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+
+/**
+ * A growable store for events that keeps the properties of all events
+ * in primitive arrays (one array per property) instead of one object per
+ * event. This reduces the memory footprint of millions of events to a
+ * fraction and makes it possible to iterate over all events without
+ * any allocation. The store is not thread safe.
+ */
+public class EventStore {
+    private static final OpacityDistribution[] DISTRIBUTIONS    = OpacityDistribution.values();
+    private static final int                   INITIAL_CAPACITY = 1024;
+    private static final int                   READ_CHUNK       = 1 << 16;
+    private double[]                           xs;
+    private double[]                           ys;
+    private float[]                            radii;
+    private byte[]                             distributionOrdinals;
+    private float[]                            weights;
+    private int                                size;
+    private int                                generation;
+
+
+    // ******************** Constructors **************************************
+    public EventStore() {
+        this(INITIAL_CAPACITY);
+    }
+    public EventStore(final int CAPACITY) {
+        int capacity = CAPACITY < 16 ? 16 : CAPACITY;
+        xs                   = new double[capacity];
+        ys                   = new double[capacity];
+        radii                = new float[capacity];
+        distributionOrdinals = new byte[capacity];
+        weights              = new float[capacity];
+        size                 = 0;
+        generation           = 0;
+    }
+
+
+    // ******************** Methods *******************************************
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return 0 == size;
+    }
+
+    /**
+     * Returns a number that changes each time events are removed from the
+     * store, so structures that refer to events by their index (e.g. a
+     * SpatialIndex) could detect that the indices have been reused
+     * @return a number that changes each time events are removed
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Adds an event with the given properties to the store
+     * @param X
+     * @param Y
+     * @param RADIUS
+     * @param OPACITY_DISTRIBUTION
+     * @param WEIGHT
+     */
+    public void add(final double X, final double Y, final double RADIUS, final OpacityDistribution OPACITY_DISTRIBUTION, final float WEIGHT) {
+        ensureCapacity(size + 1);
+        xs[size]                   = X;
+        ys[size]                   = Y;
+        radii[size]                = (float) RADIUS;
+        distributionOrdinals[size] = (byte) OPACITY_DISTRIBUTION.ordinal();
+        weights[size]              = WEIGHT;
+        size++;
+    }
+
+    /**
+     * Adds events at the given positions which all share the given radius,
+     * opacity distribution and weight. Both arrays must have the same length.
+     * @param XS
+     * @param YS
+     * @param RADIUS
+     * @param OPACITY_DISTRIBUTION
+     * @param WEIGHT
+     */
+    public void addAll(final double[] XS, final double[] YS, final double RADIUS, final OpacityDistribution OPACITY_DISTRIBUTION, final float WEIGHT) {
+        if (XS.length != YS.length) { throw new IllegalArgumentException("Number of x and y coordinates differ"); }
+        final int COUNT = XS.length;
+        ensureCapacity(size + COUNT);
+        System.arraycopy(XS, 0, xs, size, COUNT);
+        System.arraycopy(YS, 0, ys, size, COUNT);
+        Arrays.fill(radii, size, size + COUNT, (float) RADIUS);
+        Arrays.fill(distributionOrdinals, size, size + COUNT, (byte) OPACITY_DISTRIBUTION.ordinal());
+        Arrays.fill(weights, size, size + COUNT, WEIGHT);
+        size += COUNT;
+    }
+
+    public double getX(final int INDEX) {
+        return xs[INDEX];
+    }
+
+    public double getY(final int INDEX) {
+        return ys[INDEX];
+    }
+
+    public float getRadius(final int INDEX) {
+        return radii[INDEX];
+    }
+
+    public OpacityDistribution getOpacityDistribution(final int INDEX) {
+        return DISTRIBUTIONS[distributionOrdinals[INDEX]];
+    }
+
+    public float getWeight(final int INDEX) {
+        return weights[INDEX];
+    }
+
+    /**
+     * Sets the opacity distribution of all events in the store
+     * @param OPACITY_DISTRIBUTION
+     */
+    public void setOpacityDistribution(final OpacityDistribution OPACITY_DISTRIBUTION) {
+        Arrays.fill(distributionOrdinals, 0, size, (byte) OPACITY_DISTRIBUTION.ordinal());
+    }
+
+    /**
+     * Sets the radius of all events in the store
+     * @param RADIUS
+     */
+    public void setRadius(final double RADIUS) {
+        Arrays.fill(radii, 0, size, (float) RADIUS);
+    }
+
+    /**
+     * Returns true if all events in the store have the given radius
+     * @param RADIUS
+     * @return true if all events have the given radius
+     */
+    public boolean hasRadius(final double RADIUS) {
+        final float RAD = (float) RADIUS;
+        for (int i = 0 ; i < size ; i++) {
+            if (radii[i] != RAD) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * Passes the properties of all events in the order they have been added
+     * to the given visitor without creating any objects
+     * @param VISITOR
+     */
+    public void forEach(final Visitor VISITOR) {
+        for (int i = 0 ; i < size ; i++) {
+            VISITOR.visit(xs[i], ys[i], radii[i], DISTRIBUTIONS[distributionOrdinals[i]], weights[i]);
+        }
+    }
+
+    /**
+     * Removes all events from the store but keeps the allocated arrays
+     */
+    public void clear() {
+        size = 0;
+        generation++;
+    }
+
+    /**
+     * Returns a new store that contains a copy of all events of this store
+     * @return a copy of this store
+     */
+    public EventStore copy() {
+        final EventStore COPY = new EventStore(size);
+        System.arraycopy(xs, 0, COPY.xs, 0, size);
+        System.arraycopy(ys, 0, COPY.ys, 0, size);
+        System.arraycopy(radii, 0, COPY.radii, 0, size);
+        System.arraycopy(distributionOrdinals, 0, COPY.distributionOrdinals, 0, size);
+        System.arraycopy(weights, 0, COPY.weights, 0, size);
+        COPY.size = size;
+        return COPY;
+    }
+
+    /**
+     * Removes the given number of events that have been added first, e.g.
+     * the events that have left a time window. The remaining events keep
+     * their order but move to the front of the store.
+     * @param COUNT
+     */
+    public void removeFirst(final int COUNT) {
+        if (COUNT < 0 || COUNT > size) { throw new IllegalArgumentException("Store contains only " + size + " events"); }
+        if (0 == COUNT) { return; }
+        final int REMAINING = size - COUNT;
+        System.arraycopy(xs, COUNT, xs, 0, REMAINING);
+        System.arraycopy(ys, COUNT, ys, 0, REMAINING);
+        System.arraycopy(radii, COUNT, radii, 0, REMAINING);
+        System.arraycopy(distributionOrdinals, COUNT, distributionOrdinals, 0, REMAINING);
+        System.arraycopy(weights, COUNT, weights, 0, REMAINING);
+        size = REMAINING;
+        generation++;
+    }
+
+    /**
+     * Writes all events column by column (all x, all y, all radii, all
+     * opacity distributions, all weights) to the given channel
+     * @param CHANNEL
+     * @param BUFFER a buffer created by BinaryIO.createBuffer()
+     * @throws IOException
+     */
+    public void write(final WritableByteChannel CHANNEL, final ByteBuffer BUFFER) throws IOException {
+        BinaryIO.writeDoubles(CHANNEL, BUFFER, xs, 0, size);
+        BinaryIO.writeDoubles(CHANNEL, BUFFER, ys, 0, size);
+        BinaryIO.writeFloats(CHANNEL, BUFFER, radii, 0, size);
+        BinaryIO.writeBytes(CHANNEL, BUFFER, distributionOrdinals, 0, size);
+        BinaryIO.writeFloats(CHANNEL, BUFFER, weights, 0, size);
+    }
+
+    /**
+     * Reads the given number of events that have been written with write()
+     * from the given channel and adds them to the store. The store grows
+     * while the x coordinates are read, so a wrong count leads to an
+     * IOException at the end of the data and not to a huge allocation.
+     * @param CHANNEL
+     * @param BUFFER a buffer created by BinaryIO.createBuffer()
+     * @param COUNT the number of events to read
+     * @throws IOException
+     */
+    public void read(final ReadableByteChannel CHANNEL, final ByteBuffer BUFFER, final int COUNT) throws IOException {
+        if (COUNT < 0 || COUNT > Integer.MAX_VALUE - 8 - size) { throw new IOException("Invalid number of events: " + COUNT); }
+        for (int i = 0 ; i < COUNT ; i += READ_CHUNK) {
+            final int CHUNK = Math.min(READ_CHUNK, COUNT - i);
+            ensureCapacity(size + i + CHUNK);
+            BinaryIO.readDoubles(CHANNEL, BUFFER, xs, size + i, CHUNK);
+        }
+        BinaryIO.readDoubles(CHANNEL, BUFFER, ys, size, COUNT);
+        BinaryIO.readFloats(CHANNEL, BUFFER, radii, size, COUNT);
+        BinaryIO.readBytes(CHANNEL, BUFFER, distributionOrdinals, size, COUNT);
+        BinaryIO.readFloats(CHANNEL, BUFFER, weights, size, COUNT);
+        for (int i = size ; i < size + COUNT ; i++) {
+            if (distributionOrdinals[i] < 0 || distributionOrdinals[i] >= DISTRIBUTIONS.length) { throw new IOException("Invalid opacity distribution: " + distributionOrdinals[i]); }
+        }
+        size += COUNT;
+    }
+
+    private void ensureCapacity(final int CAPACITY) {
+        if (CAPACITY <= xs.length) { return; }
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(CAPACITY, xs.length + (long) (xs.length >> 1)));
+        xs                   = Arrays.copyOf(xs, capacity);
+        ys                   = Arrays.copyOf(ys, capacity);
+        radii                = Arrays.copyOf(radii, capacity);
+        distributionOrdinals = Arrays.copyOf(distributionOrdinals, capacity);
+        weights              = Arrays.copyOf(weights, capacity);
+    }
+
+
+    // ******************** Inner Classes *************************************
+    @FunctionalInterface public interface Visitor {
+        void visit(double x, double y, float radius, OpacityDistribution opacityDistribution, float weight);
+    }
+}
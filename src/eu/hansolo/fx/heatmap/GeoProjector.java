@@ -0,0 +1,179 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import javafx.geometry.Dimension2D;
+import javafx.geometry.Point2D;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Projects geographic locations to pixels of a mercator map in the same
+ * way as Helper.latLongToPixel() but computes the constants of the map
+ * only once, so large batches of locations could be projected into
+ * preallocated arrays without creating any objects. The resulting arrays
+ * could be passed directly to HeatMap.addEvents(double[], double[]).
+ * Like in Helper.latLongToPixel() the x coordinate of the given points
+ * is the latitude and the y coordinate the longitude.
+ * A projector is immutable and could be used from multiple threads.
+ */
+public class GeoProjector {
+    private static final int MIN_RANGE_SIZE = 1 << 14;
+    private final double     mapHeight;
+    private final double     minLongitude;
+    private final double     scaleX;
+    private final double     scaleY;
+    private final double     offsetY;
+
+
+    // ******************** Constructors **************************************
+    /**
+     * Creates a projector for a map with the given size that shows the
+     * region between the given corners
+     * @param MAP_DIMENSION
+     * @param UPPER_LEFT latitude, longitude of the upper left corner
+     * @param LOWER_RIGHT latitude, longitude of the lower right corner
+     */
+    public GeoProjector(final Dimension2D MAP_DIMENSION, final Point2D UPPER_LEFT, final Point2D LOWER_RIGHT) {
+        final double LONGITUDE_RANGE = LOWER_RIGHT.getY() - UPPER_LEFT.getY();
+        if (LONGITUDE_RANGE == 0) { throw new IllegalArgumentException("Longitudes of the corners must differ"); }
+        final double WORLD_MAP_WIDTH = ((MAP_DIMENSION.getWidth() / LONGITUDE_RANGE) * 360) / (2 * Math.PI);
+        mapHeight    = MAP_DIMENSION.getHeight();
+        minLongitude = UPPER_LEFT.getY();
+        scaleX       = MAP_DIMENSION.getWidth() / LONGITUDE_RANGE;
+        // log10(v) * WORLD_MAP_WIDTH / 2 == ln(v) * scaleY
+        scaleY       = WORLD_MAP_WIDTH / 2 / Math.log(10);
+        offsetY      = mercator(LOWER_RIGHT.getX());
+    }
+
+
+    // ******************** Methods *******************************************
+    public double projectX(final double LONGITUDE) {
+        return (LONGITUDE - minLongitude) * scaleX;
+    }
+
+    public double projectY(final double LATITUDE) {
+        return mapHeight - (mercator(LATITUDE) - offsetY);
+    }
+
+    /**
+     * Returns the pixel of the given location
+     * @param LOCATION latitude, longitude
+     * @return the pixel of the given location
+     */
+    public Point2D project(final Point2D LOCATION) {
+        return new Point2D(projectX(LOCATION.getY()), projectY(LOCATION.getX()));
+    }
+
+    /**
+     * Projects the given locations into the given arrays which must be at
+     * least as long as the arrays of the locations. The arrays of the
+     * locations could be reused as target arrays.
+     * @param LATITUDES
+     * @param LONGITUDES
+     * @param XS
+     * @param YS
+     */
+    public void project(final double[] LATITUDES, final double[] LONGITUDES, final double[] XS, final double[] YS) {
+        project(LATITUDES, LONGITUDES, XS, YS, 0, LATITUDES.length, null);
+    }
+
+    /**
+     * Projects the given range of locations into the same range of the
+     * given arrays. If a pool is given large ranges will be split and
+     * projected in parallel.
+     * @param LATITUDES
+     * @param LONGITUDES
+     * @param XS
+     * @param YS
+     * @param OFFSET
+     * @param LENGTH
+     * @param POOL the pool that should be used or null to use the calling thread
+     */
+    public void project(final double[] LATITUDES, final double[] LONGITUDES, final double[] XS, final double[] YS, final int OFFSET, final int LENGTH, final ForkJoinPool POOL) {
+        if (LATITUDES.length != LONGITUDES.length) { throw new IllegalArgumentException("Number of latitudes and longitudes differ"); }
+        if (OFFSET < 0 || LENGTH < 0 || OFFSET + LENGTH > LATITUDES.length) { throw new IllegalArgumentException("Range is outside of the locations"); }
+        if (XS.length < OFFSET + LENGTH || YS.length < OFFSET + LENGTH) { throw new IllegalArgumentException("Target arrays are too small"); }
+        if (null == POOL || LENGTH <= MIN_RANGE_SIZE) {
+            projectRange(LATITUDES, LONGITUDES, XS, YS, OFFSET, OFFSET + LENGTH);
+        } else {
+            final int RANGE_SIZE = Math.max(MIN_RANGE_SIZE, LENGTH / (POOL.getParallelism() * 2));
+            POOL.invoke(new RangeTask(LATITUDES, LONGITUDES, XS, YS, OFFSET, OFFSET + LENGTH, RANGE_SIZE));
+        }
+    }
+
+    /**
+     * Returns a consumer for an EventIngester that reads the latitude from
+     * the first and the longitude from the second column (e.g. a CSV file
+     * with lines lat,lon[,weight]), projects the locations in place and
+     * passes the pixels to the given consumer
+     * @param CONSUMER
+     * @return a consumer that projects the locations of each chunk
+     */
+    public EventIngester.ChunkConsumer projecting(final EventIngester.ChunkConsumer CONSUMER) {
+        return (xs, ys, weights, count) -> {
+            projectRange(xs, ys, xs, ys, 0, count);
+            CONSUMER.accept(xs, ys, weights, count);
+        };
+    }
+
+    private void projectRange(final double[] LATITUDES, final double[] LONGITUDES, final double[] XS, final double[] YS, final int FROM, final int TO) {
+        for (int i = FROM ; i < TO ; i++) {
+            final double LATITUDE  = LATITUDES[i];
+            final double LONGITUDE = LONGITUDES[i];
+            XS[i] = (LONGITUDE - minLongitude) * scaleX;
+            YS[i] = mapHeight - (mercator(LATITUDE) - offsetY);
+        }
+    }
+
+    private double mercator(final double LATITUDE) {
+        final double SIN = Math.sin(Math.toRadians(LATITUDE));
+        return scaleY * Math.log((1 + SIN) / (1 - SIN));
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final double[]    latitudes;
+        private final double[]    longitudes;
+        private final double[]    xs;
+        private final double[]    ys;
+        private final int         from;
+        private final int         to;
+        private final int         rangeSize;
+
+        RangeTask(final double[] LATITUDES, final double[] LONGITUDES, final double[] XS, final double[] YS, final int FROM, final int TO, final int RANGE_SIZE) {
+            latitudes  = LATITUDES;
+            longitudes = LONGITUDES;
+            xs         = XS;
+            ys         = YS;
+            from       = FROM;
+            to         = TO;
+            rangeSize  = RANGE_SIZE;
+        }
+
+        @Override protected void compute() {
+            if (to - from <= rangeSize) {
+                projectRange(latitudes, longitudes, xs, ys, from, to);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RangeTask(latitudes, longitudes, xs, ys, from, middle, rangeSize), new RangeTask(latitudes, longitudes, xs, ys, middle, to, rangeSize));
+            }
+        }
+    }
+}
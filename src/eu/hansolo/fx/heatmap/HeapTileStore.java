@@ -0,0 +1,83 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * A tile store that keeps the tiles on the heap. Only tiles that have
+ * been touched will be allocated.
+ */
+public class HeapTileStore implements TileStore {
+    private final int                    width;
+    private final int                    height;
+    private final int                    tileSize;
+    private final Map<Long, DensityGrid> tiles;
+
+
+    // ******************** Constructors **************************************
+    public HeapTileStore(final int WIDTH, final int HEIGHT, final int TILE_SIZE) {
+        if (WIDTH <= 0 || HEIGHT <= 0) { throw new IllegalArgumentException("Width and height must be greater than 0"); }
+        if (TILE_SIZE < 2 || Integer.bitCount(TILE_SIZE) != 1) { throw new IllegalArgumentException("Tile size must be a power of two"); }
+        width    = WIDTH;
+        height   = HEIGHT;
+        tileSize = TILE_SIZE;
+        tiles    = new HashMap<>();
+    }
+
+
+    // ******************** Methods *******************************************
+    @Override public int getWidth() {
+        return width;
+    }
+
+    @Override public int getHeight() {
+        return height;
+    }
+
+    @Override public int getTileSize() {
+        return tileSize;
+    }
+
+    @Override public DensityGrid getTile(final int TILE_X, final int TILE_Y) {
+        return tiles.get(key(TILE_X, TILE_Y));
+    }
+
+    @Override public DensityGrid getOrCreateTile(final int TILE_X, final int TILE_Y) {
+        return tiles.computeIfAbsent(key(TILE_X, TILE_Y), key -> new DensityGrid(tileSize, tileSize));
+    }
+
+    @Override public void markModified(final int TILE_X, final int TILE_Y) {
+    }
+
+    @Override public void ensureCapacity(final int NO_OF_TILES) {
+    }
+
+    @Override public float getMax() {
+        float max = 0;
+        for (DensityGrid tile : tiles.values()) { max = Math.max(max, tile.getMax()); }
+        return max;
+    }
+
+    @Override public void clear() {
+        tiles.clear();
+    }
+
+    private static long key(final int TILE_X, final int TILE_Y) {
+        return ((long) TILE_X << 32) | TILE_Y;
+    }
+}
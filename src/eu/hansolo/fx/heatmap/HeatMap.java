@@ -16,52 +16,86 @@
 
 package eu.hansolo.fx.heatmap;
 
-import javafx.animation.Interpolator;
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
-import javafx.embed.swing.SwingFXUtils;
 import javafx.geometry.Point2D;
 import javafx.scene.Node;
 import javafx.scene.SnapshotParameters;
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
-import javafx.scene.image.PixelReader;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.PixelWriter;
 import javafx.scene.image.WritableImage;
+import javafx.scene.image.WritablePixelFormat;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.LinearGradient;
-import javafx.scene.paint.Stop;
 
-import javax.imageio.ImageIO;
-import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.UncheckedIOException;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 
 /**
+ * A heat map whose density is kept in a DensityGrid on the heap, which
+ * needs 4 bytes per pixel. Maps that are larger than the heap are not
+ * supported by HeatMap, for those use TiledHeatMap with a DensityPyramid
+ * on top of a MappedTileStore which keeps the density off the heap in a
+ * memory mapped file.
+ *
  * Created by
  * User: hansolo
  * Date: 27.12.12
  * Time: 05:46
  */
 public class HeatMap extends ImageView {
-    private static final SnapshotParameters SNAPSHOT_PARAMETERS = new SnapshotParameters();
-    private List<HeatMapEvent>  eventList;
-    private Map<String, Image>  eventImages;
-    private ColorMapping        colorMapping;
-    private LinearGradient      mappingGradient;
-    private boolean             fadeColors;
-    private double              radius;
-    private OpacityDistribution opacityDistribution;
-    private Image               eventImage;
-    private Canvas              monochrome;
-    private GraphicsContext     ctx;
-    private WritableImage       monochromeImage;
-    private WritableImage       heatMap;
+    private static final SnapshotParameters             SNAPSHOT_PARAMETERS = new SnapshotParameters();
+    private static final WritablePixelFormat<IntBuffer> PIXEL_FORMAT        = PixelFormat.getIntArgbInstance();
+    private EventStore             eventStore;
+    private Map<Image, Kernel>     imageKernels;
+    private ColorMapping           colorMapping;
+    private LinearGradient         mappingGradient;
+    private int[]                  colorLookupTable;
+    private boolean                fadeColors;
+    private double                 radius;
+    private OpacityDistribution    opacityDistribution;
+    private Kernel                 eventKernel;
+    private DensityGrid            densityGrid;
+    private WritableImage          heatMap;
+    private int[]                  heatMapPixels;
+    private boolean                fullUpdate;
+    private boolean                coalescedRendering;
+    private double                 maxFps;
+    private long                   lastFlush;
+    private boolean                dirty;
+    private EventBuffer            pendingEvents;
+    private AtomicBoolean          flushTimerRequested;
+    private AnimationTimer         flushTimer;
+    private double                 decayHalfLife;
+    private long                   lastDecay;
+    private DensityWindow          densityWindow;
+    private double                 bucketDuration;
+    private long                   lastBucket;
+    private Normalization          normalization;
+    private Scaling                scaling;
+    private double                 clipPercentile;
+    private double                 fixedReference;
+    private float                  lastReference;
+    private ForkJoinPool           renderPool;
+    private HeatMapExporter        exporter;
+    private SpatialIndex           spatialIndex;
+    private KernelDensityEstimator densityEstimator;
+    private DensityLayers          densityLayers;
+    private boolean                cacheLayers;
 
 
     // ******************** Constructors **************************************
@@ -80,17 +114,53 @@ public class HeatMap extends ImageView {
     public HeatMap(final double WIDTH, final double HEIGHT, ColorMapping COLOR_MAPPING, final double EVENT_RADIUS, final boolean FADE_COLORS, final double HEAT_MAP_OPACITY, final OpacityDistribution OPACITY_DISTRIBUTION) {
         super();
         SNAPSHOT_PARAMETERS.setFill(Color.TRANSPARENT);
-        eventList           = new ArrayList<>();
-        eventImages         = new HashMap<>();
+        eventStore          = new EventStore();
+        imageKernels        = new WeakHashMap<>();
         colorMapping        = COLOR_MAPPING;
         mappingGradient     = colorMapping.mapping;
+        colorLookupTable    = colorMapping.lookupTable;
         fadeColors          = FADE_COLORS;
         radius              = EVENT_RADIUS;
         opacityDistribution = OPACITY_DISTRIBUTION;
-        eventImage          = createEventImage(radius, opacityDistribution);
-        monochrome          = new Canvas(WIDTH, HEIGHT);
-        ctx                 = monochrome.getGraphicsContext2D();
-        monochromeImage     = new WritableImage((int) WIDTH, (int) HEIGHT);
+        densityGrid         = new DensityGrid((int) WIDTH, (int) HEIGHT);
+        eventKernel         = densityGrid.getKernel(radius, opacityDistribution);
+        heatMapPixels       = new int[0];
+        fullUpdate          = true;
+        coalescedRendering  = false;
+        maxFps              = 60;
+        lastFlush           = 0;
+        dirty               = false;
+        pendingEvents       = new EventBuffer();
+        flushTimerRequested = new AtomicBoolean(false);
+        renderPool          = null;
+        exporter            = HeatMapExporter.getDefault();
+        spatialIndex        = null;
+        densityEstimator    = null;
+        densityLayers       = null;
+        cacheLayers         = true;
+        decayHalfLife       = 0;
+        lastDecay           = 0;
+        densityWindow       = null;
+        bucketDuration      = 0;
+        lastBucket          = 0;
+        normalization       = Normalization.COMPOSITE;
+        scaling             = Scaling.LINEAR;
+        clipPercentile      = 99;
+        fixedReference      = 1;
+        lastReference       = 0;
+        flushTimer          = new AnimationTimer() {
+            @Override public void handle(final long NOW) {
+                if (maxFps > 0 && NOW - lastFlush < 1_000_000_000 / maxFps) { return; }
+                if (decayHalfLife > 0) { decay(NOW); }
+                if (null != densityWindow) { advanceWindow(NOW); }
+                // If the timer only runs for offered events it will be stopped after
+                // flushing them, resetting the flag before lets offer() start it again
+                final boolean IDLE = !coalescedRendering && decayHalfLife <= 0 && null == densityWindow;
+                if (IDLE) { flushTimerRequested.set(false); }
+                flush();
+                if (IDLE) { stop(); }
+            }
+        };
         setImage(heatMap);
         setMouseTransparent(true);
         setOpacity(HEAT_MAP_OPACITY);
@@ -111,10 +181,9 @@ public class HeatMap extends ImageView {
      */
     public void addEvents(final Point2D... EVENTS) {
         for (Point2D event : EVENTS) {
-            eventList.add(new HeatMapEvent(event.getX(), event.getY(), radius, opacityDistribution));
-            ctx.drawImage(eventImage, event.getX() - radius, event.getY() - radius);
+            addPlainEvent(event.getX(), event.getY());
         }
-        updateHeatMap();
+        requestUpdate();
     }
 
     /**
@@ -123,11 +192,45 @@ public class HeatMap extends ImageView {
      * @param EVENTS
      */
     public void addEvents(final List<Point2D> EVENTS) {
-        EVENTS.forEach(event -> {
-            eventList.add(new HeatMapEvent(event.getX(), event.getY(), radius, opacityDistribution));
-            ctx.drawImage(eventImage, event.getX() - radius, event.getY() - radius);
-        });
-        updateHeatMap();
+        EVENTS.forEach(event -> addPlainEvent(event.getX(), event.getY()));
+        requestUpdate();
+    }
+
+    /**
+     * Add the events at the given positions and update the heatmap
+     * after all events have been added. Both arrays must have the same
+     * length. In contrast to the other addEvents() methods no objects
+     * will be created per event.
+     * @param XS
+     * @param YS
+     */
+    public void addEvents(final double[] XS, final double[] YS) {
+        if (XS.length != YS.length) { throw new IllegalArgumentException("Number of x and y coordinates differ"); }
+        if (coalescedRendering) {
+            for (int i = 0 ; i < XS.length ; i++) { pendingEvents.offer(XS[i], YS[i], 1f); }
+        } else {
+            eventStore.addAll(XS, YS, radius, opacityDistribution, 1f);
+            if (null == densityEstimator && null == densityWindow) {
+                densityGrid.addEvents(eventKernel, radius, XS, YS, null, XS.length, renderPool);
+            } else {
+                for (int i = 0 ; i < XS.length ; i++) { stamp(XS[i], YS[i], eventKernel, XS[i] - radius, YS[i] - radius, 1f); }
+            }
+        }
+        requestUpdate();
+    }
+
+    /**
+     * Add the events at the given positions with the given weights and
+     * update the heatmap after all events have been added. All arrays
+     * must have the same length.
+     * @param XS
+     * @param YS
+     * @param WEIGHTS
+     */
+    public void addEvents(final double[] XS, final double[] YS, final double[] WEIGHTS) {
+        if (XS.length != YS.length || XS.length != WEIGHTS.length) { throw new IllegalArgumentException("Number of coordinates and weights differ"); }
+        for (int i = 0 ; i < XS.length ; i++) { addWeightedEvent(XS[i], YS[i], (float) WEIGHTS[i]); }
+        requestUpdate();
     }
 
     /**
@@ -140,8 +243,7 @@ public class HeatMap extends ImageView {
      * @param OPACITY_GRADIENT
      */
     public void addEvent(final double X, final double Y, final double OFFSET_X, final double OFFSET_Y, final double RADIUS, final OpacityDistribution OPACITY_GRADIENT) {
-        eventImage = createEventImage(RADIUS, OPACITY_GRADIENT);
-        addEvent(X, Y, eventImage, OFFSET_X, OFFSET_Y);
+        addEvent(X, Y, densityGrid.getKernel(RADIUS, OPACITY_GRADIENT), OFFSET_X, OFFSET_Y);
     }
 
     /**
@@ -155,9 +257,7 @@ public class HeatMap extends ImageView {
      * @param OFFSET_Y
      */
     public void addEvent(final double X, final double Y, final Image EVENT_IMAGE, final double OFFSET_X, final double OFFSET_Y) {
-        eventList.add(new HeatMapEvent(X, Y, radius, opacityDistribution));
-        ctx.drawImage(EVENT_IMAGE, X - OFFSET_X, Y - OFFSET_Y);
-        updateHeatMap();
+        addEvent(X, Y, imageKernels.computeIfAbsent(EVENT_IMAGE, HeatMap::createKernel), OFFSET_X, OFFSET_Y);
     }
 
     /**
@@ -167,17 +267,422 @@ public class HeatMap extends ImageView {
      * @param Y
      */
     public void addEvent(final double X, final double Y) {
-        addEvent(X, Y, eventImage, radius, radius);
+        addPlainEvent(X, Y);
+        requestUpdate();
+    }
+
+    /**
+     * Adds an event with the given weight which will use the current event
+     * radius and opacity distribution. The kernel of the event is multiplied
+     * by its weight and added to the density, so a weight of 2 has the same
+     * effect as adding the same event twice.
+     * @param X
+     * @param Y
+     * @param WEIGHT
+     */
+    public void addEvent(final double X, final double Y, final double WEIGHT) {
+        addWeightedEvent(X, Y, (float) WEIGHT);
+        requestUpdate();
+    }
+
+    /**
+     * Adds the given event with its own radius, opacity distribution and
+     * weight
+     * @param EVENT
+     */
+    public void addEvent(final HeatMapEvent EVENT) {
+        final double RADIUS = EVENT.getRadius() < 1 ? 1 : EVENT.getRadius();
+        final float  WEIGHT = (float) EVENT.getWeight();
+        eventStore.add(EVENT.getX(), EVENT.getY(), RADIUS, EVENT.getOpacityDistribution(), WEIGHT);
+        stamp(EVENT.getX(), EVENT.getY(), densityGrid.getKernel(RADIUS, EVENT.getOpacityDistribution()), EVENT.getX() - RADIUS, EVENT.getY() - RADIUS, WEIGHT);
+        requestUpdate();
+    }
+
+    private void addEvent(final double X, final double Y, final Kernel KERNEL, final double OFFSET_X, final double OFFSET_Y) {
+        eventStore.add(X, Y, radius, opacityDistribution, 1f);
+        stamp(X, Y, KERNEL, X - OFFSET_X, Y - OFFSET_Y, 1f);
+        requestUpdate();
+    }
+
+    private void addPlainEvent(final double X, final double Y) {
+        addWeightedEvent(X, Y, 1f);
+    }
+
+    private void addWeightedEvent(final double X, final double Y, final float WEIGHT) {
+        if (coalescedRendering) {
+            pendingEvents.offer(X, Y, WEIGHT);
+        } else {
+            addPendingEvent(X, Y, WEIGHT);
+        }
+    }
+
+    /**
+     * Adds a weighted event to the heat map. In contrast to the addEvent()
+     * methods this method is thread safe and could be called from any
+     * thread without using Platform.runLater(). The events will be stored
+     * in a striped primitive buffer and will be rendered in batches on the
+     * FX application thread at most once per pulse (limited by the max fps)
+     * with the current event radius and opacity distribution. A weight of
+     * 2 has the same effect as adding the same event twice. The first
+     * event that is offered after the buffer has been flushed starts the
+     * flush timer again.
+     * @param X
+     * @param Y
+     * @param WEIGHT
+     */
+    public void offer(final double X, final double Y, final double WEIGHT) {
+        pendingEvents.offer(X, Y, (float) WEIGHT);
+        if (!flushTimerRequested.get() && flushTimerRequested.compareAndSet(false, true)) {
+            Platform.runLater(flushTimer::start);
+        }
+    }
+
+    private void addPendingEvent(final double X, final double Y, final float WEIGHT) {
+        eventStore.add(X, Y, radius, opacityDistribution, WEIGHT);
+        stamp(X, Y, eventKernel, X - radius, Y - radius, WEIGHT);
+    }
+
+    /**
+     * Stamps the given kernel at LEFT, TOP or bins the event at X, Y if a
+     * density kernel is set
+     */
+    private void stamp(final double X, final double Y, final Kernel KERNEL, final double LEFT, final double TOP, final float WEIGHT) {
+        if (null != densityEstimator) {
+            densityEstimator.add(X, Y, WEIGHT);
+        } else if (null == densityWindow) {
+            densityGrid.stamp(KERNEL, LEFT, TOP, WEIGHT);
+        } else {
+            densityWindow.stamp(KERNEL, LEFT, TOP, WEIGHT);
+            densityWindow.countEvents(1);
+        }
+    }
+
+    /**
+     * Streams the events of the given source (e.g. a CSV or binary event
+     * log read by an EventIngester) into the heat map with the current
+     * event radius and opacity distribution. The events will be read and
+     * stamped into a separate density grid on the render pool (or the
+     * common pool) and added to the heat map on the FX application thread
+     * when the source has been read completely, so the memory that is
+     * needed does not depend on the number of events. In contrast to the
+     * other methods the events will not be stored, so they will not be
+     * part of a snapshot and will be lost if the events are replayed (e.g.
+     * by updateMonochromeMap()). If the ingester is cancelled the events
+     * that have been read so far will be added. If a density kernel is
+     * set the events will be binned instead of stamped. If the size or the
+     * density kernel of the heat map has been changed while reading, the
+     * events will be dropped and the future completes exceptionally with
+     * an IllegalStateException.
+     * @param SOURCE e.g. consumer -> ingester.readCsv(file, ',', consumer)
+     * @return a future that completes with the number of events on the FX application thread
+     */
+    public CompletableFuture<Long> ingest(final EventIngester.EventSource SOURCE) {
+        final KernelDensityEstimator  SCRATCH_ESTIMATOR    = null == densityEstimator ? null : new KernelDensityEstimator(densityEstimator.getWidth(), densityEstimator.getHeight(), densityEstimator.getMargin());
+        final DensityGrid             SCRATCH              = null == densityEstimator ? new DensityGrid(densityGrid.getWidth(), densityGrid.getHeight()) : null;
+        final double                  RADIUS               = radius;
+        final OpacityDistribution     OPACITY_DISTRIBUTION = opacityDistribution;
+        final CompletableFuture<Long> RESULT               = new CompletableFuture<>();
+        if (null != SCRATCH) { SCRATCH.resetDirtyRegion(); }
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return SOURCE.read(null == SCRATCH ? SCRATCH_ESTIMATOR::add : EventIngester.stampInto(SCRATCH, RADIUS, OPACITY_DISTRIBUTION));
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        }, null == renderPool ? ForkJoinPool.commonPool() : renderPool).whenComplete((events, throwable) -> Platform.runLater(() -> {
+            if (null != throwable) {
+                RESULT.completeExceptionally(throwable instanceof CompletionException ? throwable.getCause() : throwable);
+                return;
+            }
+            final boolean CHANGED;
+            if (null != SCRATCH_ESTIMATOR) {
+                CHANGED = null == densityEstimator || densityEstimator.getWidth() != SCRATCH_ESTIMATOR.getWidth() || densityEstimator.getHeight() != SCRATCH_ESTIMATOR.getHeight() ||
+                          densityEstimator.getMargin() != SCRATCH_ESTIMATOR.getMargin();
+            } else {
+                CHANGED = null != densityEstimator || SCRATCH.getWidth() != densityGrid.getWidth() || SCRATCH.getHeight() != densityGrid.getHeight();
+            }
+            if (CHANGED) {
+                RESULT.completeExceptionally(new IllegalStateException("Size or density kernel of the heat map changed while ingesting, " + events + " events have been dropped"));
+                return;
+            }
+            if (null != SCRATCH_ESTIMATOR) {
+                densityEstimator.add(SCRATCH_ESTIMATOR);
+                requestUpdate();
+            } else if (SCRATCH.isDirty()) {
+                if (null == densityWindow) {
+                    densityGrid.add(SCRATCH, 1f, SCRATCH.getDirtyMinX(), SCRATCH.getDirtyMinY(), SCRATCH.getDirtyMaxX(), SCRATCH.getDirtyMaxY());
+                } else {
+                    densityWindow.add(SCRATCH, SCRATCH.getDirtyMinX(), SCRATCH.getDirtyMinY(), SCRATCH.getDirtyMaxX(), SCRATCH.getDirtyMaxY());
+                }
+                requestUpdate();
+            }
+            RESULT.complete(events);
+        }));
+        return RESULT;
+    }
+
+    /**
+     * Returns true if events will be collected and rendered at most once
+     * per pulse instead of recreating the heat map for each event
+     * @return true if the rendering of events will be coalesced
+     */
+    public boolean isCoalescedRendering() {
+        return coalescedRendering;
+    }
+
+    /**
+     * If true events will be put in a queue and the heat map will be
+     * recreated at most once per pulse (limited by the max fps) with all
+     * events that have been added in the meantime. This makes sense if
+     * you have to visualize thousands of events per second. Switching
+     * the mode off will flush all pending events.
+     * @param COALESCED_RENDERING
+     */
+    public void setCoalescedRendering(final boolean COALESCED_RENDERING) {
+        if (coalescedRendering == COALESCED_RENDERING) { return; }
+        coalescedRendering = COALESCED_RENDERING;
+        updateFlushTimer();
+        if (!coalescedRendering) { flush(); }
+    }
+
+    /**
+     * Returns the half-life in seconds after which the heat of all events
+     * will be halved or 0 if the heat map doesn't decay
+     * @return the half-life of the decay in seconds
+     */
+    public double getDecayHalfLife() {
+        return decayHalfLife;
+    }
+
+    /**
+     * If the half-life is greater than 0 the heat of all events will fade
+     * out exponentially over time, e.g. with a half-life of 10 seconds an
+     * event will only have half of its heat after 10 seconds and a quarter
+     * after 20 seconds. This is useful for live dashboards that should
+     * focus on recent activity. The decay will be applied at most once per
+     * pulse (limited by the max fps) and only costs a constant time per
+     * frame, independent of the number of events that have been added.
+     * Replaying the events with updateMonochromeMap() will restore their
+     * full heat. A value of 0 (default) switches the decay off. The decay
+     * can't be combined with a time window, so setting a half-life will
+     * switch off the time window.
+     * @param HALF_LIFE_IN_SECONDS
+     */
+    public void setDecayHalfLife(final double HALF_LIFE_IN_SECONDS) {
+        decayHalfLife = HALF_LIFE_IN_SECONDS < 0 ? 0 : HALF_LIFE_IN_SECONDS;
+        lastDecay     = 0;
+        if (decayHalfLife > 0) { densityWindow = null; }
+        updateFlushTimer();
+    }
+
+    private void decay(final long NOW) {
+        if (0 == lastDecay) {
+            lastDecay = NOW;
+            return;
+        }
+        final double FACTOR = Math.pow(0.5, (NOW - lastDecay) / (decayHalfLife * 1_000_000_000));
+        densityGrid.decay(FACTOR);
+        if (null != densityEstimator) { densityEstimator.decay(FACTOR); }
+        lastDecay = NOW;
+        dirty     = true;
+    }
+
+    /**
+     * Returns the duration of the time window in seconds or 0 if the heat
+     * map shows all events
+     * @return the duration of the time window in seconds
+     */
+    public double getTimeWindow() {
+        return null == densityWindow ? 0 : bucketDuration * densityWindow.getNoOfBuckets();
+    }
+
+    /**
+     * If the given duration is greater than 0 the heat map will only show
+     * the events of the given last seconds, e.g. the last 5 minutes. The
+     * window is split into the given number of buckets and moves forward
+     * one bucket at a time, so more buckets make the window more exact
+     * but also need more memory (one float per pixel and bucket). Moving
+     * the window only costs the area that has been touched by the events
+     * of the expired bucket, independent of the number of events in the
+     * window, plus one pass over the heat map whenever all buckets have
+     * been moved once (to avoid an accumulation of rounding errors). The
+     * events that are already visible will be put into the current
+     * bucket. Only the events of the window will be kept, the events of
+     * an expired bucket will be removed (e.g. from snapshots and the
+     * spatial index), and replaying the events with updateMonochromeMap()
+     * will put each event back into its bucket. A time window can't be
+     * combined with a decay, so setting a time window will switch off the
+     * decay and the kernel density estimation. A value of 0 (default)
+     * switches the time window off.
+     * @param WINDOW_IN_SECONDS
+     * @param NO_OF_BUCKETS
+     */
+    public void setTimeWindow(final double WINDOW_IN_SECONDS, final int NO_OF_BUCKETS) {
+        if (WINDOW_IN_SECONDS > 0) {
+            setDensityKernel(null);
+            decayHalfLife  = 0;
+            densityWindow  = new DensityWindow(densityGrid, NO_OF_BUCKETS < 1 ? 1 : NO_OF_BUCKETS, eventStore.size());
+            bucketDuration = WINDOW_IN_SECONDS / densityWindow.getNoOfBuckets();
+        } else {
+            densityWindow  = null;
+            bucketDuration = 0;
+        }
+        lastBucket = 0;
+        updateFlushTimer();
+    }
+
+    private void advanceWindow(final long NOW) {
+        if (0 == lastBucket) {
+            lastBucket = NOW;
+            return;
+        }
+        final long BUCKET_NANOS = (long) (bucketDuration * 1_000_000_000);
+        if (NOW - lastBucket < BUCKET_NANOS) { return; }
+        long noOfBuckets = (NOW - lastBucket) / BUCKET_NANOS;
+        lastBucket += noOfBuckets * BUCKET_NANOS;
+        if (noOfBuckets >= densityWindow.getNoOfBuckets()) {
+            densityWindow.clear();
+            eventStore.clear();
+        } else {
+            int expiredEvents = 0;
+            for (long i = 0 ; i < noOfBuckets ; i++) { expiredEvents += densityWindow.advance(); }
+            eventStore.removeFirst(expiredEvents);
+        }
+        dirty = true;
+    }
+
+    private void updateFlushTimer() {
+        if (coalescedRendering || decayHalfLife > 0 || null != densityWindow || flushTimerRequested.get()) {
+            flushTimer.start();
+        } else {
+            flushTimer.stop();
+        }
+    }
+
+    public Normalization getNormalization() {
+        return normalization;
+    }
+
+    /**
+     * Defines how the accumulated density will be mapped to the colors.
+     * COMPOSITE (default) looks like events that are drawn on top of each
+     * other and saturates after a few events. With MAX, PERCENTILE or FIXED
+     * the density is mapped linearly, so a hot spot of 10000 events is
+     * still distinguishable from a spot of 10 events.
+     * @param NORMALIZATION
+     */
+    public void setNormalization(final Normalization NORMALIZATION) {
+        normalization = null == NORMALIZATION ? Normalization.COMPOSITE : NORMALIZATION;
+        fullUpdate    = true;
+        requestUpdate();
+    }
+
+    public Scaling getScaling() {
+        return scaling;
+    }
+
+    /**
+     * Defines the curve that maps the normalized density to the colors if
+     * the normalization is not COMPOSITE. SQRT and LOG keep spots with a
+     * few events visible next to very hot spots.
+     * @param SCALING
+     */
+    public void setScaling(final Scaling SCALING) {
+        scaling    = null == SCALING ? Scaling.LINEAR : SCALING;
+        fullUpdate = true;
+        requestUpdate();
+    }
+
+    public double getClipPercentile() {
+        return clipPercentile;
+    }
+
+    /**
+     * Defines the percentile of the densities that maps to the last color
+     * if the normalization is PERCENTILE, all densities above will get the
+     * last color. The default is 99.
+     * @param PERCENTILE in the range of 0 - 100
+     */
+    public void setClipPercentile(final double PERCENTILE) {
+        clipPercentile = PERCENTILE < 0 ? 0 : PERCENTILE > 100 ? 100 : PERCENTILE;
+        fullUpdate     = true;
+        requestUpdate();
+    }
+
+    public double getFixedReference() {
+        return fixedReference;
+    }
+
+    /**
+     * Defines the density that maps to the last color if the normalization
+     * is FIXED. The kernel of a single event with the default opacity
+     * distribution has a density of about 2.3 at its center.
+     * @param REFERENCE
+     */
+    public void setFixedReference(final double REFERENCE) {
+        if (REFERENCE <= 0) { throw new IllegalArgumentException("Reference must be greater than 0"); }
+        fixedReference = REFERENCE;
+        fullUpdate     = true;
+        requestUpdate();
+    }
+
+    private float getReference() {
+        if (Normalization.MAX == normalization) {
+            return densityGrid.getMax();
+        } else if (Normalization.PERCENTILE == normalization) {
+            return densityGrid.getPercentile(clipPercentile);
+        } else if (Normalization.FIXED == normalization) {
+            return (float) fixedReference;
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the max number of times per second the heat map will be
+     * recreated in coalesced rendering mode
+     * @return the max number of heat map updates per second
+     */
+    public double getMaxFps() {
+        return maxFps;
+    }
+
+    /**
+     * Defines the max number of times per second the heat map will be
+     * recreated in coalesced rendering mode. A value of 0 or less means
+     * that the heat map will be recreated on every pulse if needed.
+     * The default value is 60
+     * @param MAX_FPS
+     */
+    public void setMaxFps(final double MAX_FPS) {
+        maxFps = MAX_FPS;
+    }
+
+    /**
+     * Renders all pending events and recreates the heat map if needed.
+     * In coalesced rendering mode this will be called automatically
+     * but one could call it to force an update e.g. before taking a
+     * snapshot. Has to be called on the FX application thread.
+     */
+    public void flush() {
+        lastFlush = System.nanoTime();
+        if (pendingEvents.drain(this::addPendingEvent) > 0) { dirty = true; }
+        if (dirty) { updateHeatMap(); }
     }
 
     /**
      * Calling this method will lead to a clean new heat map without any data
      */
     public void clearHeatMap() {
-        eventList.clear();
-        ctx.clearRect(0, 0, monochrome.getWidth(), monochrome.getHeight());
-        monochromeImage = new WritableImage(monochrome.widthProperty().intValue(), monochrome.heightProperty().intValue());
-        updateHeatMap();
+        pendingEvents.clear();
+        eventStore.clear();
+        if (null != densityEstimator) { densityEstimator.clear(); }
+        if (null == densityWindow) {
+            densityGrid.clear();
+        } else {
+            densityWindow.clear();
+        }
+        requestUpdate();
     }
 
     /**
@@ -197,9 +702,33 @@ public class HeatMap extends ImageView {
      * @param COLOR_MAPPING
      */
     public void setColorMapping(final ColorMapping COLOR_MAPPING) {
-        colorMapping    = COLOR_MAPPING;
-        mappingGradient = COLOR_MAPPING.mapping;
-        updateHeatMap();
+        colorMapping     = COLOR_MAPPING;
+        mappingGradient  = COLOR_MAPPING.mapping;
+        colorLookupTable = COLOR_MAPPING.lookupTable;
+        fullUpdate       = true;
+        requestUpdate();
+    }
+
+    /**
+     * Returns the gradient that is used to visualize the data
+     * @return the gradient that is used to visualize the data
+     */
+    public LinearGradient getMappingGradient() {
+        return mappingGradient;
+    }
+
+    /**
+     * Sets a custom gradient that will be used to visualize the data
+     * instead of one of the predefined color mappings. The gradient
+     * will be sampled once into a lookup table and the heat map will
+     * be recreated automatically.
+     * @param GRADIENT
+     */
+    public void setMappingGradient(final LinearGradient GRADIENT) {
+        mappingGradient  = GRADIENT;
+        colorLookupTable = Helper.createColorLookupTable(GRADIENT);
+        fullUpdate       = true;
+        requestUpdate();
     }
 
     /**
@@ -221,7 +750,8 @@ public class HeatMap extends ImageView {
      */
     public void setFadeColors(final boolean FADE_COLORS) {
         fadeColors = FADE_COLORS;
-        updateHeatMap();
+        fullUpdate = true;
+        requestUpdate();
     }
 
     /**
@@ -237,12 +767,18 @@ public class HeatMap extends ImageView {
      * Each event will be visualized by a circle filled with a radial
      * gradient with decreasing opacity from the inside to the outside.
      * If you have lot's of events it makes sense to set the event radius
-     * to a smaller value. The default value is 15.5
+     * to a smaller value. The default value is 15.5. If a density kernel
+     * is set the radius is the bandwidth of the estimation, the binned
+     * events (including ingested and decayed events) will be kept.
      * @param RADIUS
      */
     public void setEventRadius(final double RADIUS) {
-        radius = RADIUS < 1 ? 1 : RADIUS;
-        eventImage = createEventImage(radius, opacityDistribution);
+        radius      = RADIUS < 1 ? 1 : RADIUS;
+        eventKernel = densityGrid.getKernel(radius, opacityDistribution);
+        if (null == densityEstimator) { return; }
+        densityEstimator.ensureMargin((int) Math.ceil(radius));
+        densityEstimator.setRadius(radius);
+        requestUpdate();
     }
 
     /**
@@ -265,7 +801,169 @@ public class HeatMap extends ImageView {
      */
     public void setOpacityDistribution(final OpacityDistribution OPACITY_DISTRIBUTION) {
         opacityDistribution = OPACITY_DISTRIBUTION;
-        eventImage          = createEventImage(radius, opacityDistribution);
+        eventKernel         = densityGrid.getKernel(radius, opacityDistribution);
+    }
+
+    /**
+     * Returns the kernel that is used to estimate the density of the events
+     * or null if each event is stamped with the opacity distribution
+     * @return the kernel of the density estimation or null
+     */
+    public DensityKernel getDensityKernel() {
+        return null == densityEstimator ? null : densityEstimator.getDensityKernel();
+    }
+
+    /**
+     * If a kernel is given the heat map shows a kernel density estimation
+     * of the events instead of stamping each event with the opacity
+     * distribution. The events will only be binned into a grid which will
+     * be convolved with the given kernel (using the event radius as
+     * bandwidth) once per update, so the time that is needed to render the
+     * heat map doesn't depend on the number of events anymore. The radius
+     * and opacity distribution of single events (e.g. of a HeatMapEvent)
+     * will be ignored. Setting or removing the kernel will replay the
+     * stored events. The estimation can't be combined with a time window,
+     * so setting a kernel will switch off the time window. A value of null
+     * (default) switches the estimation off.
+     * @param DENSITY_KERNEL e.g. DensityKernel.GAUSSIAN or null
+     */
+    public void setDensityKernel(final DensityKernel DENSITY_KERNEL) {
+        if (null == DENSITY_KERNEL) {
+            if (null == densityEstimator) { return; }
+            densityEstimator = null;
+            densityGrid.clear();
+            densityGrid.addEvents(eventStore, renderPool);
+        } else if (null == densityEstimator) {
+            densityWindow    = null;
+            bucketDuration   = 0;
+            densityEstimator = createDensityEstimator(DENSITY_KERNEL);
+            updateFlushTimer();
+        } else {
+            densityEstimator.setDensityKernel(DENSITY_KERNEL);
+        }
+        requestUpdate();
+    }
+
+    private KernelDensityEstimator createDensityEstimator(final DensityKernel DENSITY_KERNEL) {
+        final KernelDensityEstimator ESTIMATOR = new KernelDensityEstimator(densityGrid.getWidth(), densityGrid.getHeight(), (int) Math.ceil(radius));
+        ESTIMATOR.setDensityKernel(DENSITY_KERNEL);
+        ESTIMATOR.setRadius(radius);
+        ESTIMATOR.add(eventStore);
+        return ESTIMATOR;
+    }
+
+    /**
+     * Returns the pool that is used to replay the events and to colorize
+     * the heat map in parallel or null if both will be done on the FX
+     * application thread
+     * @return the pool that is used for parallel rendering or null
+     */
+    public ForkJoinPool getRenderPool() {
+        return renderPool;
+    }
+
+    /**
+     * If a pool is set, replaying all events (e.g. after changing the
+     * opacity distribution) and colorizing the heat map will be split
+     * into bands of rows that will be rendered in parallel on the given
+     * pool. The result is identical to rendering on a single thread. Set
+     * it to null (default) to render on the FX application thread only.
+     * @param RENDER_POOL e.g. ForkJoinPool.commonPool()
+     */
+    public void setRenderPool(final ForkJoinPool RENDER_POOL) {
+        renderPool = RENDER_POOL;
+    }
+
+    /**
+     * Returns a spatial index over the stored events that could be used
+     * to answer region queries (e.g. the number of events in a rectangle)
+     * and nearest neighbour queries (e.g. the event under the mouse cursor)
+     * without scanning all events. The index will be created on the first
+     * call and on each call only the events that have been added since the
+     * last call will be indexed. The indices of the results refer to the
+     * events in the order they have been added. Events that have been
+     * streamed into the heat map with ingest() are not part of the index.
+     * @return a spatial index that is up to date with the stored events
+     */
+    public SpatialIndex getSpatialIndex() {
+        flush();
+        if (null == spatialIndex || spatialIndex.getEventStore() != eventStore ||
+            spatialIndex.getWidth() != Math.max(1, densityGrid.getWidth()) || spatialIndex.getHeight() != Math.max(1, densityGrid.getHeight())) {
+            spatialIndex = new SpatialIndex(eventStore, Math.max(1, densityGrid.getWidth()), Math.max(1, densityGrid.getHeight()));
+        } else {
+            spatialIndex.update();
+        }
+        return spatialIndex;
+    }
+
+    public boolean isSummedAreaTableEnabled() {
+        return densityGrid.isSummedAreaTableEnabled();
+    }
+    /**
+     * If enabled a summed-area table of the density will be maintained
+     * which makes getDensitySum(), getDensityMean() and getDensityRatio()
+     * constant time operations for rectangles of any size. Use it if the
+     * density of regions is queried frequently (e.g. for tooltips or
+     * region statistics).
+     * @param ENABLED
+     */
+    public void setSummedAreaTableEnabled(final boolean ENABLED) {
+        densityGrid.setSummedAreaTableEnabled(ENABLED);
+    }
+
+    public boolean isDensityLayersEnabled() {
+        return cacheLayers;
+    }
+    /**
+     * If enabled (default) the binned events and the densities rendered by
+     * updateMonochromeMap() will be cached per radius and opacity
+     * distribution (see DensityLayers). If disabled all events will be
+     * replayed on each update which saves the memory of the cache.
+     * @param ENABLED
+     */
+    public void setDensityLayersEnabled(final boolean ENABLED) {
+        cacheLayers = ENABLED;
+        if (!ENABLED) { densityLayers = null; }
+    }
+
+    /**
+     * Returns the sum of the density in the given rectangle of the heat map
+     * @param MIN_X inclusive
+     * @param MIN_Y inclusive
+     * @param MAX_X exclusive
+     * @param MAX_Y exclusive
+     * @return the sum of the density in the given rectangle
+     */
+    public double getDensitySum(final int MIN_X, final int MIN_Y, final int MAX_X, final int MAX_Y) {
+        flush();
+        return densityGrid.getSum(MIN_X, MIN_Y, MAX_X, MAX_Y);
+    }
+
+    /**
+     * Returns the mean density per pixel in the given rectangle of the heat map
+     * @param MIN_X inclusive
+     * @param MIN_Y inclusive
+     * @param MAX_X exclusive
+     * @param MAX_Y exclusive
+     * @return the mean density in the given rectangle
+     */
+    public double getDensityMean(final int MIN_X, final int MIN_Y, final int MAX_X, final int MAX_Y) {
+        flush();
+        return densityGrid.getMean(MIN_X, MIN_Y, MAX_X, MAX_Y);
+    }
+
+    /**
+     * Returns the share of the whole density of the heat map that is in
+     * the given rectangle
+     * @param MIN_X inclusive
+     * @param MIN_Y inclusive
+     * @param MAX_X exclusive
+     * @param MAX_Y exclusive
+     * @return the share of the density in the range of 0 - 1
+     */
+    public double getDensityRatio(final int MIN_X, final int MIN_Y, final int MAX_X, final int MAX_Y) {
+        flush();
+        return densityGrid.getRatio(MIN_X, MIN_Y, MAX_X, MAX_Y);
     }
 
     /**
@@ -280,32 +978,196 @@ public class HeatMap extends ImageView {
         setFitHeight(HEIGHT);
     }
 
+    /**
+     * Returns a snapshot of the current state of the heat map that could be
+     * written to a file. The snapshot contains a copy of the events and the
+     * density, so it will not change if new events are added.
+     * @param INCLUDE_DENSITY true if the density should be part of the snapshot
+     * @return a snapshot of the current state of the heat map
+     */
+    public HeatMapSnapshot createSnapshot(final boolean INCLUDE_DENSITY) {
+        flush();
+        return new HeatMapSnapshot(densityGrid.getWidth(), densityGrid.getHeight(), colorMapping, opacityDistribution, radius, eventStore, INCLUDE_DENSITY ? densityGrid : null);
+    }
+
+    /**
+     * Saves the events and optionally the density of the heat map together
+     * with its size, color mapping, opacity distribution and event radius
+     * in a compact binary file that could be loaded with loadSnapshot().
+     * Storing the density makes the file larger but restoring faster
+     * because the events don't have to be replayed.
+     * @param FILE
+     * @param INCLUDE_DENSITY
+     * @param COMPRESS
+     * @throws IOException
+     */
+    public void saveSnapshot(final Path FILE, final boolean INCLUDE_DENSITY, final boolean COMPRESS) throws IOException {
+        flush();
+        // The snapshot is written right away, so it can share the events and the density
+        new HeatMapSnapshot(densityGrid.getWidth(), densityGrid.getHeight(), colorMapping, opacityDistribution, radius, eventStore, INCLUDE_DENSITY ? densityGrid : null, false).write(FILE, COMPRESS);
+    }
+
+    /**
+     * Replaces the state of the heat map with the state that has been
+     * saved with saveSnapshot()
+     * @param FILE
+     * @throws IOException
+     */
+    public void loadSnapshot(final Path FILE) throws IOException {
+        restoreSnapshot(HeatMapSnapshot.read(FILE));
+    }
+
+    /**
+     * Replaces the state of the heat map with the given snapshot. If the
+     * snapshot contains no density it will be computed from the events.
+     * If a time window is set the events of the snapshot will be put into
+     * the current bucket of the window. If a density kernel is set the
+     * estimation will be computed from the events of the snapshot.
+     * @param SNAPSHOT
+     */
+    public void restoreSnapshot(final HeatMapSnapshot SNAPSHOT) {
+        pendingEvents.clear();
+        colorMapping        = SNAPSHOT.getColorMapping();
+        mappingGradient     = colorMapping.mapping;
+        colorLookupTable    = colorMapping.lookupTable;
+        opacityDistribution = SNAPSHOT.getOpacityDistribution();
+        radius              = SNAPSHOT.getRadius() < 1 ? 1 : SNAPSHOT.getRadius();
+        eventKernel         = densityGrid.getKernel(radius, opacityDistribution);
+        eventStore          = SNAPSHOT.getEvents();
+        final boolean SUMMED_AREA_TABLE = densityGrid.isSummedAreaTableEnabled();
+        if (SNAPSHOT.hasDensity()) {
+            densityGrid = SNAPSHOT.getDensity();
+        } else {
+            densityGrid = new DensityGrid(SNAPSHOT.getWidth(), SNAPSHOT.getHeight());
+            densityGrid.addEvents(eventStore, renderPool);
+        }
+        densityGrid.setSummedAreaTableEnabled(SUMMED_AREA_TABLE);
+        if (null != densityEstimator) { densityEstimator = createDensityEstimator(densityEstimator.getDensityKernel()); }
+        if (null != densityWindow) { densityWindow = new DensityWindow(densityGrid, densityWindow.getNoOfBuckets(), eventStore.size()); }
+        fullUpdate = true;
+        setSize(SNAPSHOT.getWidth(), SNAPSHOT.getHeight());
+        requestUpdate();
+    }
+
+    public HeatMapExporter getExporter() {
+        return exporter;
+    }
+    /**
+     * Defines the exporter that encodes and writes the exported files on
+     * its own threads, by default an exporter that is shared by all heat
+     * maps will be used
+     * @param EXPORTER
+     */
+    public void setExporter(final HeatMapExporter EXPORTER) {
+        if (null == EXPORTER) { throw new IllegalArgumentException("Exporter must not be null"); }
+        exporter = EXPORTER;
+    }
+
     /**
      * Saves the current heat map image as png with the given name to the desktop folder of the current user
      * @param FILE_NAME
+     * @return a future that completes with the path of the saved file
      */
-    public void saveAsPng(final String FILE_NAME) {        
-        saveAsPng(this, FILE_NAME + ".png");
+    public CompletableFuture<Path> saveAsPng(final String FILE_NAME) {
+        return exportPng(desktopFile(FILE_NAME), HeatMapExporter.DEFAULT_COMPRESSION_LEVEL);
     }
 
     /**
      * Saves the given node as png with the given name to the desktop folder of the current user
      * @param NODE
      * @param FILE_NAME
+     * @return a future that completes with the path of the saved file
      */
-    public void saveAsPng(final Node NODE, final String FILE_NAME) {
-        new Thread(() ->
-                       Platform.runLater(() -> {
-                           final String TARGET = System.getProperty("user.home") + "/Desktop/" + FILE_NAME + ".png";
-                           try {
-                               ImageIO.write(SwingFXUtils.fromFXImage(NODE.snapshot(SNAPSHOT_PARAMETERS, null), null), "png", new File(TARGET));
-                           } catch (IOException exception) {
-                               // handle exception here
-                           }
-                       })
-        ).start();    
+    public CompletableFuture<Path> saveAsPng(final Node NODE, final String FILE_NAME) {
+        return exportPng(NODE, desktopFile(FILE_NAME), HeatMapExporter.DEFAULT_COMPRESSION_LEVEL);
     }
-    
+
+    /**
+     * Saves the current heat map image as png to the given file. The pixels
+     * will be copied on the FX application thread, encoding and writing
+     * is done by the exporter without blocking the FX application thread.
+     * @param FILE
+     * @param COMPRESSION_LEVEL 0 (fastest) - 9 (smallest)
+     * @return a future that completes with the given file or exceptionally if saving failed
+     */
+    public CompletableFuture<Path> exportPng(final Path FILE, final int COMPRESSION_LEVEL) {
+        return onFxThread(() -> exporter.exportPng(densityGrid.getWidth(), densityGrid.getHeight(), copyHeatMapPixels(), FILE, COMPRESSION_LEVEL));
+    }
+
+    /**
+     * Saves a snapshot of the given node as png to the given file. The
+     * snapshot will be taken on the FX application thread, encoding and
+     * writing is done by the exporter without blocking the FX application
+     * thread.
+     * @param NODE
+     * @param FILE
+     * @param COMPRESSION_LEVEL 0 (fastest) - 9 (smallest)
+     * @return a future that completes with the given file or exceptionally if saving failed
+     */
+    public CompletableFuture<Path> exportPng(final Node NODE, final Path FILE, final int COMPRESSION_LEVEL) {
+        return onFxThread(() -> {
+            final WritableImage SNAPSHOT = NODE.snapshot(SNAPSHOT_PARAMETERS, null);
+            final int           WIDTH    = (int) SNAPSHOT.getWidth();
+            final int           HEIGHT   = (int) SNAPSHOT.getHeight();
+            final int[]         ARGB     = new int[WIDTH * HEIGHT];
+            SNAPSHOT.getPixelReader().getPixels(0, 0, WIDTH, HEIGHT, PIXEL_FORMAT, ARGB, 0, WIDTH);
+            return exporter.exportPng(WIDTH, HEIGHT, ARGB, FILE, COMPRESSION_LEVEL);
+        });
+    }
+
+    /**
+     * Saves the pixels of the current heat map image as raw ARGB ints in
+     * little endian byte order row by row without a header
+     * @param FILE
+     * @return a future that completes with the given file or exceptionally if saving failed
+     */
+    public CompletableFuture<Path> exportArgb(final Path FILE) {
+        return onFxThread(() -> exporter.exportArgb(densityGrid.getWidth(), densityGrid.getHeight(), copyHeatMapPixels(), FILE));
+    }
+
+    /**
+     * Saves the density of the heat map as raw floats in little endian
+     * byte order row by row without a header
+     * @param FILE
+     * @return a future that completes with the given file or exceptionally if saving failed
+     */
+    public CompletableFuture<Path> exportDensity(final Path FILE) {
+        return onFxThread(() -> {
+            flush();
+            return exporter.exportDensity(densityGrid.getWidth(), densityGrid.getHeight(), densityGrid.getData().clone(), FILE);
+        });
+    }
+
+    /**
+     * Runs the given export on the FX application thread, where the pixels
+     * and the density could be copied consistently, and returns a future
+     * that completes when the export is finished
+     * @param EXPORT
+     * @return a future that completes when the export is finished
+     */
+    private static CompletableFuture<Path> onFxThread(final Supplier<CompletableFuture<Path>> EXPORT) {
+        if (Platform.isFxApplicationThread()) {
+            try {
+                return EXPORT.get();
+            } catch (RuntimeException exception) {
+                return CompletableFuture.failedFuture(exception);
+            }
+        }
+        final CompletableFuture<Path> RESULT = new CompletableFuture<>();
+        Platform.runLater(() -> onFxThread(EXPORT).whenComplete((path, throwable) -> {
+            if (null == throwable) {
+                RESULT.complete(path);
+            } else {
+                RESULT.completeExceptionally(throwable);
+            }
+        }));
+        return RESULT;
+    }
+
+    private static Path desktopFile(final String FILE_NAME) {
+        return Paths.get(System.getProperty("user.home"), "Desktop", FILE_NAME.endsWith(".png") ? FILE_NAME : FILE_NAME + ".png");
+    }
+
     /**
      * Create an image that contains a circle filled with a
      * radial gradient from white to transparent
@@ -313,121 +1175,141 @@ public class HeatMap extends ImageView {
      * @return an image that contains a filled circle
      */
     public Image createEventImage(final double RADIUS, final OpacityDistribution OPACITY_DISTRIBUTION) {
-        Double radius = RADIUS < 1 ? 1 : RADIUS;
-        if (eventImages.containsKey(OPACITY_DISTRIBUTION.name() + radius)) {
-            return eventImages.get(OPACITY_DISTRIBUTION.name() + radius);
-        }
-        Stop[] stops = new Stop[11];
-        for (int i = 0; i < 11; i++) {
-            stops[i] = new Stop(i * 0.1, Color.rgb(255, 255, 255, OPACITY_DISTRIBUTION.distribution[i]));
-        }
-
-        int size = (int) (radius * 2);
-        WritableImage raster        = new WritableImage(size, size);
-        PixelWriter   pixelWriter   = raster.getPixelWriter();
-        double        maxDistFactor = 1 / radius;
-        Color pixelColor;
-        for (int y = 0; y < size; y++) {
-            for (int x = 0; x < size; x++) {
-                double deltaX   = radius - x;
-                double deltaY   = radius - y;
-                double distance = Math.sqrt((deltaX * deltaX) + (deltaY * deltaY));
-                double fraction = maxDistFactor * distance;
-                for (int i = 0; i < 10; i++) {
-                    if (Double.compare(fraction, stops[i].getOffset()) >= 0 && Double.compare(fraction, stops[i + 1].getOffset()) <= 0) {
-                        pixelColor = (Color) Interpolator.LINEAR.interpolate(stops[i].getColor(), stops[i + 1].getColor(), (fraction - stops[i].getOffset()) / 0.1);
-                        pixelWriter.setColor(x, y, pixelColor);
-                        break;
-                    }
-                }
-            }
-        }
-        eventImages.put(OPACITY_DISTRIBUTION.name() + radius, raster);
+        Kernel        kernel = densityGrid.getKernel(RADIUS, OPACITY_DISTRIBUTION);
+        WritableImage raster = new WritableImage(kernel.getWidth(), kernel.getHeight());
+        raster.getPixelWriter().setPixels(0, 0, kernel.getWidth(), kernel.getHeight(), PIXEL_FORMAT, kernel.toArgb(), 0, kernel.getWidth());
+        imageKernels.put(raster, kernel);
         return raster;
     }
 
     /**
      * Updates each event in the monochrome map to the given opacity gradient
-     * which could be useful to reduce oversmoothing
+     * which could be useful to reduce oversmoothing. If all events have the
+     * same radius the weights of the events will be kept binned by pixel
+     * and the results will be cached per radius and opacity distribution
+     * (see DensityLayers), so switching between opacity distributions only
+     * costs the stamping of the occupied pixels or a copy of a cached layer.
+     * If a density kernel is set only the opacity distribution of the
+     * stored events will be changed, the estimation will be kept.
      * @param OPACITY_GRADIENT
      */
     public void updateMonochromeMap(final OpacityDistribution OPACITY_GRADIENT) {
-        ctx.clearRect(0, 0, monochrome.getWidth(), monochrome.getHeight());
-        eventList.forEach(event -> {
-            event.setOpacityDistribution(OPACITY_GRADIENT);
-            ctx.drawImage(createEventImage(event.getRadius(), event.getOpacityDistribution()), event.getX() - event.getRadius() * 0.5, event.getY() - event.getRadius() * 0.5);
-        });
-        updateHeatMap();
+        eventStore.setOpacityDistribution(OPACITY_GRADIENT);
+        // The estimation doesn't depend on the opacity distribution of the events
+        if (null != densityEstimator) { return; }
+        if (null != densityWindow) {
+            densityWindow.replay(eventStore, renderPool);
+        } else if (cacheLayers && !eventStore.isEmpty() && eventStore.hasRadius(eventStore.getRadius(0))) {
+            if (null == densityLayers || densityLayers.getEventStore() != eventStore) { densityLayers = new DensityLayers(eventStore); }
+            densityLayers.render(densityGrid, eventStore.getRadius(0), OPACITY_GRADIENT, renderPool);
+        } else {
+            densityGrid.clear();
+            densityGrid.addEvents(eventStore, renderPool);
+        }
+        requestUpdate();
+    }
+
+    /**
+     * Updates each event in the monochrome map to the given opacity gradient
+     * and radius which will also be used for new events. Like with
+     * updateMonochromeMap(OpacityDistribution) the results will be cached.
+     * Radii are quantized to 1/16 of a pixel and the binned events are
+     * shared by all radii with the same fraction, so e.g. a slider for the
+     * radius could update the heat map interactively.
+     * @param OPACITY_GRADIENT
+     * @param RADIUS
+     */
+    public void updateMonochromeMap(final OpacityDistribution OPACITY_GRADIENT, final double RADIUS) {
+        setOpacityDistribution(OPACITY_GRADIENT);
+        setEventRadius(RADIUS);
+        eventStore.setRadius(radius);
+        updateMonochromeMap(OPACITY_GRADIENT);
+    }
+
+    /**
+     * Recreates the heatmap immediately or marks it as dirty if the
+     * rendering is coalesced
+     */
+    private void requestUpdate() {
+        if (coalescedRendering) {
+            dirty = true;
+        } else {
+            updateHeatMap();
+        }
+    }
+
+    /**
+     * Returns a copy of the pixels of the current heat map image, the
+     * image will be created if the heat map has never been rendered
+     * @return a copy of the pixels of the current heat map image
+     */
+    private int[] copyHeatMapPixels() {
+        flush();
+        if (heatMapPixels.length != densityGrid.getWidth() * densityGrid.getHeight()) { updateHeatMap(); }
+        return heatMapPixels.clone();
     }
 
     /**
-     * Recreates the heatmap based on the current monochrome map.
+     * Recreates the heatmap based on the current density grid.
      * Using this approach makes it easy to change the used color
      * mapping.
      */
     private void updateHeatMap() {
-        monochrome.snapshot(SNAPSHOT_PARAMETERS, monochromeImage);
-        heatMap = new WritableImage(monochromeImage.widthProperty().intValue(), monochromeImage.heightProperty().intValue());
-        Color       colorFromMonoChromeImage;
-        double      brightness;
-        Color       mappedColor;
-        PixelWriter pixelWriter = heatMap.getPixelWriter();
-        PixelReader pixelReader = monochromeImage.getPixelReader();
-        int width  = (int) monochromeImage.getWidth();
-        int height = (int) monochromeImage.getHeight();
-        for (int y = 0 ; y < height ; y++) {
-            for (int x = 0 ; x < width ; x++) {
-                colorFromMonoChromeImage = pixelReader.getColor(x, y);
-                brightness = colorFromMonoChromeImage.getOpacity();
-                mappedColor = getColorAt(mappingGradient, brightness);
-                if (fadeColors) {
-                    pixelWriter.setColor(x, y, Color.color(mappedColor.getRed(), mappedColor.getGreen(), mappedColor.getBlue(), brightness));
-                } else {
-                    pixelWriter.setColor(x, y, mappedColor);
-                }
-            }
+        dirty = false;
+        if (null != densityEstimator && densityEstimator.isDirty()) { densityEstimator.estimate(densityGrid, renderPool); }
+        int width  = densityGrid.getWidth();
+        int height = densityGrid.getHeight();
+        if (width <= 0 || height <= 0) { return; }
+        if (null == heatMap || (int) heatMap.getWidth() != width || (int) heatMap.getHeight() != height) {
+            heatMap       = new WritableImage(width, height);
+            heatMapPixels = new int[width * height];
+            fullUpdate    = true;
         }
-        setImage(heatMap);
-    }
+        float reference = getReference();
+        if (reference != lastReference) {
+            lastReference = reference;
+            fullUpdate    = true;
+        }
+        if (fullUpdate) {
+            densityGrid.markDirty(0, 0, width, height);
+            fullUpdate = false;
+        }
+        if (densityGrid.isDirty()) {
+            int minX = densityGrid.getDirtyMinX();
+            int minY = densityGrid.getDirtyMinY();
+            int maxX = densityGrid.getDirtyMaxX();
+            int maxY = densityGrid.getDirtyMaxY();
+            densityGrid.colorize(colorLookupTable, fadeColors, heatMapPixels, minX, minY, maxX, maxY, renderPool, normalization, scaling, reference);
+            densityGrid.resetDirtyRegion();
 
-    /**
-     * Calculates the color in a linear gradient at the given fraction
-     * @param GRADIENT
-     * @param FRACTION
-     * @return the color in a linear gradient at the given fraction
-     */
-    private Color getColorAt(final LinearGradient GRADIENT, final double FRACTION) {
-        List<Stop> stops     = GRADIENT.getStops();
-        double     fraction  = FRACTION < 0f ? 0f : (FRACTION > 1 ? 1 : FRACTION);
-        Stop       lowerStop = new Stop(0.0, stops.get(0).getColor());
-        Stop       upperStop = new Stop(1.0, stops.get(stops.size() - 1).getColor());
-
-        for (Stop stop : stops) {
-            double currentFraction = stop.getOffset();
-            if (Double.compare(currentFraction, fraction) == 0) {
-                return stop.getColor();
-            } else if (Double.compare(currentFraction, fraction) < 0) {
-                lowerStop = new Stop(currentFraction, stop.getColor());
-            } else {
-                upperStop = new Stop(currentFraction, stop.getColor());
-                break;
-            }
+            PixelWriter pixelWriter = heatMap.getPixelWriter();
+            pixelWriter.setPixels(minX, minY, maxX - minX, maxY - minY, PIXEL_FORMAT, heatMapPixels, minY * width + minX, width);
         }
+        if (getImage() != heatMap) { setImage(heatMap); }
+    }
 
-        double interpolationFraction = (fraction - lowerStop.getOffset()) / (upperStop.getOffset() - lowerStop.getOffset());
-        return (Color) Interpolator.LINEAR.interpolate(lowerStop.getColor(), upperStop.getColor(), interpolationFraction);
+    /**
+     * Creates a kernel from the alpha channel of the given event image
+     * @param EVENT_IMAGE
+     * @return a kernel from the alpha channel of the given event image
+     */
+    private static Kernel createKernel(final Image EVENT_IMAGE) {
+        int   width  = (int) EVENT_IMAGE.getWidth();
+        int   height = (int) EVENT_IMAGE.getHeight();
+        int[] argb   = new int[width * height];
+        EVENT_IMAGE.getPixelReader().getPixels(0, 0, width, height, PIXEL_FORMAT, argb, 0, width);
+        return Kernel.fromArgb(width, height, argb);
     }
 
     private void resize() {
         double width  = getFitWidth();
         double height = getFitHeight();
 
-        monochrome.setWidth(width);
-        monochrome.setHeight(height);
-
         if (width > 0 && height > 0) {
-            monochromeImage = new WritableImage(monochrome.widthProperty().intValue(), monochrome.heightProperty().intValue());
-            updateHeatMap();
+            densityGrid.resize((int) width, (int) height);
+            if (null != densityWindow) { densityWindow.resize(); }
+            if (null != densityEstimator) { densityEstimator.resize((int) width, (int) height); }
+            requestUpdate();
         }
     }
 }
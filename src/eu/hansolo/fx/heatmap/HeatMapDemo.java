@@ -72,8 +72,7 @@ public class HeatMapDemo extends Application {
             if (SRC.equals(choiceBoxMapping)) {
                 heatMap.setColorMapping(ColorMapping.valueOf(choiceBoxMapping.getSelectionModel().getSelectedItem().toString()));
             } else if (SRC.equals(choiceBoxOpacityDistribution)) {
-                heatMap.setOpacityDistribution(OpacityDistribution.valueOf(choiceBoxOpacityDistribution.getSelectionModel().getSelectedItem().toString()));
-                heatMap.updateMonochromeMap(OpacityDistribution.valueOf(choiceBoxOpacityDistribution.getSelectionModel().getSelectedItem().toString()));
+                heatMap.updateMonochromeMap(OpacityDistribution.valueOf(choiceBoxOpacityDistribution.getSelectionModel().getSelectedItem().toString()), heatMap.getEventRadius());
             } else if (SRC.equals(checkBoxFadeColors)) {
                 heatMap.setFadeColors(checkBoxFadeColors.isSelected());
             } else if (SRC.equals(clearHeatMap)) {
@@ -105,7 +104,7 @@ public class HeatMapDemo extends Application {
         sliderRadius.setMin(10);
         sliderRadius.setMax(50);
         sliderRadius.setValue(heatMap.getEventRadius());
-        sliderRadius.valueChangingProperty().addListener((observableValue, aBoolean, aBoolean2) -> heatMap.setEventRadius(sliderRadius.getValue()));
+        sliderRadius.valueChangingProperty().addListener((observableValue, aBoolean, aBoolean2) -> heatMap.updateMonochromeMap(heatMap.getOpacityDistribution(), sliderRadius.getValue()));
 
         clearHeatMap.setOnAction(handler);
 
@@ -27,6 +27,7 @@ public class HeatMapEvent {
     private double              y;
     private double              radius;
     private OpacityDistribution opacityDistribution;
+    private double              weight;
 
 
     // ******************** Constructors **************************************
@@ -39,10 +40,15 @@ public class HeatMapEvent {
     }
 
     public HeatMapEvent(final double X, final double Y, final double RADIUS, final OpacityDistribution OPACITY_GRADIENT) {
+        this(X, Y, RADIUS, OPACITY_GRADIENT, 1.0);
+    }
+
+    public HeatMapEvent(final double X, final double Y, final double RADIUS, final OpacityDistribution OPACITY_GRADIENT, final double WEIGHT) {
         x                   = X;
         y                   = Y;
         radius              = RADIUS;
         opacityDistribution = OPACITY_GRADIENT;
+        weight              = WEIGHT;
     }
 
 
@@ -69,4 +75,11 @@ public class HeatMapEvent {
         opacityDistribution = OPACITY_GRADIENT;
     }
 
+    public double getWeight() {
+        return weight;
+    }
+    public void setWeight(final double WEIGHT) {
+        weight = WEIGHT;
+    }
+
 }
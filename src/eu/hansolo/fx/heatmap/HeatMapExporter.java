@@ -0,0 +1,193 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Encodes and writes heat map pixels or densities on a pool of worker
+ * threads, so exporting large maps does not block the FX application
+ * thread. The caller only has to copy the pixels once (e.g. with
+ * PixelReader.getPixels()) and hand them over to the exporter, which
+ * takes ownership of the given arrays. Each export returns a future that
+ * completes with the target path or exceptionally with the error that
+ * occurred. Besides PNG the pixels could be written as raw ARGB ints and
+ * the density as raw floats (row major, little endian, no header) for
+ * downstream tools.
+ */
+public class HeatMapExporter {
+    public static final int        DEFAULT_COMPRESSION_LEVEL = 6;
+    private static final int[]     ARGB_MASKS                = { 0x00FF0000, 0x0000FF00, 0x000000FF, 0xFF000000 };
+    private static HeatMapExporter defaultExporter;
+    private final Executor         executor;
+
+
+    // ******************** Constructors **************************************
+    /**
+     * Creates an exporter that encodes on the given executor
+     * @param EXECUTOR
+     */
+    public HeatMapExporter(final Executor EXECUTOR) {
+        if (null == EXECUTOR) { throw new IllegalArgumentException("Executor must not be null"); }
+        executor = EXECUTOR;
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Returns an exporter that is shared by all heat maps and encodes on a
+     * small pool of daemon threads
+     * @return the default exporter
+     */
+    public static synchronized HeatMapExporter getDefault() {
+        if (null == defaultExporter) {
+            final AtomicInteger   COUNTER = new AtomicInteger();
+            final ExecutorService POOL    = Executors.newFixedThreadPool(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)), runnable -> {
+                Thread thread = new Thread(runnable, "heatmap-export-" + COUNTER.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            defaultExporter = new HeatMapExporter(POOL);
+        }
+        return defaultExporter;
+    }
+
+    /**
+     * Encodes the given ARGB pixels as PNG and writes them to the given path
+     * @param WIDTH
+     * @param HEIGHT
+     * @param ARGB the pixels in row major order, must not be changed afterwards
+     * @param TARGET
+     * @param COMPRESSION_LEVEL 0 (fastest) - 9 (smallest)
+     * @return a future that completes with the target path
+     */
+    public CompletableFuture<Path> exportPng(final int WIDTH, final int HEIGHT, final int[] ARGB, final Path TARGET, final int COMPRESSION_LEVEL) {
+        checkSize(WIDTH, HEIGHT, ARGB.length);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                writePng(WIDTH, HEIGHT, ARGB, TARGET, COMPRESSION_LEVEL);
+                return TARGET;
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        }, executor);
+    }
+
+    /**
+     * Writes the given ARGB pixels as raw little endian ints to the given path
+     * @param WIDTH
+     * @param HEIGHT
+     * @param ARGB the pixels in row major order, must not be changed afterwards
+     * @param TARGET
+     * @return a future that completes with the target path
+     */
+    public CompletableFuture<Path> exportArgb(final int WIDTH, final int HEIGHT, final int[] ARGB, final Path TARGET) {
+        checkSize(WIDTH, HEIGHT, ARGB.length);
+        return CompletableFuture.supplyAsync(() -> {
+            try (FileChannel channel = open(TARGET)) {
+                BinaryIO.writeInts(channel, BinaryIO.createBuffer(), ARGB, 0, ARGB.length);
+                return TARGET;
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        }, executor);
+    }
+
+    /**
+     * Writes the given densities as raw little endian floats to the given path
+     * @param WIDTH
+     * @param HEIGHT
+     * @param DENSITY the densities in row major order, must not be changed afterwards
+     * @param TARGET
+     * @return a future that completes with the target path
+     */
+    public CompletableFuture<Path> exportDensity(final int WIDTH, final int HEIGHT, final float[] DENSITY, final Path TARGET) {
+        checkSize(WIDTH, HEIGHT, DENSITY.length);
+        return CompletableFuture.supplyAsync(() -> {
+            try (FileChannel channel = open(TARGET)) {
+                BinaryIO.writeFloats(channel, BinaryIO.createBuffer(), DENSITY, 0, DENSITY.length);
+                return TARGET;
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        }, executor);
+    }
+
+    /**
+     * Wraps the given pixels in a BufferedImage without copying them and
+     * writes it with the PNG writer of ImageIO using the given compression
+     * @param WIDTH
+     * @param HEIGHT
+     * @param ARGB
+     * @param TARGET
+     * @param COMPRESSION_LEVEL
+     * @throws IOException
+     */
+    private static void writePng(final int WIDTH, final int HEIGHT, final int[] ARGB, final Path TARGET, final int COMPRESSION_LEVEL) throws IOException {
+        final DirectColorModel COLOR_MODEL = new DirectColorModel(32, ARGB_MASKS[0], ARGB_MASKS[1], ARGB_MASKS[2], ARGB_MASKS[3]);
+        final WritableRaster   RASTER      = Raster.createWritableRaster(new SinglePixelPackedSampleModel(DataBufferInt.TYPE_INT, WIDTH, HEIGHT, ARGB_MASKS), new DataBufferInt(ARGB, ARGB.length), null);
+        final BufferedImage    IMAGE       = new BufferedImage(COLOR_MODEL, RASTER, false, null);
+
+        final Iterator<ImageWriter> WRITERS = ImageIO.getImageWritersByFormatName("png");
+        if (!WRITERS.hasNext()) { throw new IOException("No PNG writer available"); }
+        final ImageWriter     WRITER = WRITERS.next();
+        final ImageWriteParam PARAM  = WRITER.getDefaultWriteParam();
+        if (PARAM.canWriteCompressed()) {
+            PARAM.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            PARAM.setCompressionQuality(1f - Math.max(0, Math.min(9, COMPRESSION_LEVEL)) / 9f);
+        }
+        try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(TARGET), BinaryIO.BUFFER_SIZE);
+             ImageOutputStream stream = new MemoryCacheImageOutputStream(output)) {
+            WRITER.setOutput(stream);
+            WRITER.write(null, new IIOImage(IMAGE, null, null), PARAM);
+        } finally {
+            WRITER.dispose();
+        }
+    }
+
+    private static FileChannel open(final Path TARGET) throws IOException {
+        return FileChannel.open(TARGET, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static void checkSize(final int WIDTH, final int HEIGHT, final int LENGTH) {
+        if (WIDTH <= 0 || HEIGHT <= 0 || (long) WIDTH * HEIGHT != LENGTH) { throw new IllegalArgumentException("Size does not match the number of values"); }
+    }
+}
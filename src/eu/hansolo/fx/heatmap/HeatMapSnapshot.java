@@ -0,0 +1,296 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+
+/**
+ * The state of a heat map (size, color mapping, opacity distribution,
+ * event radius, all events and optionally the density) in a compact
+ * versioned binary format. The events are stored column by column as
+ * primitive arrays in little endian byte order and will be transferred
+ * in large blocks through NIO channels, so millions of events could be
+ * restored without adding them one by one. Everything after the header
+ * could optionally be compressed with deflate. A snapshot is an immutable
+ * value, it keeps its own copy of the events and the density and hands
+ * out copies of them.
+ *
+ * Layout (version 1):
+ * magic "HMSN", version, flags (1 = density, 2 = compressed), width,
+ * height, radius, number of events, color mapping and opacity
+ * distribution as length prefixed UTF-8 names, followed by the columns
+ * x (double), y (double), radius (float), opacity distribution (byte),
+ * weight (float) and if flagged width * height floats of density.
+ */
+public class HeatMapSnapshot {
+    private static final int          MAGIC            = 0x484D534E; // HMSN
+    private static final int          VERSION          = 1;
+    private static final int          FLAG_DENSITY     = 1;
+    private static final int          FLAG_COMPRESSED  = 2;
+    private static final int          FIXED_HEADER     = 34;
+    private static final int          EVENT_BYTES      = 2 * Double.BYTES + 2 * Float.BYTES + Byte.BYTES;
+    private static final long         MAX_NO_OF_CELLS  = 1L << 28;
+    private final int                 width;
+    private final int                 height;
+    private final ColorMapping        colorMapping;
+    private final OpacityDistribution opacityDistribution;
+    private final double              radius;
+    private final EventStore          events;
+    private final DensityGrid         density;
+
+
+    // ******************** Constructors **************************************
+    /**
+     * Creates a snapshot of the given state. The events and the density
+     * will be copied, so they could be changed after the snapshot has
+     * been created.
+     * @param WIDTH
+     * @param HEIGHT
+     * @param COLOR_MAPPING
+     * @param OPACITY_DISTRIBUTION
+     * @param RADIUS
+     * @param EVENTS
+     * @param DENSITY the density or null if it should not be stored
+     */
+    public HeatMapSnapshot(final int WIDTH, final int HEIGHT, final ColorMapping COLOR_MAPPING, final OpacityDistribution OPACITY_DISTRIBUTION,
+                           final double RADIUS, final EventStore EVENTS, final DensityGrid DENSITY) {
+        this(WIDTH, HEIGHT, COLOR_MAPPING, OPACITY_DISTRIBUTION, RADIUS, EVENTS, DENSITY, true);
+    }
+    /**
+     * Creates a snapshot of the given state. If COPY is false the snapshot
+     * takes ownership of the given events and density, which must not be
+     * changed as long as the snapshot is used, e.g. to write the current
+     * state of a heat map without copying it.
+     */
+    HeatMapSnapshot(final int WIDTH, final int HEIGHT, final ColorMapping COLOR_MAPPING, final OpacityDistribution OPACITY_DISTRIBUTION,
+                    final double RADIUS, final EventStore EVENTS, final DensityGrid DENSITY, final boolean COPY) {
+        if (null != DENSITY && (DENSITY.getWidth() != WIDTH || DENSITY.getHeight() != HEIGHT)) { throw new IllegalArgumentException("Density grid does not match the size"); }
+        width               = WIDTH;
+        height              = HEIGHT;
+        colorMapping        = COLOR_MAPPING;
+        opacityDistribution = OPACITY_DISTRIBUTION;
+        radius              = RADIUS;
+        events              = COPY ? EVENTS.copy() : EVENTS;
+        density             = COPY && null != DENSITY ? DENSITY.copy() : DENSITY;
+    }
+
+
+    // ******************** Methods *******************************************
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public ColorMapping getColorMapping() {
+        return colorMapping;
+    }
+
+    public OpacityDistribution getOpacityDistribution() {
+        return opacityDistribution;
+    }
+
+    public double getRadius() {
+        return radius;
+    }
+
+    public int getNoOfEvents() {
+        return events.size();
+    }
+
+    /**
+     * Returns a copy of the events of the snapshot
+     * @return a copy of the events
+     */
+    public EventStore getEvents() {
+        return events.copy();
+    }
+
+    /**
+     * Returns a copy of the density or null if the snapshot does not
+     * contain the density, in this case the density could be recomputed
+     * from the events
+     * @return a copy of the density or null
+     */
+    public DensityGrid getDensity() {
+        return null == density ? null : density.copy();
+    }
+
+    public boolean hasDensity() {
+        return null != density;
+    }
+
+    /**
+     * Writes the snapshot to the given file, an existing file will be replaced
+     * @param FILE
+     * @param COMPRESS
+     * @throws IOException
+     */
+    public void write(final Path FILE, final boolean COMPRESS) throws IOException {
+        try (FileChannel channel = FileChannel.open(FILE, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel, COMPRESS);
+        }
+    }
+
+    /**
+     * Writes the snapshot to the given channel, the channel will not be closed
+     * @param CHANNEL
+     * @param COMPRESS
+     * @throws IOException
+     */
+    public void write(final WritableByteChannel CHANNEL, final boolean COMPRESS) throws IOException {
+        final byte[]     COLOR_MAPPING        = colorMapping.name().getBytes(StandardCharsets.UTF_8);
+        final byte[]     OPACITY_DISTRIBUTION = opacityDistribution.name().getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer BUFFER               = BinaryIO.createBuffer();
+        BUFFER.putInt(MAGIC)
+              .putInt(VERSION)
+              .putInt((null == density ? 0 : FLAG_DENSITY) | (COMPRESS ? FLAG_COMPRESSED : 0))
+              .putInt(width)
+              .putInt(height)
+              .putDouble(radius)
+              .putInt(events.size())
+              .putShort((short) COLOR_MAPPING.length).put(COLOR_MAPPING)
+              .putShort((short) OPACITY_DISTRIBUTION.length).put(OPACITY_DISTRIBUTION)
+              .flip();
+        BinaryIO.writeFully(CHANNEL, BUFFER);
+
+        if (COMPRESS) {
+            final Deflater DEFLATER = new Deflater(Deflater.BEST_SPEED);
+            try {
+                final DeflaterOutputStream STREAM = new DeflaterOutputStream(Channels.newOutputStream(CHANNEL), DEFLATER, BinaryIO.BUFFER_SIZE);
+                writePayload(Channels.newChannel(STREAM), BUFFER);
+                STREAM.finish();
+                STREAM.flush();
+            } finally {
+                DEFLATER.end();
+            }
+        } else {
+            writePayload(CHANNEL, BUFFER);
+        }
+    }
+
+    /**
+     * Reads a snapshot from the given file
+     * @param FILE
+     * @return the snapshot that has been stored in the given file
+     * @throws IOException if the file is not a snapshot or is damaged
+     */
+    public static HeatMapSnapshot read(final Path FILE) throws IOException {
+        try (FileChannel channel = FileChannel.open(FILE, StandardOpenOption.READ)) {
+            return read(channel);
+        }
+    }
+
+    /**
+     * Reads a snapshot from the given channel, the channel will not be
+     * closed. The size and the number of events in the header will be
+     * checked against sane limits (and against the size of the channel if
+     * the channel is seekable and the snapshot is not compressed) and the
+     * events will be read in chunks, so damaged data leads to an
+     * IOException instead of a huge allocation.
+     * @param CHANNEL
+     * @return the snapshot that has been read from the given channel
+     * @throws IOException if the data is not a snapshot or is damaged
+     */
+    public static HeatMapSnapshot read(final ReadableByteChannel CHANNEL) throws IOException {
+        final ByteBuffer BUFFER = BinaryIO.createBuffer();
+        BUFFER.limit(FIXED_HEADER);
+        BinaryIO.readFully(CHANNEL, BUFFER);
+        BUFFER.flip();
+        if (BUFFER.getInt() != MAGIC) { throw new IOException("Data is not a heat map snapshot"); }
+        final int VERSION_READ = BUFFER.getInt();
+        if (VERSION_READ != VERSION) { throw new IOException("Unsupported snapshot version: " + VERSION_READ); }
+        final int    FLAGS          = BUFFER.getInt();
+        final int    WIDTH          = BUFFER.getInt();
+        final int    HEIGHT         = BUFFER.getInt();
+        final double RADIUS         = BUFFER.getDouble();
+        final int    NO_OF_EVENTS   = BUFFER.getInt();
+        final short  MAPPING_LENGTH = BUFFER.getShort();
+        if (WIDTH < 0 || HEIGHT < 0 || (long) WIDTH * HEIGHT > MAX_NO_OF_CELLS || NO_OF_EVENTS < 0 || !Double.isFinite(RADIUS) || RADIUS < 0) { throw new IOException("Snapshot header is damaged"); }
+
+        final ColorMapping        COLOR_MAPPING;
+        final OpacityDistribution OPACITY_DISTRIBUTION;
+        try {
+            COLOR_MAPPING        = ColorMapping.valueOf(readName(CHANNEL, BUFFER, MAPPING_LENGTH));
+            OPACITY_DISTRIBUTION = OpacityDistribution.valueOf(readName(CHANNEL, BUFFER, readShort(CHANNEL, BUFFER)));
+        } catch (IllegalArgumentException exception) {
+            throw new IOException("Unknown color mapping or opacity distribution in snapshot", exception);
+        }
+
+        final boolean     INCLUDES_DENSITY = (FLAGS & FLAG_DENSITY) != 0;
+        final EventStore  EVENTS           = new EventStore();
+        final DensityGrid DENSITY;
+        if ((FLAGS & FLAG_COMPRESSED) != 0) {
+            final Inflater INFLATER = new Inflater();
+            try {
+                DENSITY = readPayload(Channels.newChannel(new InflaterInputStream(Channels.newInputStream(CHANNEL), INFLATER, BinaryIO.BUFFER_SIZE)), BUFFER, EVENTS, NO_OF_EVENTS,
+                                      INCLUDES_DENSITY, WIDTH, HEIGHT);
+            } finally {
+                INFLATER.end();
+            }
+        } else {
+            if (CHANNEL instanceof SeekableByteChannel) {
+                final SeekableByteChannel SEEKABLE = (SeekableByteChannel) CHANNEL;
+                final long                EXPECTED = (long) NO_OF_EVENTS * EVENT_BYTES + (INCLUDES_DENSITY ? (long) WIDTH * HEIGHT * Float.BYTES : 0);
+                if (SEEKABLE.size() - SEEKABLE.position() < EXPECTED) { throw new IOException("Snapshot is truncated"); }
+            }
+            DENSITY = readPayload(CHANNEL, BUFFER, EVENTS, NO_OF_EVENTS, INCLUDES_DENSITY, WIDTH, HEIGHT);
+        }
+        return new HeatMapSnapshot(WIDTH, HEIGHT, COLOR_MAPPING, OPACITY_DISTRIBUTION, RADIUS, EVENTS, DENSITY, false);
+    }
+
+    private void writePayload(final WritableByteChannel CHANNEL, final ByteBuffer BUFFER) throws IOException {
+        events.write(CHANNEL, BUFFER);
+        if (null != density) { density.write(CHANNEL, BUFFER); }
+    }
+
+    private static DensityGrid readPayload(final ReadableByteChannel CHANNEL, final ByteBuffer BUFFER, final EventStore EVENTS, final int NO_OF_EVENTS,
+                                           final boolean INCLUDES_DENSITY, final int WIDTH, final int HEIGHT) throws IOException {
+        EVENTS.read(CHANNEL, BUFFER, NO_OF_EVENTS);
+        if (!INCLUDES_DENSITY) { return null; }
+        final DensityGrid DENSITY = new DensityGrid(WIDTH, HEIGHT);
+        DENSITY.read(CHANNEL, BUFFER);
+        return DENSITY;
+    }
+
+    private static short readShort(final ReadableByteChannel CHANNEL, final ByteBuffer BUFFER) throws IOException {
+        BUFFER.clear().limit(Short.BYTES);
+        BinaryIO.readFully(CHANNEL, BUFFER);
+        return BUFFER.flip().getShort();
+    }
+
+    private static String readName(final ReadableByteChannel CHANNEL, final ByteBuffer BUFFER, final short LENGTH) throws IOException {
+        if (LENGTH < 0) { throw new IOException("Snapshot header is damaged"); }
+        final byte[] NAME = new byte[LENGTH];
+        BinaryIO.readBytes(CHANNEL, BUFFER, NAME, 0, LENGTH);
+        return new String(NAME, StandardCharsets.UTF_8);
+    }
+}
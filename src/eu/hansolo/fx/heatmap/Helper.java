@@ -18,6 +18,11 @@ package eu.hansolo.fx.heatmap;
 
 import javafx.geometry.Dimension2D;
 import javafx.geometry.Point2D;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.LinearGradient;
+import javafx.scene.paint.Stop;
+
+import java.util.List;
 
 
 /**
@@ -27,6 +32,19 @@ import javafx.geometry.Point2D;
  * Time: 15:50
  */
 public class Helper {
+    public static final int LOOKUP_TABLE_SIZE = 256;
+
+
+    /**
+     * Returns the pixel of the given location (latitude, longitude) on a
+     * mercator map. To project many locations use a GeoProjector which
+     * computes the constants of the map only once.
+     * @param MAP_DIMENSION
+     * @param UPPER_LEFT
+     * @param LOWER_RIGHT
+     * @param LOCATION
+     * @return the pixel of the given location
+     */
     public static Point2D latLongToPixel(final Dimension2D MAP_DIMENSION,
                                          final Point2D UPPER_LEFT,
                                          final Point2D LOWER_RIGHT,
@@ -80,4 +98,62 @@ public class Helper {
         }
         return DIRECTION;
     }
+
+    /**
+     * Samples the given gradient at 256 equidistant fractions and returns
+     * the colors as packed ARGB ints. The index of an entry corresponds to
+     * an 8-bit brightness/opacity value, so colorizing a heat map becomes
+     * a simple table lookup instead of interpolating the gradient per pixel.
+     * @param GRADIENT
+     * @return a lookup table with 256 packed ARGB colors
+     */
+    public static int[] createColorLookupTable(final LinearGradient GRADIENT) {
+        final int[] LOOKUP_TABLE = new int[LOOKUP_TABLE_SIZE];
+        for (int i = 0 ; i < LOOKUP_TABLE_SIZE ; i++) {
+            LOOKUP_TABLE[i] = toArgb(getColorAt(GRADIENT, i / (double) (LOOKUP_TABLE_SIZE - 1)));
+        }
+        return LOOKUP_TABLE;
+    }
+
+    /**
+     * Calculates the color in a linear gradient at the given fraction
+     * @param GRADIENT
+     * @param FRACTION
+     * @return the color in a linear gradient at the given fraction
+     */
+    public static Color getColorAt(final LinearGradient GRADIENT, final double FRACTION) {
+        List<Stop> stops     = GRADIENT.getStops();
+        double     fraction  = FRACTION < 0f ? 0f : (FRACTION > 1 ? 1 : FRACTION);
+        Stop       lowerStop = new Stop(0.0, stops.get(0).getColor());
+        Stop       upperStop = new Stop(1.0, stops.get(stops.size() - 1).getColor());
+
+        for (Stop stop : stops) {
+            double currentFraction = stop.getOffset();
+            if (Double.compare(currentFraction, fraction) == 0) {
+                return stop.getColor();
+            } else if (Double.compare(currentFraction, fraction) < 0) {
+                lowerStop = new Stop(currentFraction, stop.getColor());
+            } else {
+                upperStop = new Stop(currentFraction, stop.getColor());
+                break;
+            }
+        }
+
+        double interpolationFraction = (fraction - lowerStop.getOffset()) / (upperStop.getOffset() - lowerStop.getOffset());
+        return lowerStop.getColor().interpolate(upperStop.getColor(), interpolationFraction);
+    }
+
+    /**
+     * Converts the given color to a packed ARGB int as used by the
+     * PixelReader/PixelWriter
+     * @param COLOR
+     * @return the given color as packed ARGB int
+     */
+    public static int toArgb(final Color COLOR) {
+        final int ALPHA = (int) Math.round(COLOR.getOpacity() * 255);
+        final int RED   = (int) Math.round(COLOR.getRed() * 255);
+        final int GREEN = (int) Math.round(COLOR.getGreen() * 255);
+        final int BLUE  = (int) Math.round(COLOR.getBlue() * 255);
+        return (ALPHA << 24) | (RED << 16) | (GREEN << 8) | BLUE;
+    }
 }
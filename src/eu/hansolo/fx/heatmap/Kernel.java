@@ -0,0 +1,156 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+/**
+ * A kernel is the primitive counterpart of an event image. Instead of
+ * opacities it contains the optical depth -ln(1 - opacity) of each pixel
+ * which makes it possible to accumulate events by simply adding them up
+ * in a DensityGrid. Converting the accumulated depth back with
+ * 1 - exp(-depth) gives exactly the same result as drawing the event
+ * images on top of each other with source over compositing.
+ */
+public class Kernel {
+    public static final double     MAX_OPACITY  = 0.999;
+    private static final int       PROFILE_SIZE = 4096;
+    private static final float[][] PROFILES     = createProfiles();
+    private final int              width;
+    private final int              height;
+    private final float[]          depths;
+
+
+    // ******************** Constructors **************************************
+    public Kernel(final int WIDTH, final int HEIGHT, final float[] DEPTHS) {
+        if (WIDTH < 0 || HEIGHT < 0 || DEPTHS.length != WIDTH * HEIGHT) { throw new IllegalArgumentException("Kernel size does not match the number of depths"); }
+        width  = WIDTH;
+        height = HEIGHT;
+        depths = DEPTHS;
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Creates a kernel that contains a circle with the given radius filled
+     * with the given opacity distribution from the center to the outside.
+     * The kernel has the same size and shape as the event image that is
+     * created by HeatMap.createEventImage() but is computed without the
+     * need of a JavaFX toolkit. The depths are looked up in a radial
+     * profile of the distribution that is indexed by the squared distance
+     * from the center, so neither a square root nor a logarithm has to be
+     * computed per pixel.
+     * @param RADIUS
+     * @param OPACITY_DISTRIBUTION
+     * @return a kernel that contains a filled circle
+     */
+    public static Kernel create(final double RADIUS, final OpacityDistribution OPACITY_DISTRIBUTION) {
+        final double  RAD          = RADIUS < 1 ? 1 : RADIUS;
+        final float[] PROFILE      = PROFILES[OPACITY_DISTRIBUTION.ordinal()];
+        final int     SIZE         = (int) (RAD * 2);
+        final float[] DEPTHS       = new float[SIZE * SIZE];
+        final double  INDEX_FACTOR = PROFILE_SIZE / (RAD * RAD);
+        for (int y = 0 ; y < SIZE ; y++) {
+            double deltaY  = RAD - y;
+            double deltaY2 = deltaY * deltaY;
+            for (int x = 0 ; x < SIZE ; x++) {
+                double deltaX   = RAD - x;
+                double position = ((deltaX * deltaX) + deltaY2) * INDEX_FACTOR;
+                if (position > PROFILE_SIZE) { continue; }
+                int    index    = (int) position;
+                DEPTHS[y * SIZE + x] = index == PROFILE_SIZE ? PROFILE[index] : PROFILE[index] + (PROFILE[index + 1] - PROFILE[index]) * (float) (position - index);
+            }
+        }
+        return new Kernel(SIZE, SIZE, DEPTHS);
+    }
+
+    /**
+     * Creates a kernel from the alpha channel of the given ARGB pixels
+     * which makes it possible to use custom event images in a DensityGrid
+     * @param WIDTH
+     * @param HEIGHT
+     * @param ARGB
+     * @return a kernel that contains the opacities of the given pixels
+     */
+    public static Kernel fromArgb(final int WIDTH, final int HEIGHT, final int[] ARGB) {
+        final float[] DEPTHS = new float[WIDTH * HEIGHT];
+        for (int i = 0 ; i < DEPTHS.length ; i++) {
+            DEPTHS[i] = toDepth((ARGB[i] >>> 24) / 255.0);
+        }
+        return new Kernel(WIDTH, HEIGHT, DEPTHS);
+    }
+
+    /**
+     * Returns the opacities of the kernel as white ARGB pixels which can
+     * be used to create an event image from the kernel
+     * @return the opacities of the kernel as white ARGB pixels
+     */
+    public int[] toArgb() {
+        final int[] ARGB = new int[depths.length];
+        for (int i = 0 ; i < depths.length ; i++) {
+            int alpha = DensityGrid.toOpacity(depths[i]);
+            ARGB[i] = alpha == 0 ? 0 : alpha << 24 | 0x00FFFFFF;
+        }
+        return ARGB;
+    }
+
+    /**
+     * Converts the given opacity into the optical depth that is used
+     * to accumulate events
+     * @param OPACITY
+     * @return the optical depth of the given opacity
+     */
+    public static float toDepth(final double OPACITY) {
+        if (OPACITY <= 0) { return 0f; }
+        return (float) -Math.log1p(-(OPACITY > MAX_OPACITY ? MAX_OPACITY : OPACITY));
+    }
+
+    /**
+     * Samples the depths of each opacity distribution over the squared
+     * distance from the center, the last entry belongs to the border
+     * of the circle
+     * @return the radial profiles of all opacity distributions
+     */
+    private static float[][] createProfiles() {
+        final OpacityDistribution[] DISTRIBUTIONS = OpacityDistribution.values();
+        final float[][]             PROFILES      = new float[DISTRIBUTIONS.length][PROFILE_SIZE + 1];
+        for (OpacityDistribution opacityDistribution : DISTRIBUTIONS) {
+            final double[] DISTRIBUTION = opacityDistribution.distribution;
+            final float[]  PROFILE      = PROFILES[opacityDistribution.ordinal()];
+            for (int i = 0 ; i <= PROFILE_SIZE ; i++) {
+                double fraction = Math.sqrt((double) i / PROFILE_SIZE);
+                int    index    = fraction >= 1 ? 9 : (int) (fraction * 10);
+                double opacity  = DISTRIBUTION[index] + (DISTRIBUTION[index + 1] - DISTRIBUTION[index]) * (fraction * 10 - index);
+                PROFILE[i] = toDepth(opacity);
+            }
+        }
+        return PROFILES;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the optical depths of the kernel in row major order. The
+     * returned array is shared and must not be modified.
+     * @return the optical depths of the kernel in row major order
+     */
+    public float[] getDepths() {
+        return depths;
+    }
+}
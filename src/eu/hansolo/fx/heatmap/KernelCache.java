@@ -0,0 +1,111 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import java.util.Arrays;
+
+
+/**
+ * A bounded least recently used cache for kernels. The kernels are keyed
+ * by the ordinal of their opacity distribution and their radius quantized
+ * to 1/16 of a pixel which are packed into a primitive long, so looking up
+ * a kernel neither builds a String nor boxes a key. The cache is small
+ * (a few dozen radii in practice) so the slots are searched linearly
+ * which is faster than hashing for this size and needs no allocation.
+ */
+public class KernelCache {
+    public static final int   DEFAULT_CAPACITY = 64;
+    public static final int   RADIUS_STEPS     = 16;
+    private static final long NO_KEY           = -1L;
+    private final long[]      keys;
+    private final long[]      lastUsed;
+    private final Kernel[]    kernels;
+    private long              clock;
+    private int               lastIndex;
+
+
+    // ******************** Constructors **************************************
+    public KernelCache() {
+        this(DEFAULT_CAPACITY);
+    }
+    public KernelCache(final int CAPACITY) {
+        if (CAPACITY < 1) { throw new IllegalArgumentException("Capacity must be at least 1"); }
+        keys      = new long[CAPACITY];
+        lastUsed  = new long[CAPACITY];
+        kernels   = new Kernel[CAPACITY];
+        clock     = 0;
+        lastIndex = 0;
+        Arrays.fill(keys, NO_KEY);
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Returns the kernel for the given radius and opacity distribution.
+     * If the kernel is not in the cache it will be created and replaces
+     * the least recently used kernel if the cache is full.
+     * @param RADIUS
+     * @param OPACITY_DISTRIBUTION
+     * @return the kernel for the given radius and opacity distribution
+     */
+    public synchronized Kernel get(final double RADIUS, final OpacityDistribution OPACITY_DISTRIBUTION) {
+        final long QUANTIZED_RADIUS = quantize(RADIUS);
+        final long KEY              = ((long) OPACITY_DISTRIBUTION.ordinal() << 32) | QUANTIZED_RADIUS;
+        clock++;
+        if (keys[lastIndex] == KEY) {
+            lastUsed[lastIndex] = clock;
+            return kernels[lastIndex];
+        }
+        int eldest = 0;
+        for (int i = 0 ; i < keys.length ; i++) {
+            if (keys[i] == KEY) {
+                lastUsed[i] = clock;
+                lastIndex   = i;
+                return kernels[i];
+            }
+            if (lastUsed[i] < lastUsed[eldest]) { eldest = i; }
+        }
+        keys[eldest]     = KEY;
+        lastUsed[eldest] = clock;
+        kernels[eldest]  = Kernel.create((double) QUANTIZED_RADIUS / RADIUS_STEPS, OPACITY_DISTRIBUTION);
+        lastIndex        = eldest;
+        return kernels[eldest];
+    }
+
+    /**
+     * Removes all kernels from the cache
+     */
+    public synchronized void clear() {
+        Arrays.fill(keys, NO_KEY);
+        Arrays.fill(lastUsed, 0);
+        Arrays.fill(kernels, null);
+        clock     = 0;
+        lastIndex = 0;
+    }
+
+    public int getCapacity() {
+        return keys.length;
+    }
+
+    /**
+     * Returns the given radius quantized to 1/16 of a pixel, radii smaller
+     * than 1 will be treated as 1
+     * @param RADIUS
+     * @return the given radius in 1/16 of a pixel
+     */
+    public static long quantize(final double RADIUS) {
+        return Math.round((RADIUS < 1 ? 1 : RADIUS) * RADIUS_STEPS);
+    }
+}
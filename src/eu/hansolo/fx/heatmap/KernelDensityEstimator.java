@@ -0,0 +1,411 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * Computes a kernel density estimation of weighted events. Instead of
+ * stamping a kernel per event the events are only binned into a grid of
+ * cells (each event is split between its four nearest cells) and the
+ * binned grid is convolved once with a separable kernel when the
+ * estimation is needed. So adding an event costs a constant time and an
+ * estimation costs O(width * height * radius) (or O(width * height) with
+ * FAST_GAUSSIAN), independent of the number of events.
+ * The binned grid extends the estimated area by a margin on each side,
+ * so events that are outside of the area but whose kernel reaches into
+ * it are taken into account as long as the radius is not greater than
+ * the margin. The radius, the kernel and the margin could be changed at
+ * any time without binning the events again.
+ * The estimation is scaled so that the center of a single event with a
+ * weight of 1 has the same depth as the center of a stamped event, so it
+ * could be colorized with any normalization of a DensityGrid.
+ */
+public class KernelDensityEstimator {
+    private static final float PEAK_DEPTH  = Kernel.toDepth(0.9);
+    private static final int   NO_OF_BOXES = 3;
+    private static final float MIN_SCALE   = 1e-6f;
+    private int                width;
+    private int                height;
+    private int                margin;
+    private int                binWidth;
+    private int                binHeight;
+    private float[]            bins;
+    private float[]            buffer;
+    private float[]            result;
+    private boolean[]          occupiedRows;
+    private float              scale;
+    private DensityKernel      densityKernel;
+    private double             radius;
+    private boolean            dirty;
+
+
+    // ******************** Constructors **************************************
+    /**
+     * Creates an estimator for an area of the given size
+     * @param WIDTH
+     * @param HEIGHT
+     * @param MARGIN the number of cells the binned grid extends the area on each side
+     */
+    public KernelDensityEstimator(final int WIDTH, final int HEIGHT, final int MARGIN) {
+        if (MARGIN < 0) { throw new IllegalArgumentException("Margin must not be negative"); }
+        margin        = MARGIN;
+        scale         = 1f;
+        densityKernel = DensityKernel.GAUSSIAN;
+        radius        = 1;
+        dirty         = true;
+        allocate(WIDTH < 0 ? 0 : WIDTH, HEIGHT < 0 ? 0 : HEIGHT);
+    }
+
+
+    // ******************** Methods *******************************************
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getMargin() {
+        return margin;
+    }
+
+    public DensityKernel getDensityKernel() {
+        return densityKernel;
+    }
+    public void setDensityKernel(final DensityKernel DENSITY_KERNEL) {
+        if (null == DENSITY_KERNEL) { throw new IllegalArgumentException("Density kernel must not be null"); }
+        if (DENSITY_KERNEL == densityKernel) { return; }
+        densityKernel = DENSITY_KERNEL;
+        dirty         = true;
+    }
+
+    public double getRadius() {
+        return radius;
+    }
+    /**
+     * Defines the radius of the kernel which is the bandwidth of the
+     * estimation. Radii greater than the margin will ignore events
+     * outside of the margin.
+     * @param RADIUS
+     */
+    public void setRadius(final double RADIUS) {
+        final double RAD = RADIUS < 1 ? 1 : RADIUS;
+        if (RAD == radius) { return; }
+        radius = RAD;
+        dirty  = true;
+    }
+
+    /**
+     * Grows the margin to at least the given number of cells, e.g. if the
+     * radius has been increased. The binned events and their decay will be
+     * preserved, events that have been outside of the old margin have been
+     * ignored and will not be part of the estimation.
+     * @param MARGIN
+     */
+    public void ensureMargin(final int MARGIN) {
+        if (MARGIN <= margin) { return; }
+        final float[]   OLD_BINS       = bins;
+        final boolean[] OLD_OCCUPIED   = occupiedRows;
+        final int       OLD_BIN_WIDTH  = binWidth;
+        final int       OLD_BIN_HEIGHT = binHeight;
+        final int       OFFSET         = MARGIN - margin;
+        margin = MARGIN;
+        allocate(width, height);
+        for (int y = 0 ; y < OLD_BIN_HEIGHT ; y++) {
+            if (!OLD_OCCUPIED[y]) { continue; }
+            System.arraycopy(OLD_BINS, y * OLD_BIN_WIDTH, bins, (y + OFFSET) * binWidth + OFFSET, OLD_BIN_WIDTH);
+            occupiedRows[y + OFFSET] = true;
+        }
+        dirty = true;
+    }
+
+    /**
+     * Returns true if events have been added or the kernel has been changed
+     * since the last estimation
+     * @return true if the estimation is out of date
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Bins an event with the given weight at the given position, events
+     * outside of the area and its margin will be ignored
+     * @param X
+     * @param Y
+     * @param WEIGHT
+     */
+    public void add(final double X, final double Y, final float WEIGHT) {
+        final double BIN_X = X + margin;
+        final double BIN_Y = Y + margin;
+        if (BIN_X <= -1 || BIN_Y <= -1 || BIN_X >= binWidth || BIN_Y >= binHeight || Double.isNaN(BIN_X) || Double.isNaN(BIN_Y)) { return; }
+        final int   LEFT     = (int) Math.floor(BIN_X);
+        final int   TOP      = (int) Math.floor(BIN_Y);
+        final float FRACT_X  = (float) (BIN_X - LEFT);
+        final float FRACT_Y  = (float) (BIN_Y - TOP);
+        final float W        = WEIGHT / scale;
+        final float W_TOP    = W * (1 - FRACT_Y);
+        final float W_BOTTOM = W * FRACT_Y;
+        if (TOP >= 0) {
+            occupiedRows[TOP] = true;
+            if (LEFT >= 0)           { bins[TOP * binWidth + LEFT] += W_TOP * (1 - FRACT_X); }
+            if (LEFT + 1 < binWidth) { bins[TOP * binWidth + LEFT + 1] += W_TOP * FRACT_X; }
+        }
+        if (TOP + 1 < binHeight) {
+            occupiedRows[TOP + 1] = true;
+            if (LEFT >= 0)           { bins[(TOP + 1) * binWidth + LEFT] += W_BOTTOM * (1 - FRACT_X); }
+            if (LEFT + 1 < binWidth) { bins[(TOP + 1) * binWidth + LEFT + 1] += W_BOTTOM * FRACT_X; }
+        }
+        dirty = true;
+    }
+
+    /**
+     * Bins the given events, the signature matches EventIngester.ChunkConsumer
+     * so an estimator could be used as target of an EventIngester
+     * @param XS
+     * @param YS
+     * @param WEIGHTS
+     * @param COUNT the number of valid entries in the arrays
+     */
+    public void add(final double[] XS, final double[] YS, final float[] WEIGHTS, final int COUNT) {
+        for (int i = 0 ; i < COUNT ; i++) { add(XS[i], YS[i], WEIGHTS[i]); }
+    }
+
+    /**
+     * Bins all events of the given store with their weights, the radius
+     * and opacity distribution of the events will be ignored
+     * @param EVENTS
+     */
+    public void add(final EventStore EVENTS) {
+        final int SIZE = EVENTS.size();
+        for (int i = 0 ; i < SIZE ; i++) { add(EVENTS.getX(i), EVENTS.getY(i), EVENTS.getWeight(i)); }
+    }
+
+    /**
+     * Adds the binned events of the given estimator to this estimator
+     * @param ESTIMATOR an estimator with the same size and margin as this estimator
+     */
+    public void add(final KernelDensityEstimator ESTIMATOR) {
+        if (ESTIMATOR.binWidth != binWidth || ESTIMATOR.binHeight != binHeight) { throw new IllegalArgumentException("Estimators differ in size"); }
+        final float WEIGHT = ESTIMATOR.scale / scale;
+        for (int y = 0 ; y < binHeight ; y++) {
+            if (!ESTIMATOR.occupiedRows[y]) { continue; }
+            occupiedRows[y] = true;
+            final int END = (y + 1) * binWidth;
+            for (int i = y * binWidth ; i < END ; i++) { bins[i] += ESTIMATOR.bins[i] * WEIGHT; }
+        }
+        dirty = true;
+    }
+
+    /**
+     * Multiplies the weight of all binned events with the given factor.
+     * Because the estimation is linear this doesn't make the estimation
+     * dirty, the estimated grid could be decayed with the same factor.
+     * @param FACTOR a value between 0 and 1
+     */
+    public void decay(final double FACTOR) {
+        if (FACTOR >= 1) { return; }
+        if (FACTOR <= 0) {
+            clear();
+            return;
+        }
+        scale *= FACTOR;
+        if (scale < MIN_SCALE) {
+            for (int i = 0 ; i < bins.length ; i++) { bins[i] *= scale; }
+            scale = 1f;
+        }
+    }
+
+    /**
+     * Removes all binned events
+     */
+    public void clear() {
+        Arrays.fill(bins, 0f);
+        Arrays.fill(occupiedRows, false);
+        scale = 1f;
+        dirty = true;
+    }
+
+    /**
+     * Changes the size of the estimated area, the binned events in the
+     * overlapping part of the old and the new area will be preserved
+     * @param WIDTH
+     * @param HEIGHT
+     */
+    public void resize(final int WIDTH, final int HEIGHT) {
+        final int NEW_WIDTH  = WIDTH < 0 ? 0 : WIDTH;
+        final int NEW_HEIGHT = HEIGHT < 0 ? 0 : HEIGHT;
+        if (NEW_WIDTH == width && NEW_HEIGHT == height) { return; }
+        final float[]   OLD_BINS      = bins;
+        final boolean[] OLD_OCCUPIED  = occupiedRows;
+        final int       OLD_BIN_WIDTH = binWidth;
+        final int       COPY_W        = Math.min(binWidth, NEW_WIDTH + 2 * margin);
+        final int       COPY_H        = Math.min(binHeight, NEW_HEIGHT + 2 * margin);
+        allocate(NEW_WIDTH, NEW_HEIGHT);
+        for (int y = 0 ; y < COPY_H ; y++) {
+            System.arraycopy(OLD_BINS, y * OLD_BIN_WIDTH, bins, y * binWidth, COPY_W);
+            occupiedRows[y] = OLD_OCCUPIED[y];
+        }
+        dirty = true;
+    }
+
+    /**
+     * Convolves the binned events with the kernel and replaces the density
+     * of the given grid with the result. If a pool is given the rows of
+     * each pass will be processed in parallel.
+     * @param GRID a grid with the same size as the estimated area
+     * @param POOL the pool that should be used or null to use the calling thread
+     */
+    public void estimate(final DensityGrid GRID, final ForkJoinPool POOL) {
+        if (GRID.getWidth() != width || GRID.getHeight() != height) { throw new IllegalArgumentException("Grid differs in size"); }
+        dirty = false;
+        if (0 == width || 0 == height) { return; }
+        if (DensityKernel.FAST_GAUSSIAN == densityKernel) {
+            final int[] RADII = createBoxRadii(radius / 3);
+            double      peak  = 0;
+            for (int i = -(int) radius ; i <= (int) radius ; i++) { peak += densityKernel.weight(i, radius); }
+            final float FACTOR = (float) (peak * peak) * PEAK_DEPTH * scale;
+            RowBands.forEachBand(POOL, 0, binHeight, (FROM_Y, TO_Y) -> blurRows(bins, buffer, RADII[0], FROM_Y, TO_Y));
+            RowBands.forEachBand(POOL, 0, binHeight, (FROM_Y, TO_Y) -> blurRows(buffer, result, RADII[1], FROM_Y, TO_Y));
+            RowBands.forEachBand(POOL, 0, binHeight, (FROM_Y, TO_Y) -> blurRows(result, buffer, RADII[2], FROM_Y, TO_Y));
+            RowBands.forEachBand(POOL, 0, binHeight, (FROM_Y, TO_Y) -> blurColumns(buffer, result, RADII[0], 1f, FROM_Y, TO_Y));
+            RowBands.forEachBand(POOL, 0, binHeight, (FROM_Y, TO_Y) -> blurColumns(result, buffer, RADII[1], 1f, FROM_Y, TO_Y));
+            RowBands.forEachBand(POOL, margin, margin + height, (FROM_Y, TO_Y) -> blurColumns(buffer, result, RADII[2], FACTOR, FROM_Y, TO_Y));
+        } else {
+            final int     SUPPORT = (int) Math.ceil(radius);
+            final float[] WEIGHTS = new float[2 * SUPPORT + 1];
+            for (int i = -SUPPORT ; i <= SUPPORT ; i++) { WEIGHTS[i + SUPPORT] = (float) densityKernel.weight(i, radius); }
+            final float FACTOR = PEAK_DEPTH * scale;
+            RowBands.forEachBand(POOL, 0, binHeight, (FROM_Y, TO_Y) -> convolveRows(WEIGHTS, FROM_Y, TO_Y));
+            RowBands.forEachBand(POOL, margin, margin + height, (FROM_Y, TO_Y) -> convolveColumns(WEIGHTS, FACTOR, FROM_Y, TO_Y));
+        }
+        GRID.setData(result, margin * binWidth + margin, binWidth);
+    }
+
+    private void allocate(final int WIDTH, final int HEIGHT) {
+        width        = WIDTH;
+        height       = HEIGHT;
+        binWidth     = WIDTH + 2 * margin;
+        binHeight    = HEIGHT + 2 * margin;
+        bins         = new float[binWidth * binHeight];
+        buffer       = new float[bins.length];
+        result       = new float[bins.length];
+        occupiedRows = new boolean[binHeight];
+    }
+
+    /**
+     * Convolves each row of the bins with the given weights into the buffer,
+     * the weights of each bin are scattered so empty bins cost nothing
+     */
+    private void convolveRows(final float[] WEIGHTS, final int FROM_Y, final int TO_Y) {
+        final int SUPPORT = WEIGHTS.length / 2;
+        for (int y = FROM_Y ; y < TO_Y ; y++) {
+            final int ROW = y * binWidth;
+            Arrays.fill(buffer, ROW, ROW + binWidth, 0f);
+            if (!occupiedRows[y]) { continue; }
+            for (int x = 0 ; x < binWidth ; x++) {
+                final float VALUE = bins[ROW + x];
+                if (0f == VALUE) { continue; }
+                final int MIN_X = Math.max(0, x - SUPPORT);
+                final int MAX_X = Math.min(binWidth - 1, x + SUPPORT);
+                int       k     = MIN_X - x + SUPPORT;
+                for (int i = ROW + MIN_X ; i <= ROW + MAX_X ; i++) { buffer[i] += VALUE * WEIGHTS[k++]; }
+            }
+        }
+    }
+
+    /**
+     * Convolves the columns of the buffer with the given weights into the
+     * result by adding up whole rows, rows without events will be skipped
+     */
+    private void convolveColumns(final float[] WEIGHTS, final float FACTOR, final int FROM_Y, final int TO_Y) {
+        final int SUPPORT = WEIGHTS.length / 2;
+        for (int y = FROM_Y ; y < TO_Y ; y++) {
+            final int ROW = y * binWidth;
+            Arrays.fill(result, ROW, ROW + binWidth, 0f);
+            final int MIN_Y = Math.max(0, y - SUPPORT);
+            final int MAX_Y = Math.min(binHeight - 1, y + SUPPORT);
+            for (int sourceY = MIN_Y ; sourceY <= MAX_Y ; sourceY++) {
+                if (!occupiedRows[sourceY]) { continue; }
+                final float WEIGHT = WEIGHTS[sourceY - y + SUPPORT] * FACTOR;
+                final int   OFFSET = (sourceY - y) * binWidth;
+                for (int i = ROW + margin ; i < ROW + margin + width ; i++) { result[i] += buffer[i + OFFSET] * WEIGHT; }
+            }
+        }
+    }
+
+    /**
+     * Blurs each row of the source with a box of the given radius into the target
+     */
+    private void blurRows(final float[] SOURCE, final float[] TARGET, final int BOX_RADIUS, final int FROM_Y, final int TO_Y) {
+        final float NORM = 1f / (2 * BOX_RADIUS + 1);
+        for (int y = FROM_Y ; y < TO_Y ; y++) {
+            final int ROW = y * binWidth;
+            double    sum = 0;
+            for (int x = 0 ; x < Math.min(BOX_RADIUS, binWidth) ; x++) { sum += SOURCE[ROW + x]; }
+            for (int x = 0 ; x < binWidth ; x++) {
+                if (x + BOX_RADIUS < binWidth) { sum += SOURCE[ROW + x + BOX_RADIUS]; }
+                TARGET[ROW + x] = (float) sum * NORM;
+                if (x - BOX_RADIUS >= 0) { sum -= SOURCE[ROW + x - BOX_RADIUS]; }
+            }
+        }
+    }
+
+    /**
+     * Blurs the columns of the source with a box of the given radius into
+     * the target by keeping a running sum of whole rows
+     */
+    private void blurColumns(final float[] SOURCE, final float[] TARGET, final int BOX_RADIUS, final float FACTOR, final int FROM_Y, final int TO_Y) {
+        final float    NORM = FACTOR / (2 * BOX_RADIUS + 1);
+        final double[] SUMS = new double[binWidth];
+        for (int y = Math.max(0, FROM_Y - BOX_RADIUS) ; y < Math.min(binHeight, FROM_Y + BOX_RADIUS) ; y++) {
+            for (int x = 0 ; x < binWidth ; x++) { SUMS[x] += SOURCE[y * binWidth + x]; }
+        }
+        for (int y = FROM_Y ; y < TO_Y ; y++) {
+            final int ADDED   = y + BOX_RADIUS;
+            final int REMOVED = y - BOX_RADIUS;
+            final int ROW     = y * binWidth;
+            if (ADDED < binHeight) {
+                for (int x = 0 ; x < binWidth ; x++) { SUMS[x] += SOURCE[ADDED * binWidth + x]; }
+            }
+            for (int x = 0 ; x < binWidth ; x++) { TARGET[ROW + x] = (float) SUMS[x] * NORM; }
+            if (REMOVED >= 0) {
+                for (int x = 0 ; x < binWidth ; x++) { SUMS[x] -= SOURCE[REMOVED * binWidth + x]; }
+            }
+        }
+    }
+
+    /**
+     * Returns the radii of the boxes whose consecutive application has
+     * about the same variance as a gaussian with the given standard deviation
+     * @param SIGMA
+     * @return the radii of the boxes
+     */
+    private static int[] createBoxRadii(final double SIGMA) {
+        final double IDEAL_WIDTH = Math.sqrt(12 * SIGMA * SIGMA / NO_OF_BOXES + 1);
+        int          lowerWidth  = (int) Math.floor(IDEAL_WIDTH);
+        if (lowerWidth % 2 == 0) { lowerWidth--; }
+        final int    UPPER_WIDTH = lowerWidth + 2;
+        final double IDEAL_LOWER = (12 * SIGMA * SIGMA - NO_OF_BOXES * lowerWidth * lowerWidth - 4 * NO_OF_BOXES * lowerWidth - 3 * NO_OF_BOXES) / (-4 * lowerWidth - 4);
+        final long   NO_OF_LOWER = Math.round(IDEAL_LOWER);
+        final int[]  RADII       = new int[NO_OF_BOXES];
+        for (int i = 0 ; i < NO_OF_BOXES ; i++) { RADII[i] = ((i < NO_OF_LOWER ? lowerWidth : UPPER_WIDTH) - 1) / 2; }
+        return RADII;
+    }
+}
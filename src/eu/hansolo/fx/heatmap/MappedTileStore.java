@@ -0,0 +1,275 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * A tile store that keeps the tiles in a memory mapped file, so the
+ * density of maps that are larger than the heap (e.g. 50000 x 30000
+ * pixels which need 6 GB) will be paged in by the operating system on
+ * demand. The file contains a header, a table with the max density of
+ * each tile and the tiles, each tile stored as one contiguous block of
+ * floats. The file is created sparse, so tiles that have never been
+ * touched don't use any disk space. A bounded number of recently used
+ * tiles is kept on the heap as DensityGrid and will be written back to
+ * the file when it is evicted or when flush() is called. Because the
+ * file is persistent a store could be opened again after a restart and
+ * will contain the density that has been flushed before.
+ * The store is not thread safe.
+ */
+public class MappedTileStore implements TileStore, Closeable {
+    public static final int                          DEFAULT_CACHE_CAPACITY = 64;
+    private static final int                         MAGIC                  = 0x484D5453; // HMTS
+    private static final int                         VERSION                = 1;
+    private static final int                         HEADER_SIZE            = 64;
+    private static final int                         ALIGNMENT              = 4096;
+    private static final long                        MAX_SEGMENT_SIZE       = 1L << 30;
+    private static final float                       EMPTY                  = -1f;
+    private final int                                width;
+    private final int                                height;
+    private final int                                tileSize;
+    private final int                                noOfTilesX;
+    private final int                                noOfTiles;
+    private final long                               tileBytes;
+    private final long                               dataOffset;
+    private final int                                tilesPerSegment;
+    private final FileChannel                        channel;
+    private final MappedByteBuffer                   table;
+    private final MappedByteBuffer[]                 segments;
+    private final float[]                            tileMax;
+    private final LinkedHashMap<Integer, CachedTile> cache;
+    private int                                      cacheCapacity;
+
+
+    // ******************** Constructors **************************************
+    /**
+     * Opens the store in the given file or creates it if the file does not
+     * exist. An existing file must have been created with the same size.
+     * @param FILE
+     * @param WIDTH
+     * @param HEIGHT
+     * @param TILE_SIZE
+     * @throws IOException
+     */
+    public MappedTileStore(final Path FILE, final int WIDTH, final int HEIGHT, final int TILE_SIZE) throws IOException {
+        this(FILE, WIDTH, HEIGHT, TILE_SIZE, DEFAULT_CACHE_CAPACITY);
+    }
+    public MappedTileStore(final Path FILE, final int WIDTH, final int HEIGHT, final int TILE_SIZE, final int CACHE_CAPACITY) throws IOException {
+        if (WIDTH <= 0 || HEIGHT <= 0) { throw new IllegalArgumentException("Width and height must be greater than 0"); }
+        if (TILE_SIZE < 2 || Integer.bitCount(TILE_SIZE) != 1) { throw new IllegalArgumentException("Tile size must be a power of two"); }
+        if (CACHE_CAPACITY < 4) { throw new IllegalArgumentException("Cache capacity must be at least 4"); }
+        width           = WIDTH;
+        height          = HEIGHT;
+        tileSize        = TILE_SIZE;
+        noOfTilesX      = (WIDTH + TILE_SIZE - 1) / TILE_SIZE;
+        noOfTiles       = noOfTilesX * ((HEIGHT + TILE_SIZE - 1) / TILE_SIZE);
+        tileBytes       = (long) TILE_SIZE * TILE_SIZE * Float.BYTES;
+        dataOffset      = align(HEADER_SIZE + (long) noOfTiles * Float.BYTES);
+        tilesPerSegment = (int) Math.max(1, MAX_SEGMENT_SIZE / tileBytes);
+        channel         = FileChannel.open(FILE, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.SPARSE);
+        segments        = new MappedByteBuffer[(noOfTiles + tilesPerSegment - 1) / tilesPerSegment];
+        tileMax         = new float[noOfTiles];
+        cacheCapacity   = CACHE_CAPACITY;
+        cache           = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(final Map.Entry<Integer, CachedTile> ELDEST) {
+                if (size() <= cacheCapacity) { return false; }
+                writeBack(ELDEST.getKey(), ELDEST.getValue());
+                return true;
+            }
+        };
+        try {
+            final boolean CREATE = 0 == channel.size();
+            if (CREATE) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(WIDTH).putInt(HEIGHT).putInt(TILE_SIZE).flip();
+                channel.write(header, 0);
+                Arrays.fill(tileMax, EMPTY);
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                channel.read(header, 0);
+                header.flip();
+                if (header.remaining() < 20 || header.getInt() != MAGIC || header.getInt() != VERSION) { throw new IOException("File is not a heat map tile store: " + FILE); }
+                if (header.getInt() != WIDTH || header.getInt() != HEIGHT || header.getInt() != TILE_SIZE) { throw new IOException("Size of tile store does not match: " + FILE); }
+            }
+            table = channel.map(MapMode.READ_WRITE, HEADER_SIZE, (long) noOfTiles * Float.BYTES);
+            table.order(ByteOrder.LITTLE_ENDIAN);
+            if (CREATE) {
+                table.asFloatBuffer().put(tileMax);
+            } else {
+                table.asFloatBuffer().get(tileMax);
+            }
+        } catch (IOException | RuntimeException exception) {
+            channel.close();
+            throw exception;
+        }
+    }
+
+
+    // ******************** Methods *******************************************
+    @Override public int getWidth() {
+        return width;
+    }
+
+    @Override public int getHeight() {
+        return height;
+    }
+
+    @Override public int getTileSize() {
+        return tileSize;
+    }
+
+    @Override public DensityGrid getTile(final int TILE_X, final int TILE_Y) {
+        final int INDEX = index(TILE_X, TILE_Y);
+        if (INDEX < 0 || (EMPTY == tileMax[INDEX] && !cache.containsKey(INDEX))) { return null; }
+        return load(INDEX).grid;
+    }
+
+    @Override public DensityGrid getOrCreateTile(final int TILE_X, final int TILE_Y) {
+        final int INDEX = index(TILE_X, TILE_Y);
+        if (INDEX < 0) { throw new IllegalArgumentException("Tile is outside of the map"); }
+        return load(INDEX).grid;
+    }
+
+    @Override public void markModified(final int TILE_X, final int TILE_Y) {
+        final int        INDEX  = index(TILE_X, TILE_Y);
+        final CachedTile CACHED = cache.get(INDEX);
+        if (null == CACHED) { return; }
+        CACHED.modified = true;
+        tileMax[INDEX]  = CACHED.grid.getMax();
+    }
+
+    /**
+     * Increases the number of tiles that are kept on the heap if it is
+     * lower than the given number of tiles, the capacity will never shrink
+     * @param NO_OF_TILES
+     */
+    @Override public void ensureCapacity(final int NO_OF_TILES) {
+        if (NO_OF_TILES > cacheCapacity) { cacheCapacity = NO_OF_TILES; }
+    }
+
+    @Override public float getMax() {
+        float max = 0;
+        for (float value : tileMax) { if (value > max) { max = value; } }
+        return max;
+    }
+
+    /**
+     * Removes all tiles. The tiles will be marked as empty in the file, the
+     * space of the file will be reused by new tiles.
+     */
+    @Override public void clear() {
+        cache.clear();
+        Arrays.fill(tileMax, EMPTY);
+        table.asFloatBuffer().put(tileMax);
+    }
+
+    /**
+     * Writes all modified tiles that are on the heap back to the file and
+     * forces the changes to the storage device
+     */
+    public void flush() {
+        cache.forEach(this::writeBack);
+        table.asFloatBuffer().put(tileMax);
+        table.force();
+        for (MappedByteBuffer segment : segments) { if (null != segment) { segment.force(); } }
+    }
+
+    /**
+     * Flushes the store and closes the file
+     * @throws IOException
+     */
+    @Override public void close() throws IOException {
+        flush();
+        cache.clear();
+        channel.close();
+    }
+
+    private CachedTile load(final int INDEX) {
+        CachedTile cached = cache.get(INDEX);
+        if (null != cached) { return cached; }
+        final float[] DATA = new float[tileSize * tileSize];
+        if (EMPTY != tileMax[INDEX]) { tileBuffer(INDEX).get(DATA); }
+        cached = new CachedTile(new DensityGrid(tileSize, tileSize, DATA));
+        cache.put(INDEX, cached);
+        return cached;
+    }
+
+    private void writeBack(final int INDEX, final CachedTile CACHED) {
+        if (!CACHED.modified) { return; }
+        tileBuffer(INDEX).put(CACHED.grid.getData());
+        table.putFloat(INDEX * Float.BYTES, tileMax[INDEX]);
+        CACHED.modified = false;
+    }
+
+    /**
+     * Returns a float view of the given tile in the mapped file, the segment
+     * that contains the tile will be mapped on first access
+     * @param INDEX
+     * @return a float view of the given tile
+     */
+    private FloatBuffer tileBuffer(final int INDEX) {
+        final int SEGMENT = INDEX / tilesPerSegment;
+        if (null == segments[SEGMENT]) {
+            final int FIRST_TILE  = SEGMENT * tilesPerSegment;
+            final int NO_OF_TILES = Math.min(tilesPerSegment, noOfTiles - FIRST_TILE);
+            try {
+                segments[SEGMENT] = channel.map(MapMode.READ_WRITE, dataOffset + FIRST_TILE * tileBytes, NO_OF_TILES * tileBytes);
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        }
+        final ByteBuffer TILE  = segments[SEGMENT].duplicate();
+        final int        START = (int) ((INDEX % tilesPerSegment) * tileBytes);
+        TILE.position(START).limit(START + (int) tileBytes);
+        return TILE.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    }
+
+    private int index(final int TILE_X, final int TILE_Y) {
+        if (TILE_X < 0 || TILE_Y < 0 || TILE_X >= noOfTilesX) { return -1; }
+        final int INDEX = TILE_Y * noOfTilesX + TILE_X;
+        return INDEX < noOfTiles ? INDEX : -1;
+    }
+
+    private static long align(final long OFFSET) {
+        return (OFFSET + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private static class CachedTile {
+        private final DensityGrid grid;
+        private boolean           modified;
+
+        CachedTile(final DensityGrid GRID) {
+            grid     = GRID;
+            modified = false;
+        }
+    }
+}
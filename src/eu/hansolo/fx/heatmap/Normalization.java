@@ -0,0 +1,29 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+/**
+ * Defines how the accumulated density will be mapped to the colors of
+ * the color mapping.
+ * COMPOSITE maps the density like events that are drawn on top of each
+ * other (1 - exp(-density)) which saturates after a few events.
+ * The other normalizations map the density linearly to the colors where
+ * the given reference density maps to the last color. MAX uses the max
+ * density of the grid, PERCENTILE the density at the given percentile
+ * (which clips a few very hot spots) and FIXED a given density.
+ */
+public enum Normalization {
+    COMPOSITE, MAX, PERCENTILE, FIXED
+}
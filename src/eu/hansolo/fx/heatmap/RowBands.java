@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Splits the rows of a grid into bands which will be processed in
+ * parallel on a ForkJoinPool, used by DensityGrid and
+ * KernelDensityEstimator.
+ */
+final class RowBands {
+    static final int MIN_BAND_HEIGHT = 16;
+
+
+    // ******************** Constructors **************************************
+    private RowBands() {}
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Processes the rows from FROM_Y (inclusive) to TO_Y (exclusive) either
+     * directly or split into bands on the given pool
+     * @param POOL the pool that should be used or null to use the calling thread
+     * @param FROM_Y
+     * @param TO_Y
+     * @param BAND
+     */
+    static void forEachBand(final ForkJoinPool POOL, final int FROM_Y, final int TO_Y, final Band BAND) {
+        if (null == POOL || TO_Y - FROM_Y <= MIN_BAND_HEIGHT) {
+            BAND.process(FROM_Y, TO_Y);
+        } else {
+            int bandHeight = Math.max(MIN_BAND_HEIGHT, (TO_Y - FROM_Y) / (POOL.getParallelism() * 2));
+            POOL.invoke(new BandTask(BAND, FROM_Y, TO_Y, bandHeight));
+        }
+    }
+
+
+    // ******************** Inner Classes *************************************
+    @FunctionalInterface interface Band {
+        void process(int fromY, int toY);
+    }
+
+    private static class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final transient Band band;
+        private final int            fromY;
+        private final int            toY;
+        private final int            bandHeight;
+
+        BandTask(final Band BAND, final int FROM_Y, final int TO_Y, final int BAND_HEIGHT) {
+            band       = BAND;
+            fromY      = FROM_Y;
+            toY        = TO_Y;
+            bandHeight = BAND_HEIGHT;
+        }
+
+        @Override protected void compute() {
+            if (toY - fromY <= bandHeight) {
+                band.process(fromY, toY);
+            } else {
+                int middle = (fromY + toY) >>> 1;
+                invokeAll(new BandTask(band, fromY, middle, bandHeight), new BandTask(band, middle, toY, bandHeight));
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+/**
+ * Defines the curve that maps the normalized density (density / reference
+ * in the range of 0 - 1) to the colors of the color mapping if the
+ * normalization is not COMPOSITE. SQRT and LOG stretch the low densities
+ * so that spots with a few events stay visible next to very hot spots,
+ * LOG covers a range of three decades.
+ */
+public enum Scaling {
+    LINEAR, SQRT, LOG;
+
+    private static final double LOG_RANGE = 1000;
+
+    /**
+     * Maps the given normalized density to the range of 0 - 1
+     * @param VALUE the normalized density in the range of 0 - 1
+     * @return the scaled value in the range of 0 - 1
+     */
+    public double apply(final double VALUE) {
+        final double CLAMPED = VALUE < 0 ? 0 : VALUE > 1 ? 1 : VALUE;
+        if (SQRT == this) {
+            return Math.sqrt(CLAMPED);
+        } else if (LOG == this) {
+            return Math.log1p(CLAMPED * LOG_RANGE) / Math.log1p(LOG_RANGE);
+        } else {
+            return CLAMPED;
+        }
+    }
+}
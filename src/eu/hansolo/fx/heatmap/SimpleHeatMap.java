@@ -16,21 +16,20 @@
 
 package eu.hansolo.fx.heatmap;
 
-import javafx.animation.Interpolator;
 import javafx.geometry.Point2D;
-import javafx.scene.SnapshotParameters;
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
-import javafx.scene.image.PixelReader;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.PixelWriter;
 import javafx.scene.image.WritableImage;
+import javafx.scene.image.WritablePixelFormat;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.LinearGradient;
-import javafx.scene.paint.Stop;
 
+import java.nio.IntBuffer;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 
 /**
@@ -40,18 +39,20 @@ import java.util.List;
  * Time: 07:49
  */
 public class SimpleHeatMap {
-    private static final SnapshotParameters SNAPSHOT_PARAMETERS = new SnapshotParameters();
+    private static final WritablePixelFormat<IntBuffer> PIXEL_FORMAT = PixelFormat.getIntArgbInstance();
+    private Map<Image, Kernel>  imageKernels;
     private ColorMapping        colorMapping;
     private LinearGradient      mappingGradient;
+    private int[]               colorLookupTable;
     private boolean             fadeColors;
     private double              radius;
     private OpacityDistribution opacityDistribution;
-    private Image               eventImage;
-    private Canvas              monochromeCanvas;
-    private GraphicsContext     ctx;
-    private WritableImage       monochromeImage;
+    private Kernel              eventKernel;
+    private DensityGrid         densityGrid;
     private WritableImage       heatMap;
     private ImageView           heatMapView;
+    private int[]               heatMapPixels;
+    private boolean             fullUpdate;
 
 
     // ******************** Constructors **************************************
@@ -65,16 +66,17 @@ public class SimpleHeatMap {
         this(WIDTH, HEIGHT, COLOR_MAPPING, EVENT_RADIUS, true);
     }
     public SimpleHeatMap(final double WIDTH, final double HEIGHT, ColorMapping COLOR_MAPPING, final double EVENT_RADIUS, final boolean FADE_COLORS) {
-        SNAPSHOT_PARAMETERS.setFill(Color.TRANSPARENT);
+        imageKernels        = new WeakHashMap<>();
         colorMapping        = COLOR_MAPPING;
         mappingGradient     = colorMapping.mapping;
+        colorLookupTable    = colorMapping.lookupTable;
         fadeColors          = FADE_COLORS;
         radius              = EVENT_RADIUS;
         opacityDistribution = OpacityDistribution.CUSTOM;
-        eventImage          = createEventImage(radius, opacityDistribution);
-        monochromeCanvas    = new Canvas(WIDTH, HEIGHT);
-        ctx                 = monochromeCanvas.getGraphicsContext2D();
-        monochromeImage     = new WritableImage((int) WIDTH, (int) HEIGHT);
+        densityGrid         = new DensityGrid((int) WIDTH, (int) HEIGHT);
+        eventKernel         = densityGrid.getKernel(radius, opacityDistribution);
+        heatMapPixels       = new int[0];
+        fullUpdate          = true;
         heatMapView         = new ImageView(heatMap);
         heatMapView.setMouseTransparent(true);
         heatMapView.setOpacity(0.5);
@@ -87,29 +89,29 @@ public class SimpleHeatMap {
     }
 
     public void addEvent(final double X, final double Y, final Image EVENT_IMAGE, final double OFFSET_X, final double OFFSET_Y) {
-        ctx.drawImage(EVENT_IMAGE, X - OFFSET_X, Y - OFFSET_Y);
+        densityGrid.stamp(imageKernels.computeIfAbsent(EVENT_IMAGE, SimpleHeatMap::createKernel), X - OFFSET_X, Y - OFFSET_Y, 1f);
         updateHeatMap();
     }
     public void addEvent(final double X, final double Y) {
-        addEvent(X, Y, eventImage, radius, radius);
+        densityGrid.stamp(eventKernel, X - radius, Y - radius, 1f);
+        updateHeatMap();
     }
 
     public void addEvents(final Point2D... EVENTS) {
         for (Point2D event : EVENTS) {
-            ctx.drawImage(eventImage, event.getX() - radius, event.getY() - radius);
+            densityGrid.stamp(eventKernel, event.getX() - radius, event.getY() - radius, 1f);
         }
         updateHeatMap();
     }
     public void addEvents(final List<Point2D> EVENTS) {
         for (Point2D event : EVENTS) {
-            ctx.drawImage(eventImage, event.getX() - radius, event.getY() - radius);
+            densityGrid.stamp(eventKernel, event.getX() - radius, event.getY() - radius, 1f);
         }
         updateHeatMap();
     }
 
     public void clearHeatMap() {
-        ctx.clearRect(0, 0, monochromeCanvas.getWidth(), monochromeCanvas.getHeight());
-        monochromeImage = new WritableImage(monochromeCanvas.widthProperty().intValue(), monochromeCanvas.heightProperty().intValue());
+        densityGrid.clear();
         updateHeatMap();
     }
 
@@ -125,8 +127,20 @@ public class SimpleHeatMap {
         return colorMapping;
     }
     public void setColorMapping(final ColorMapping COLOR_MAPPING) {
-        colorMapping    = COLOR_MAPPING;
-        mappingGradient = COLOR_MAPPING.mapping;
+        colorMapping     = COLOR_MAPPING;
+        mappingGradient  = COLOR_MAPPING.mapping;
+        colorLookupTable = COLOR_MAPPING.lookupTable;
+        fullUpdate       = true;
+        updateHeatMap();
+    }
+
+    public LinearGradient getMappingGradient() {
+        return mappingGradient;
+    }
+    public void setMappingGradient(final LinearGradient GRADIENT) {
+        mappingGradient  = GRADIENT;
+        colorLookupTable = Helper.createColorLookupTable(GRADIENT);
+        fullUpdate       = true;
         updateHeatMap();
     }
 
@@ -135,6 +149,7 @@ public class SimpleHeatMap {
     }
     public void setFadeColors(final boolean FADE_COLORS) {
         fadeColors = FADE_COLORS;
+        fullUpdate = true;
         updateHeatMap();
     }
 
@@ -142,8 +157,8 @@ public class SimpleHeatMap {
         return radius;
     }
     public void setEventRadius(final double RADIUS) {
-        radius     = RADIUS < 1 ? 1 : RADIUS;
-        eventImage = createEventImage(radius, opacityDistribution);
+        radius      = RADIUS < 1 ? 1 : RADIUS;
+        eventKernel = densityGrid.getKernel(radius, opacityDistribution);
     }
 
     public OpacityDistribution getOpacityDistribution() {
@@ -151,79 +166,63 @@ public class SimpleHeatMap {
     }
     public void setOpacityDistribution(final OpacityDistribution OPACITY_DISTRIBUTION) {
         opacityDistribution = OPACITY_DISTRIBUTION;
-        eventImage          = createEventImage(radius, opacityDistribution);
+        eventKernel         = densityGrid.getKernel(radius, opacityDistribution);
     }
 
     public void setSize(final double WIDTH, final double HEIGHT) {
-        monochromeCanvas.setWidth(WIDTH);
-        monochromeCanvas.setHeight(HEIGHT);
         if (WIDTH > 0 && HEIGHT > 0) {
-            monochromeImage = new WritableImage(monochromeCanvas.widthProperty().intValue(), monochromeCanvas.heightProperty().intValue());
+            densityGrid.resize((int) WIDTH, (int) HEIGHT);
             updateHeatMap();
         }
     }
 
     public Image createEventImage(final double RADIUS, final OpacityDistribution OPACITY_DISTRIBUTION) {
         radius = RADIUS < 1 ? 1 : RADIUS;
-        Stop[] stops = new Stop[11];
-        for (int i = 0 ; i < 11 ; i++) {
-            stops[i] = new Stop(i * 0.1, Color.rgb(255, 255, 255, OPACITY_DISTRIBUTION.distribution[i]));
-        }
-        int           size          = (int) (radius * 2);
-        WritableImage raster        = new WritableImage(size, size);
-        PixelWriter   pixelWriter   = raster.getPixelWriter();
-        double        maxDistFactor = 1 / radius;
-        Color         pixelColor;
-        for (int y = 0 ; y < size ; y++) {
-            for (int x = 0 ; x < size ; x++) {
-                double distanceX = radius - x;
-                double distanceY = radius - y;
-                double distance  = Math.sqrt((distanceX * distanceX) + (distanceY * distanceY));
-                double fraction  = maxDistFactor * distance;
-                for (int i = 0 ; i < 10 ; i++) {
-                    if (Double.compare(fraction, stops[i].getOffset()) >= 0 && Double.compare(fraction, stops[i + 1].getOffset()) <= 0) {
-                        pixelColor = (Color) Interpolator.LINEAR.interpolate(stops[i].getColor(), stops[i + 1].getColor(), (fraction - stops[i].getOffset()) / 0.1);
-                        pixelWriter.setColor(x, y, pixelColor);
-                        break;
-                    }
-                }
-            }
-        }
+        Kernel        kernel = densityGrid.getKernel(radius, OPACITY_DISTRIBUTION);
+        WritableImage raster = new WritableImage(kernel.getWidth(), kernel.getHeight());
+        raster.getPixelWriter().setPixels(0, 0, kernel.getWidth(), kernel.getHeight(), PIXEL_FORMAT, kernel.toArgb(), 0, kernel.getWidth());
+        imageKernels.put(raster, kernel);
         return raster;
     }
 
-    private void updateHeatMap() {
-        monochromeCanvas.snapshot(SNAPSHOT_PARAMETERS, monochromeImage);
-        heatMap = new WritableImage(monochromeImage.widthProperty().intValue(), monochromeImage.heightProperty().intValue());
-        PixelWriter pixelWriter = heatMap.getPixelWriter();
-        PixelReader pixelReader = monochromeImage.getPixelReader();
-        Color colorFromMonoChromeImage;
-        double brightness;
-        Color mappedColor;
-        for (int y = 0 ; y < monochromeImage.getHeight() ; y++) {
-            for (int x = 0 ; x < monochromeImage.getWidth(); x++) {
-                colorFromMonoChromeImage = pixelReader.getColor(x, y);
-                //brightness = computeLuminance(colorFromMonoChromeImage.getRed(), colorFromMonoChromeImage.getGreen(), colorFromMonoChromeImage.getBlue());
-                //brightness = computeBrightness(colorFromMonoChromeImage.getRed(), colorFromMonoChromeImage.getGreen(), colorFromMonoChromeImage.getBlue());
-                brightness = computeBrightnessFast(colorFromMonoChromeImage.getRed(), colorFromMonoChromeImage.getGreen(), colorFromMonoChromeImage.getBlue());
-                mappedColor = getColorAt(mappingGradient, brightness);
-                if (fadeColors) {
-                    //pixelWriter.setColor(x, y, Color.color(mappedColor.getRed(), mappedColor.getGreen(), mappedColor.getBlue(), brightness));
-                    pixelWriter.setColor(x, y, Color.color(mappedColor.getRed(), mappedColor.getGreen(), mappedColor.getBlue(), colorFromMonoChromeImage.getOpacity()));
-                } else {
-                    pixelWriter.setColor(x, y, mappedColor);
-                }
-            }
-        }
-        heatMapView.setImage(heatMap);
-    }
-
-    private double computeBrightness(final double RED, final double GREEN, final double BLUE) {
-        return  (0.2126 * RED + 0.7152 * GREEN + 0.0722 * BLUE);
+    /**
+     * Creates a kernel from the alpha channel of the given event image
+     * @param EVENT_IMAGE
+     * @return a kernel from the alpha channel of the given event image
+     */
+    private static Kernel createKernel(final Image EVENT_IMAGE) {
+        int   width  = (int) EVENT_IMAGE.getWidth();
+        int   height = (int) EVENT_IMAGE.getHeight();
+        int[] argb   = new int[width * height];
+        EVENT_IMAGE.getPixelReader().getPixels(0, 0, width, height, PIXEL_FORMAT, argb, 0, width);
+        return Kernel.fromArgb(width, height, argb);
     }
 
-    private double computeBrightnessFast(final double RED, final double GREEN, final double BLUE) {
-        return ((RED + RED + BLUE + GREEN + GREEN + GREEN) / 6.0);
+    private void updateHeatMap() {
+        int width  = densityGrid.getWidth();
+        int height = densityGrid.getHeight();
+        if (width <= 0 || height <= 0) { return; }
+        if (null == heatMap || (int) heatMap.getWidth() != width || (int) heatMap.getHeight() != height) {
+            heatMap       = new WritableImage(width, height);
+            heatMapPixels = new int[width * height];
+            fullUpdate    = true;
+        }
+        if (fullUpdate) {
+            densityGrid.markDirty(0, 0, width, height);
+            fullUpdate = false;
+        }
+        if (densityGrid.isDirty()) {
+            int minX = densityGrid.getDirtyMinX();
+            int minY = densityGrid.getDirtyMinY();
+            int maxX = densityGrid.getDirtyMaxX();
+            int maxY = densityGrid.getDirtyMaxY();
+            densityGrid.colorize(colorLookupTable, fadeColors, heatMapPixels, minX, minY, maxX, maxY, null);
+            densityGrid.resetDirtyRegion();
+
+            PixelWriter pixelWriter = heatMap.getPixelWriter();
+            pixelWriter.setPixels(minX, minY, maxX - minX, maxY - minY, PIXEL_FORMAT, heatMapPixels, minY * width + minX, width);
+        }
+        if (heatMapView.getImage() != heatMap) { heatMapView.setImage(heatMap); }
     }
 
     private double computePerceivedBrightness(final double RED, final double GREEN, final double BLUE) {
@@ -233,28 +232,4 @@ public class SimpleHeatMap {
     private double computePerceivedBrightnessFast(final double RED, final double GREEN, final double BLUE) {
         return ((RED + RED + RED  + BLUE + GREEN + GREEN + GREEN + GREEN) * 0.5);
     }
-
-    private double computeLuminance(final double RED, final double GREEN, final double BLUE) {
-        return Math.sqrt(0.241 * (RED * RED) + 0.691 * (GREEN * GREEN) + 0.068 * (BLUE * BLUE));
-    }
-
-    private Color getColorAt(final LinearGradient GRADIENT, final double FRACTION) {
-        double fraction = FRACTION < 0f ? 0f : (FRACTION > 1 ? 1 : FRACTION);
-        List<Stop> stops = GRADIENT.getStops();
-        Stop lowerLimit  = new Stop(0.0, stops.get(0).getColor());
-        Stop upperLimit  = new Stop(1.0, stops.get(stops.size() - 1).getColor());
-
-        for (Stop stop : stops) {
-            if (Double.compare(stop.getOffset(), fraction) < 0) {
-                lowerLimit = new Stop(stop.getOffset(), stop.getColor());
-            } else if (Double.compare(stop.getOffset(), fraction) == 0) {
-                return stop.getColor();
-            } else {
-                upperLimit = new Stop(stop.getOffset(), stop.getColor());
-            }
-        }
-
-        double interpolationFraction = (fraction - lowerLimit.getOffset()) / (upperLimit.getOffset() - lowerLimit.getOffset());
-        return (Color) Interpolator.LINEAR.interpolate(lowerLimit.getColor(), upperLimit.getColor(), interpolationFraction);
-    }
 }
@@ -0,0 +1,507 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import java.util.Arrays;
+
+
+/**
+ * A uniform grid over the events of an EventStore that answers region
+ * queries (number of events, sum of weights) and nearest neighbour
+ * queries without scanning all events. Events outside of the map are
+ * assigned to the cells at the border.
+ * The events are kept in primitive arrays sorted by cell, so the events
+ * of a cell are stored next to each other. Events that are added to the
+ * store later on are appended to a linked list per cell by update() and
+ * will be merged into the sorted arrays once the lists have grown to a
+ * quarter of the sorted events, so updating the index costs amortized
+ * constant time per event. If the store has been cleared the index will
+ * be rebuilt.
+ * For rectangles and circles the number of events and the sum of the
+ * weights of the cells that are completely covered are taken from a
+ * summed-area table over the cells, only the events in the cells at the
+ * border of the region will be tested one by one. Nearest neighbours are
+ * searched in rings of cells around the given position.
+ * The index is not thread safe.
+ */
+public class SpatialIndex {
+    public static final int  DEFAULT_CELL_SIZE = 4;
+    private static final int MIN_TAIL_SIZE     = 1 << 12;
+    private static final int NONE              = -1;
+    private final EventStore store;
+    private final int        width;
+    private final int        height;
+    private final int        cellSize;
+    private final int        noOfCellsX;
+    private final int        noOfCellsY;
+    private final int[]      cellStarts;
+    private final int[]      cellCounts;
+    private final double[]   cellWeights;
+    private final int[]      heads;
+    private final long[]     countTable;
+    private final double[]   weightTable;
+    private boolean          tablesValid;
+    private double[]         xs;
+    private double[]         ys;
+    private float[]          weights;
+    private int[]            indices;
+    private int              packedSize;
+    private int[]            next;
+    private int              size;
+    private int              generation;
+
+
+    // ******************** Constructors **************************************
+    public SpatialIndex(final EventStore STORE, final int WIDTH, final int HEIGHT) {
+        this(STORE, WIDTH, HEIGHT, DEFAULT_CELL_SIZE);
+    }
+    public SpatialIndex(final EventStore STORE, final int WIDTH, final int HEIGHT, final int CELL_SIZE) {
+        if (WIDTH <= 0 || HEIGHT <= 0) { throw new IllegalArgumentException("Width and height must be greater than 0"); }
+        if (CELL_SIZE < 1) { throw new IllegalArgumentException("Cell size must be greater than 0"); }
+        store       = STORE;
+        width       = WIDTH;
+        height      = HEIGHT;
+        cellSize    = CELL_SIZE;
+        noOfCellsX  = (WIDTH + CELL_SIZE - 1) / CELL_SIZE;
+        noOfCellsY  = (HEIGHT + CELL_SIZE - 1) / CELL_SIZE;
+        cellStarts  = new int[noOfCellsX * noOfCellsY + 1];
+        cellCounts  = new int[noOfCellsX * noOfCellsY];
+        cellWeights = new double[cellCounts.length];
+        heads       = new int[cellCounts.length];
+        countTable  = new long[(noOfCellsX + 1) * (noOfCellsY + 1)];
+        weightTable = new double[countTable.length];
+        tablesValid = false;
+        xs          = new double[0];
+        ys          = new double[0];
+        weights     = new float[0];
+        indices     = new int[0];
+        packedSize  = 0;
+        next        = new int[MIN_TAIL_SIZE];
+        size        = 0;
+        generation  = STORE.getGeneration();
+        Arrays.fill(heads, NONE);
+        update();
+    }
+
+
+    // ******************** Methods *******************************************
+    public EventStore getEventStore() {
+        return store;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Returns the number of events that are indexed
+     * @return the number of events that are indexed
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds the events that have been added to the store since the last
+     * update to the index. If the store has been cleared in the meantime
+     * the index will be rebuilt.
+     */
+    public void update() {
+        if (store.getGeneration() != generation || store.size() < size) {
+            generation = store.getGeneration();
+            size       = 0;
+            packedSize = 0;
+            Arrays.fill(cellStarts, 0);
+            Arrays.fill(cellCounts, 0);
+            Arrays.fill(cellWeights, 0);
+            Arrays.fill(heads, NONE);
+        }
+        final int SIZE = store.size();
+        if (SIZE == size) { return; }
+        if (SIZE - packedSize > Math.max(MIN_TAIL_SIZE, packedSize >> 2)) {
+            pack(SIZE);
+        } else {
+            if (SIZE - packedSize > next.length) { next = Arrays.copyOf(next, Math.max(SIZE - packedSize, next.length * 2)); }
+            for (int i = size ; i < SIZE ; i++) {
+                final int CELL = cellIndex(store.getX(i), store.getY(i));
+                next[i - packedSize] = heads[CELL];
+                heads[CELL]          = i;
+                cellCounts[CELL]++;
+                cellWeights[CELL] += store.getWeight(i);
+            }
+        }
+        size        = SIZE;
+        tablesValid = false;
+    }
+
+    /**
+     * Returns the number of events in the given rectangle
+     * @param MIN_X inclusive
+     * @param MIN_Y inclusive
+     * @param MAX_X exclusive
+     * @param MAX_Y exclusive
+     * @return the number of events in the given rectangle
+     */
+    public long count(final double MIN_X, final double MIN_Y, final double MAX_X, final double MAX_Y) {
+        return (long) aggregate(MIN_X, MIN_Y, MAX_X, MAX_Y, false);
+    }
+
+    /**
+     * Returns the sum of the weights of the events in the given rectangle
+     * @param MIN_X inclusive
+     * @param MIN_Y inclusive
+     * @param MAX_X exclusive
+     * @param MAX_Y exclusive
+     * @return the sum of the weights of the events in the given rectangle
+     */
+    public double sumOfWeights(final double MIN_X, final double MIN_Y, final double MAX_X, final double MAX_Y) {
+        return aggregate(MIN_X, MIN_Y, MAX_X, MAX_Y, true);
+    }
+
+    /**
+     * Returns the number of events within the given distance of the given position
+     * @param X
+     * @param Y
+     * @param RADIUS
+     * @return the number of events within the given distance
+     */
+    public long countWithin(final double X, final double Y, final double RADIUS) {
+        return (long) aggregateWithin(X, Y, RADIUS, false);
+    }
+
+    /**
+     * Returns the sum of the weights of the events within the given
+     * distance of the given position
+     * @param X
+     * @param Y
+     * @param RADIUS
+     * @return the sum of the weights of the events within the given distance
+     */
+    public double sumOfWeightsWithin(final double X, final double Y, final double RADIUS) {
+        return aggregateWithin(X, Y, RADIUS, true);
+    }
+
+    /**
+     * Returns the index (in the event store) of the event that is nearest
+     * to the given position, e.g. the event under the mouse cursor
+     * @param X
+     * @param Y
+     * @param MAX_DISTANCE
+     * @return the index of the nearest event or -1 if there is no event within the given distance
+     */
+    public int nearest(final double X, final double Y, final double MAX_DISTANCE) {
+        final int[] NEAREST = nearest(X, Y, 1, MAX_DISTANCE);
+        return 0 == NEAREST.length ? NONE : NEAREST[0];
+    }
+
+    /**
+     * Returns the indices (in the event store) of the K events that are
+     * nearest to the given position sorted by their distance
+     * @param X
+     * @param Y
+     * @param K
+     * @param MAX_DISTANCE
+     * @return the indices of up to K events within the given distance sorted by their distance
+     */
+    public int[] nearest(final double X, final double Y, final int K, final double MAX_DISTANCE) {
+        if (K < 1) { throw new IllegalArgumentException("K must be greater than 0"); }
+        final NearestHeap HEAP     = new NearestHeap(K, MAX_DISTANCE * MAX_DISTANCE);
+        final int         CENTER_X = cellX(X);
+        final int         CENTER_Y = cellY(Y);
+        for (int ring = 0 ; ; ring++) {
+            final int MIN_CX = CENTER_X - ring;
+            final int MAX_CX = CENTER_X + ring;
+            final int MIN_CY = CENTER_Y - ring;
+            final int MAX_CY = CENTER_Y + ring;
+            for (int cy = Math.max(0, MIN_CY) ; cy <= Math.min(noOfCellsY - 1, MAX_CY) ; cy++) {
+                final boolean EDGE_ROW = cy == MIN_CY || cy == MAX_CY;
+                for (int cx = Math.max(0, MIN_CX) ; cx <= Math.min(noOfCellsX - 1, MAX_CX) ; cx++) {
+                    if (EDGE_ROW || cx == MIN_CX || cx == MAX_CX) { collectNearest(cy * noOfCellsX + cx, X, Y, HEAP); }
+                }
+            }
+            // Distance from the position to the cells that have not been searched yet
+            final double BOUND = Math.min(Math.min(MIN_CX <= 0 ? Double.MAX_VALUE : X - MIN_CX * (double) cellSize,
+                                                   MAX_CX >= noOfCellsX - 1 ? Double.MAX_VALUE : (MAX_CX + 1) * (double) cellSize - X),
+                                          Math.min(MIN_CY <= 0 ? Double.MAX_VALUE : Y - MIN_CY * (double) cellSize,
+                                                   MAX_CY >= noOfCellsY - 1 ? Double.MAX_VALUE : (MAX_CY + 1) * (double) cellSize - Y));
+            if (Double.MAX_VALUE == BOUND || BOUND * BOUND >= HEAP.getLimit()) { break; }
+        }
+        return HEAP.toSortedIndices();
+    }
+
+    /**
+     * Returns the number of events or the sum of their weights in the
+     * given rectangle. Cells inside of the rectangle are taken from the
+     * summed-area table, the events of the cells at the border are tested.
+     */
+    private double aggregate(final double MIN_X, final double MIN_Y, final double MAX_X, final double MAX_Y, final boolean WEIGHTED) {
+        if (MAX_X <= MIN_X || MAX_Y <= MIN_Y || 0 == size) { return 0; }
+        final int MIN_CX = cellX(MIN_X);
+        final int MIN_CY = cellY(MIN_Y);
+        final int MAX_CX = cellX(MAX_X);
+        final int MAX_CY = cellY(MAX_Y);
+        double    sum    = MAX_CX - MIN_CX > 1 && MAX_CY - MIN_CY > 1 ? tableSum(MIN_CX + 1, MIN_CY + 1, MAX_CX, MAX_CY, WEIGHTED) : 0;
+        for (int cy = MIN_CY ; cy <= MAX_CY ; cy++) {
+            final boolean EDGE_ROW = cy == MIN_CY || cy == MAX_CY;
+            for (int cx = MIN_CX ; cx <= MAX_CX ; cx++) {
+                if (EDGE_ROW || cx == MIN_CX || cx == MAX_CX) { sum += sumInRect(cy * noOfCellsX + cx, MIN_X, MIN_Y, MAX_X, MAX_Y, WEIGHTED); }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the number of events or the sum of their weights within the
+     * given distance. In each row of cells the run of cells that lies
+     * completely inside of the circle is taken from the summed-area table,
+     * the events of the other cells that touch the circle are tested.
+     */
+    private double aggregateWithin(final double X, final double Y, final double RADIUS, final boolean WEIGHTED) {
+        if (RADIUS < 0 || 0 == size) { return 0; }
+        final double RADIUS2 = RADIUS * RADIUS;
+        final int    MIN_CX  = cellX(X - RADIUS);
+        final int    MAX_CX  = cellX(X + RADIUS);
+        final int    MIN_CY  = cellY(Y - RADIUS);
+        final int    MAX_CY  = cellY(Y + RADIUS);
+        double       sum     = 0;
+        for (int cy = MIN_CY ; cy <= MAX_CY ; cy++) {
+            // Cells at the border of the map may contain events outside of their bounds
+            int insideFrom = Integer.MAX_VALUE;
+            int insideTo   = Integer.MIN_VALUE;
+            if (cy > 0 && cy < noOfCellsY - 1) {
+                final double TOP = cy * (double) cellSize;
+                final double DY  = Math.max(Math.abs(TOP - Y), Math.abs(TOP + cellSize - Y));
+                if (DY <= RADIUS) {
+                    final double HALF_WIDTH = Math.sqrt(RADIUS2 - DY * DY);
+                    insideFrom = Math.max(1, (int) Math.ceil((X - HALF_WIDTH) / cellSize));
+                    insideTo   = Math.min(noOfCellsX - 2, (int) Math.floor((X + HALF_WIDTH) / cellSize) - 1);
+                    if (insideFrom <= insideTo) { sum += tableSum(insideFrom, cy, insideTo + 1, cy + 1, WEIGHTED); }
+                }
+            }
+            for (int cx = MIN_CX ; cx <= MAX_CX ; cx++) {
+                if (cx < insideFrom || cx > insideTo) { sum += sumInCircle(cy * noOfCellsX + cx, X, Y, RADIUS2, WEIGHTED); }
+            }
+        }
+        return sum;
+    }
+
+    private double sumInRect(final int CELL, final double MIN_X, final double MIN_Y, final double MAX_X, final double MAX_Y, final boolean WEIGHTED) {
+        double sum = 0;
+        for (int j = cellStarts[CELL], end = cellStarts[CELL + 1] ; j < end ; j++) {
+            final double X = xs[j];
+            final double Y = ys[j];
+            if (X >= MIN_X && X < MAX_X && Y >= MIN_Y && Y < MAX_Y) { sum += WEIGHTED ? weights[j] : 1; }
+        }
+        for (int i = heads[CELL] ; i != NONE ; i = next[i - packedSize]) {
+            final double X = store.getX(i);
+            final double Y = store.getY(i);
+            if (X >= MIN_X && X < MAX_X && Y >= MIN_Y && Y < MAX_Y) { sum += WEIGHTED ? store.getWeight(i) : 1; }
+        }
+        return sum;
+    }
+
+    private double sumInCircle(final int CELL, final double X, final double Y, final double RADIUS2, final boolean WEIGHTED) {
+        double sum = 0;
+        for (int j = cellStarts[CELL], end = cellStarts[CELL + 1] ; j < end ; j++) {
+            final double DX = xs[j] - X;
+            final double DY = ys[j] - Y;
+            if (DX * DX + DY * DY <= RADIUS2) { sum += WEIGHTED ? weights[j] : 1; }
+        }
+        for (int i = heads[CELL] ; i != NONE ; i = next[i - packedSize]) {
+            final double DX = store.getX(i) - X;
+            final double DY = store.getY(i) - Y;
+            if (DX * DX + DY * DY <= RADIUS2) { sum += WEIGHTED ? store.getWeight(i) : 1; }
+        }
+        return sum;
+    }
+
+    private void collectNearest(final int CELL, final double X, final double Y, final NearestHeap HEAP) {
+        for (int j = cellStarts[CELL], end = cellStarts[CELL + 1] ; j < end ; j++) {
+            final double DX = xs[j] - X;
+            final double DY = ys[j] - Y;
+            HEAP.offer(indices[j], DX * DX + DY * DY);
+        }
+        for (int i = heads[CELL] ; i != NONE ; i = next[i - packedSize]) {
+            final double DX = store.getX(i) - X;
+            final double DY = store.getY(i) - Y;
+            HEAP.offer(i, DX * DX + DY * DY);
+        }
+    }
+
+    /**
+     * Sorts the first SIZE events of the store by cell (counting sort) into
+     * the packed arrays and empties the linked lists
+     */
+    private void pack(final int SIZE) {
+        if (xs.length < SIZE) {
+            final int CAPACITY = Math.max(SIZE, xs.length + (xs.length >> 1));
+            xs      = new double[CAPACITY];
+            ys      = new double[CAPACITY];
+            weights = new float[CAPACITY];
+            indices = new int[CAPACITY];
+        }
+        final int NO_OF_CELLS = cellCounts.length;
+        Arrays.fill(cellCounts, 0);
+        Arrays.fill(cellWeights, 0);
+        Arrays.fill(heads, NONE);
+        for (int i = 0 ; i < SIZE ; i++) {
+            final int CELL = cellIndex(store.getX(i), store.getY(i));
+            cellCounts[CELL]++;
+            cellWeights[CELL] += store.getWeight(i);
+        }
+        cellStarts[0] = 0;
+        for (int cell = 0 ; cell < NO_OF_CELLS ; cell++) { cellStarts[cell + 1] = cellStarts[cell] + cellCounts[cell]; }
+        // Use the heads as insert positions while sorting
+        System.arraycopy(cellStarts, 0, heads, 0, NO_OF_CELLS);
+        for (int i = 0 ; i < SIZE ; i++) {
+            final double X     = store.getX(i);
+            final double Y     = store.getY(i);
+            final int    INDEX = heads[cellIndex(X, Y)]++;
+            xs[INDEX]      = X;
+            ys[INDEX]      = Y;
+            weights[INDEX] = store.getWeight(i);
+            indices[INDEX] = i;
+        }
+        Arrays.fill(heads, NONE);
+        packedSize = SIZE;
+    }
+
+    /**
+     * Returns the sum of the cells from MIN (inclusive) to MAX (exclusive)
+     */
+    private double tableSum(final int MIN_CX, final int MIN_CY, final int MAX_CX, final int MAX_CY, final boolean WEIGHTED) {
+        if (!tablesValid) { buildTables(); }
+        final int STRIDE = noOfCellsX + 1;
+        final int A      = MIN_CY * STRIDE + MIN_CX;
+        final int B      = MIN_CY * STRIDE + MAX_CX;
+        final int C      = MAX_CY * STRIDE + MIN_CX;
+        final int D      = MAX_CY * STRIDE + MAX_CX;
+        return WEIGHTED ? weightTable[D] - weightTable[B] - weightTable[C] + weightTable[A]
+                        : countTable[D] - countTable[B] - countTable[C] + countTable[A];
+    }
+
+    private void buildTables() {
+        final int STRIDE = noOfCellsX + 1;
+        for (int cy = 0 ; cy < noOfCellsY ; cy++) {
+            long   rowCount  = 0;
+            double rowWeight = 0;
+            for (int cx = 0 ; cx < noOfCellsX ; cx++) {
+                final int CELL  = cy * noOfCellsX + cx;
+                final int TABLE = (cy + 1) * STRIDE + cx + 1;
+                rowCount  += cellCounts[CELL];
+                rowWeight += cellWeights[CELL];
+                countTable[TABLE]  = countTable[TABLE - STRIDE] + rowCount;
+                weightTable[TABLE] = weightTable[TABLE - STRIDE] + rowWeight;
+            }
+        }
+        tablesValid = true;
+    }
+
+    private int cellIndex(final double X, final double Y) {
+        return cellY(Y) * noOfCellsX + cellX(X);
+    }
+
+    private int cellX(final double X) {
+        final double CELL = Math.floor(X / cellSize);
+        return CELL <= 0 ? 0 : CELL >= noOfCellsX - 1 ? noOfCellsX - 1 : (int) CELL;
+    }
+
+    private int cellY(final double Y) {
+        final double CELL = Math.floor(Y / cellSize);
+        return CELL <= 0 ? 0 : CELL >= noOfCellsY - 1 ? noOfCellsY - 1 : (int) CELL;
+    }
+
+
+    // ******************** Inner Classes *************************************
+    /**
+     * A max heap of the K nearest events found so far
+     */
+    private static class NearestHeap {
+        private final int[]    indices;
+        private final double[] distances;
+        private final double   maxDistance2;
+        private int            size;
+
+        NearestHeap(final int K, final double MAX_DISTANCE2) {
+            indices      = new int[K];
+            distances    = new double[K];
+            maxDistance2 = MAX_DISTANCE2;
+            size         = 0;
+        }
+
+        /**
+         * Returns the squared distance that a new event must not exceed
+         */
+        double getLimit() {
+            return size < indices.length ? maxDistance2 : distances[0];
+        }
+
+        void offer(final int INDEX, final double DISTANCE2) {
+            if (DISTANCE2 > maxDistance2) { return; }
+            if (size < indices.length) {
+                siftUp(size++, INDEX, DISTANCE2);
+            } else if (DISTANCE2 < distances[0]) {
+                siftDown(size, INDEX, DISTANCE2);
+            }
+        }
+
+        int[] toSortedIndices() {
+            final int[] RESULT = new int[size];
+            for (int n = size ; n > 0 ; n--) {
+                RESULT[n - 1] = indices[0];
+                siftDown(n - 1, indices[n - 1], distances[n - 1]);
+            }
+            size = 0;
+            return RESULT;
+        }
+
+        private void siftUp(final int POSITION, final int INDEX, final double DISTANCE2) {
+            int child = POSITION;
+            while (child > 0) {
+                final int PARENT = (child - 1) >>> 1;
+                if (distances[PARENT] >= DISTANCE2) { break; }
+                indices[child]   = indices[PARENT];
+                distances[child] = distances[PARENT];
+                child = PARENT;
+            }
+            indices[child]   = INDEX;
+            distances[child] = DISTANCE2;
+        }
+
+        private void siftDown(final int SIZE, final int INDEX, final double DISTANCE2) {
+            if (0 == SIZE) { return; }
+            int parent = 0;
+            while (true) {
+                int child = 2 * parent + 1;
+                if (child >= SIZE) { break; }
+                if (child + 1 < SIZE && distances[child + 1] > distances[child]) { child++; }
+                if (distances[child] <= DISTANCE2) { break; }
+                indices[parent]   = indices[child];
+                distances[parent] = distances[child];
+                parent = child;
+            }
+            indices[parent]   = INDEX;
+            distances[parent] = DISTANCE2;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+/**
+ * An integral image of the cells of a density grid in double precision,
+ * each entry contains the sum of all cells above and left of it, so the
+ * sum of any rectangle could be computed from four entries. Changes of
+ * cells only invalidate the entries right of and below the changed cell
+ * with the smallest coordinates, which will be recomputed on the next
+ * update. So changes in the lower right part of the grid are cheap and
+ * many changes between two queries are merged into one update.
+ */
+public class SummedAreaTable {
+    private final int      width;
+    private final int      height;
+    private final int      stride;
+    private final double[] table;
+    private int            invalidX;
+    private int            invalidY;
+
+
+    // ******************** Constructors **************************************
+    public SummedAreaTable(final int WIDTH, final int HEIGHT) {
+        if (WIDTH < 0 || HEIGHT < 0) { throw new IllegalArgumentException("Width and height must not be negative"); }
+        width    = WIDTH;
+        height   = HEIGHT;
+        stride   = WIDTH + 1;
+        table    = new double[stride * (HEIGHT + 1)];
+        invalidX = 0;
+        invalidY = 0;
+    }
+
+
+    // ******************** Methods *******************************************
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns true if the table has to be updated before it could be queried
+     * @return true if cells have changed since the last update
+     */
+    public boolean isInvalid() {
+        return invalidX < width && invalidY < height;
+    }
+
+    /**
+     * Marks the cells from the given position to the lower right corner
+     * as changed
+     * @param MIN_X
+     * @param MIN_Y
+     */
+    public void invalidate(final int MIN_X, final int MIN_Y) {
+        invalidX = Math.max(0, Math.min(invalidX, MIN_X));
+        invalidY = Math.max(0, Math.min(invalidY, MIN_Y));
+    }
+
+    /**
+     * Multiplies all entries with the given factor, which is the same as
+     * multiplying all cells of the grid with it
+     * @param FACTOR
+     */
+    public void scale(final double FACTOR) {
+        for (int i = 0 ; i < table.length ; i++) { table[i] *= FACTOR; }
+    }
+
+    /**
+     * Recomputes the entries that depend on changed cells
+     * @param DATA the cells of the grid in row major order
+     */
+    public void update(final float[] DATA) {
+        if (!isInvalid()) { return; }
+        final int MIN_X = invalidX;
+        for (int y = invalidY ; y < height ; y++) {
+            final int ROW   = (y + 1) * stride;
+            final int ABOVE = y * stride;
+            // Sum of the cells left of the invalid part of the row
+            double rowSum = table[ROW + MIN_X] - table[ABOVE + MIN_X];
+            int    cell   = y * width + MIN_X;
+            for (int x = MIN_X + 1 ; x <= width ; x++) {
+                rowSum += DATA[cell++];
+                table[ROW + x] = table[ABOVE + x] + rowSum;
+            }
+        }
+        invalidX = Integer.MAX_VALUE;
+        invalidY = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns the sum of the cells in the given rectangle, the table must
+     * be up to date
+     * @param MIN_X inclusive
+     * @param MIN_Y inclusive
+     * @param MAX_X exclusive
+     * @param MAX_Y exclusive
+     * @return the sum of the cells in the given rectangle
+     */
+    public double sum(final int MIN_X, final int MIN_Y, final int MAX_X, final int MAX_Y) {
+        final int X0 = Math.max(0, MIN_X);
+        final int Y0 = Math.max(0, MIN_Y);
+        final int X1 = Math.min(width, MAX_X);
+        final int Y1 = Math.min(height, MAX_Y);
+        if (X0 >= X1 || Y0 >= Y1) { return 0; }
+        return table[Y1 * stride + X1] - table[Y0 * stride + X1] - table[Y1 * stride + X0] + table[Y0 * stride + X0];
+    }
+}
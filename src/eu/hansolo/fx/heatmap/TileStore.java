@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+/**
+ * Stores the full resolution tiles of a DensityPyramid. The tiles could
+ * either be kept on the heap (HeapTileStore) or in a memory mapped file
+ * (MappedTileStore) for maps that are larger than the heap.
+ */
+public interface TileStore {
+
+    int getWidth();
+
+    int getHeight();
+
+    int getTileSize();
+
+    /**
+     * Returns the tile at the given position or null if nothing has been
+     * stamped into the tile so far
+     * @param TILE_X
+     * @param TILE_Y
+     * @return the tile at the given position or null if it is empty
+     */
+    DensityGrid getTile(int TILE_X, int TILE_Y);
+
+    /**
+     * Returns the tile at the given position and creates it if needed.
+     * After changing the density of the tile markModified() has to be
+     * called.
+     * @param TILE_X
+     * @param TILE_Y
+     * @return the tile at the given position
+     */
+    DensityGrid getOrCreateTile(int TILE_X, int TILE_Y);
+
+    /**
+     * Tells the store that the density of the given tile has been changed
+     * @param TILE_X
+     * @param TILE_Y
+     */
+    void markModified(int TILE_X, int TILE_Y);
+
+    /**
+     * Makes sure that at least the given number of tiles could be used at
+     * the same time without being evicted from memory, e.g. all tiles that
+     * are visible in a viewer
+     * @param NO_OF_TILES
+     */
+    void ensureCapacity(int NO_OF_TILES);
+
+    /**
+     * Returns the max density of all tiles
+     * @return the max density of all tiles
+     */
+    float getMax();
+
+    /**
+     * Removes all tiles
+     */
+    void clear();
+}
@@ -0,0 +1,417 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.image.WritablePixelFormat;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.Region;
+
+import java.nio.IntBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * A viewer for heat maps that are much larger than the screen, e.g.
+ * 50000 x 30000 pixels. The density is stored in a DensityPyramid and
+ * only the tiles that are visible in the current viewport will be
+ * colorized and drawn, using the level of the pyramid that matches the
+ * current zoom. Colorized tiles are kept in a bounded least recently
+ * used cache and will only be colorized again if their density changed.
+ * The viewport could be moved by dragging with the mouse and zoomed
+ * with the mouse wheel.
+ */
+public class TiledHeatMap extends Region {
+    public static final int                             DEFAULT_CACHE_CAPACITY = 256;
+    private static final WritablePixelFormat<IntBuffer> PIXEL_FORMAT           = PixelFormat.getIntArgbInstance();
+    private static final double                         ZOOM_FACTOR            = 1.1;
+    private DensityPyramid                     pyramid;
+    private Canvas                             canvas;
+    private GraphicsContext                    ctx;
+    private LinkedHashMap<Long, RenderedTile>  renderedTiles;
+    private int                                cacheCapacity;
+    private int[]                              tilePixels;
+    private ColorMapping                       colorMapping;
+    private int[]                              colorLookupTable;
+    private boolean                            fadeColors;
+    private Normalization                      normalization;
+    private Scaling                            scaling;
+    private double                             fixedReference;
+    private float                              renderedReference;
+    private double                             radius;
+    private OpacityDistribution                opacityDistribution;
+    private double                             viewportX;
+    private double                             viewportY;
+    private double                             zoom;
+    private double                             dragX;
+    private double                             dragY;
+    private AnimationTimer                     redrawTimer;
+
+
+    // ******************** Constructors **************************************
+    public TiledHeatMap(final int MAP_WIDTH, final int MAP_HEIGHT) {
+        this(new DensityPyramid(MAP_WIDTH, MAP_HEIGHT), DEFAULT_CACHE_CAPACITY);
+    }
+    public TiledHeatMap(final DensityPyramid PYRAMID, final int CACHE_CAPACITY) {
+        pyramid             = PYRAMID;
+        canvas              = new Canvas();
+        ctx                 = canvas.getGraphicsContext2D();
+        cacheCapacity       = CACHE_CAPACITY;
+        renderedTiles       = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(final Map.Entry<Long, RenderedTile> ELDEST) { return size() > cacheCapacity; }
+        };
+        tilePixels          = new int[pyramid.getTileSize() * pyramid.getTileSize()];
+        colorMapping        = ColorMapping.LIME_YELLOW_RED;
+        colorLookupTable    = colorMapping.lookupTable;
+        fadeColors          = true;
+        normalization       = Normalization.COMPOSITE;
+        scaling             = Scaling.LINEAR;
+        fixedReference      = 1;
+        renderedReference   = 0;
+        radius              = 15.5;
+        opacityDistribution = OpacityDistribution.CUSTOM;
+        viewportX           = 0;
+        viewportY           = 0;
+        zoom                = 1;
+        redrawTimer         = new AnimationTimer() {
+            @Override public void handle(final long NOW) {
+                stop();
+                redraw();
+            }
+        };
+        getChildren().add(canvas);
+        registerListeners();
+    }
+
+
+    // ******************** Initialization ************************************
+    private void registerListeners() {
+        widthProperty().addListener(o -> resize());
+        heightProperty().addListener(o -> resize());
+        addEventHandler(MouseEvent.MOUSE_PRESSED, event -> {
+            dragX = event.getX();
+            dragY = event.getY();
+        });
+        addEventHandler(MouseEvent.MOUSE_DRAGGED, event -> {
+            setViewport(viewportX - (event.getX() - dragX) / zoom, viewportY - (event.getY() - dragY) / zoom, zoom);
+            dragX = event.getX();
+            dragY = event.getY();
+        });
+        addEventHandler(ScrollEvent.SCROLL, event -> {
+            if (0 == event.getDeltaY()) { return; }
+            zoomAt(event.getX(), event.getY(), event.getDeltaY() > 0 ? zoom * ZOOM_FACTOR : zoom / ZOOM_FACTOR);
+        });
+    }
+
+
+    // ******************** Methods *******************************************
+    public DensityPyramid getPyramid() {
+        return pyramid;
+    }
+
+    /**
+     * Adds an event at the given position of the map, the visible tiles
+     * will be redrawn with the next pulse
+     * @param X
+     * @param Y
+     */
+    public void addEvent(final double X, final double Y) {
+        addEvent(X, Y, 1);
+    }
+
+    /**
+     * Adds an event with the given weight at the given position of the map,
+     * the visible tiles will be redrawn with the next pulse, so adding
+     * many events between two pulses only redraws them once
+     * @param X
+     * @param Y
+     * @param WEIGHT
+     */
+    public void addEvent(final double X, final double Y, final double WEIGHT) {
+        pyramid.addEvent(X, Y, radius, opacityDistribution, (float) WEIGHT);
+        requestRedraw();
+    }
+
+    /**
+     * Adds the events at the given positions of the map, the visible tiles
+     * will be redrawn with the next pulse. Both arrays must have the same
+     * length.
+     * @param XS
+     * @param YS
+     */
+    public void addEvents(final double[] XS, final double[] YS) {
+        if (XS.length != YS.length) { throw new IllegalArgumentException("Number of x and y coordinates differ"); }
+        for (int i = 0 ; i < XS.length ; i++) { pyramid.addEvent(XS[i], YS[i], radius, opacityDistribution, 1f); }
+        requestRedraw();
+    }
+
+    /**
+     * Removes all events
+     */
+    public void clearHeatMap() {
+        pyramid.clear();
+        renderedTiles.clear();
+        redraw();
+    }
+
+    public double getViewportX() {
+        return viewportX;
+    }
+
+    public double getViewportY() {
+        return viewportY;
+    }
+
+    public double getZoom() {
+        return zoom;
+    }
+
+    /**
+     * Shows the map with the given position of the map at the upper left
+     * corner of the viewer. A zoom of 1 shows one pixel of the map as one
+     * pixel on the screen, a zoom of 0.5 shows the map at half of its size.
+     * @param X
+     * @param Y
+     * @param ZOOM
+     */
+    public void setViewport(final double X, final double Y, final double ZOOM) {
+        final double MIN_ZOOM = Math.min(1, getMinZoom());
+        zoom      = ZOOM < MIN_ZOOM ? MIN_ZOOM : ZOOM;
+        viewportX = Math.max(0, Math.min(X, pyramid.getWidth() - getWidth() / zoom));
+        viewportY = Math.max(0, Math.min(Y, pyramid.getHeight() - getHeight() / zoom));
+        redraw();
+    }
+
+    /**
+     * Changes the zoom while keeping the position of the map at the given
+     * position of the viewer in place
+     * @param X
+     * @param Y
+     * @param ZOOM
+     */
+    public void zoomAt(final double X, final double Y, final double ZOOM) {
+        final double MAP_X    = viewportX + X / zoom;
+        final double MAP_Y    = viewportY + Y / zoom;
+        final double MIN_ZOOM = Math.min(1, getMinZoom());
+        final double NEW_ZOOM = ZOOM < MIN_ZOOM ? MIN_ZOOM : ZOOM;
+        setViewport(MAP_X - X / NEW_ZOOM, MAP_Y - Y / NEW_ZOOM, NEW_ZOOM);
+    }
+
+    public ColorMapping getColorMapping() {
+        return colorMapping;
+    }
+
+    public void setColorMapping(final ColorMapping COLOR_MAPPING) {
+        colorMapping     = COLOR_MAPPING;
+        colorLookupTable = COLOR_MAPPING.lookupTable;
+        renderedTiles.clear();
+        redraw();
+    }
+
+    public boolean isFadeColors() {
+        return fadeColors;
+    }
+
+    public void setFadeColors(final boolean FADE_COLORS) {
+        fadeColors = FADE_COLORS;
+        renderedTiles.clear();
+        redraw();
+    }
+
+    public Normalization getNormalization() {
+        return normalization;
+    }
+
+    /**
+     * Defines how the density will be mapped to the colors. With MAX the
+     * max density of the full resolution is used as reference for all
+     * zoom levels, because the upper levels contain the mean density
+     * hot spots will look cooler when zooming out. PERCENTILE is treated
+     * like MAX.
+     * @param NORMALIZATION
+     */
+    public void setNormalization(final Normalization NORMALIZATION) {
+        normalization = null == NORMALIZATION ? Normalization.COMPOSITE : NORMALIZATION;
+        renderedTiles.clear();
+        redraw();
+    }
+
+    public Scaling getScaling() {
+        return scaling;
+    }
+
+    public void setScaling(final Scaling SCALING) {
+        scaling = null == SCALING ? Scaling.LINEAR : SCALING;
+        renderedTiles.clear();
+        redraw();
+    }
+
+    public double getFixedReference() {
+        return fixedReference;
+    }
+
+    public void setFixedReference(final double REFERENCE) {
+        if (REFERENCE <= 0) { throw new IllegalArgumentException("Reference must be greater than 0"); }
+        fixedReference = REFERENCE;
+        renderedTiles.clear();
+        redraw();
+    }
+
+    public double getEventRadius() {
+        return radius;
+    }
+
+    public void setEventRadius(final double RADIUS) {
+        radius = RADIUS < 1 ? 1 : RADIUS;
+    }
+
+    public OpacityDistribution getOpacityDistribution() {
+        return opacityDistribution;
+    }
+
+    public void setOpacityDistribution(final OpacityDistribution OPACITY_DISTRIBUTION) {
+        opacityDistribution = OPACITY_DISTRIBUTION;
+    }
+
+    /**
+     * Draws all tiles that are visible in the current viewport. Tiles will
+     * be taken from the cache if their density did not change since they
+     * have been colorized. The caches of the viewer and the pyramid will
+     * be enlarged if they can't keep all visible tiles.
+     */
+    public void redraw() {
+        final double WIDTH  = canvas.getWidth();
+        final double HEIGHT = canvas.getHeight();
+        ctx.clearRect(0, 0, WIDTH, HEIGHT);
+        if (WIDTH <= 0 || HEIGHT <= 0) { return; }
+
+        final float REFERENCE = getReference();
+        if (REFERENCE != renderedReference) {
+            renderedReference = REFERENCE;
+            renderedTiles.clear();
+        }
+
+        final int    LEVEL       = getLevel();
+        final double TILE_SIZE   = (double) pyramid.getTileSize() * (1L << LEVEL);
+        final double SCREEN_SIZE = TILE_SIZE * zoom;
+        final int    MIN_TX      = (int) Math.max(0, Math.floor(viewportX / TILE_SIZE));
+        final int    MIN_TY      = (int) Math.max(0, Math.floor(viewportY / TILE_SIZE));
+        final int    MAX_TX      = (int) Math.min(pyramid.getNoOfTilesX(LEVEL) - 1, Math.floor((viewportX + WIDTH / zoom) / TILE_SIZE));
+        final int    MAX_TY      = (int) Math.min(pyramid.getNoOfTilesY(LEVEL) - 1, Math.floor((viewportY + HEIGHT / zoom) / TILE_SIZE));
+        final int    NO_OF_TILES = Math.max(0, (MAX_TX - MIN_TX + 1) * (MAX_TY - MIN_TY + 1));
+        if (NO_OF_TILES > cacheCapacity) { cacheCapacity = NO_OF_TILES; }
+        pyramid.ensureCapacity(NO_OF_TILES);
+        for (int ty = MIN_TY ; ty <= MAX_TY ; ty++) {
+            for (int tx = MIN_TX ; tx <= MAX_TX ; tx++) {
+                WritableImage image = getTileImage(LEVEL, tx, ty);
+                if (null == image) { continue; }
+                double x = Math.floor((tx * TILE_SIZE - viewportX) * zoom);
+                double y = Math.floor((ty * TILE_SIZE - viewportY) * zoom);
+                ctx.drawImage(image, x, y, Math.ceil(SCREEN_SIZE) + 1, Math.ceil(SCREEN_SIZE) + 1);
+            }
+        }
+    }
+
+    /**
+     * Redraws the visible tiles with the next pulse, multiple requests
+     * before the next pulse will be coalesced into one redraw
+     */
+    private void requestRedraw() {
+        redrawTimer.start();
+    }
+
+    /**
+     * Returns the colorized tile at the given position from the cache or
+     * colorizes the tile if it is not in the cache or its version changed.
+     * Cached tiles are compared by the version of the pyramid, so they
+     * will not be requested from the pyramid (which might load them from
+     * a TileStore) as long as their density did not change.
+     * @param LEVEL
+     * @param TILE_X
+     * @param TILE_Y
+     * @return the colorized tile or null if the tile is empty
+     */
+    private WritableImage getTileImage(final int LEVEL, final int TILE_X, final int TILE_Y) {
+        final long   KEY      = ((long) LEVEL << 56) | ((long) TILE_X << 28) | TILE_Y;
+        final long   VERSION  = pyramid.getTileVersion(LEVEL, TILE_X, TILE_Y);
+        RenderedTile rendered = renderedTiles.get(KEY);
+        if (null != rendered && rendered.version == VERSION) { return rendered.image; }
+
+        final DensityGrid TILE = pyramid.getTile(LEVEL, TILE_X, TILE_Y);
+        if (null == TILE) {
+            renderedTiles.put(KEY, new RenderedTile(VERSION, null));
+            return null;
+        }
+        final int SIZE = pyramid.getTileSize();
+        TILE.colorize(colorLookupTable, fadeColors, tilePixels, 0, 0, SIZE, SIZE, null, normalization, scaling, renderedReference);
+        WritableImage image = null == rendered || null == rendered.image ? new WritableImage(SIZE, SIZE) : rendered.image;
+        image.getPixelWriter().setPixels(0, 0, SIZE, SIZE, PIXEL_FORMAT, tilePixels, 0, SIZE);
+        renderedTiles.put(KEY, new RenderedTile(VERSION, image));
+        return image;
+    }
+
+    /**
+     * Returns the level of the pyramid whose resolution is the closest to
+     * the current zoom without being lower
+     * @return the level of the pyramid that matches the current zoom
+     */
+    private int getLevel() {
+        final int LEVEL = (int) Math.floor(Math.log(1 / zoom) / Math.log(2));
+        return LEVEL < 0 ? 0 : LEVEL >= pyramid.getNoOfLevels() ? pyramid.getNoOfLevels() - 1 : LEVEL;
+    }
+
+    private float getReference() {
+        if (Normalization.MAX == normalization || Normalization.PERCENTILE == normalization) {
+            return pyramid.getMax();
+        } else if (Normalization.FIXED == normalization) {
+            return (float) fixedReference;
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the zoom that shows the whole map in the viewer
+     * @return the zoom that shows the whole map
+     */
+    private double getMinZoom() {
+        if (getWidth() <= 0 || getHeight() <= 0) { return 1; }
+        return Math.min(getWidth() / pyramid.getWidth(), getHeight() / pyramid.getHeight());
+    }
+
+    private void resize() {
+        canvas.setWidth(getWidth());
+        canvas.setHeight(getHeight());
+        setViewport(viewportX, viewportY, zoom);
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private static class RenderedTile {
+        private final long          version;
+        private final WritableImage image;
+
+        RenderedTile(final long VERSION, final WritableImage IMAGE) {
+            version = VERSION;
+            image   = IMAGE;
+        }
+    }
+}
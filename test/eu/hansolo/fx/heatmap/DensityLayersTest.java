@@ -0,0 +1,89 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+
+public class DensityLayersTest {
+    private static final int WIDTH  = 200;
+    private static final int HEIGHT = 150;
+
+
+    @Test public void nearbyRadiiReuseBins() {
+        final DensityLayers LAYERS = new DensityLayers(createEventStore(1000, 15.5));
+        LAYERS.render(new DensityGrid(WIDTH, HEIGHT), 15.5, OpacityDistribution.CUSTOM, null);
+
+        final EventBins BINS = LAYERS.getEventBins(quantized(15.5));
+        assertSame(BINS, LAYERS.getEventBins(quantized(15.52)));
+        assertSame(BINS, LAYERS.getEventBins(quantized(20.5)));
+        assertNotSame(BINS, LAYERS.getEventBins(quantized(15.75)));
+        assertSame(BINS, LAYERS.getEventBins(quantized(15.5)));
+    }
+
+    @Test public void renderMatchesStampingEachEvent() {
+        final EventStore    EVENTS = createEventStore(1000, 12.25);
+        final DensityLayers LAYERS = new DensityLayers(EVENTS);
+        final DensityGrid   GRID   = new DensityGrid(WIDTH, HEIGHT);
+        for (OpacityDistribution distribution : OpacityDistribution.values()) {
+            for (double radius : new double[] { 12.25, 12.26, 9.5, 12.25 }) {
+                EVENTS.setOpacityDistribution(distribution);
+                EVENTS.setRadius(quantized(radius));
+                LAYERS.render(GRID, radius, distribution, null);
+
+                final DensityGrid EXPECTED = new DensityGrid(WIDTH, HEIGHT);
+                EXPECTED.addEvents(EVENTS, null);
+                assertDataEquals(EXPECTED.getData(), GRID.getData());
+            }
+        }
+    }
+
+    @Test public void renderAddsNewEvents() {
+        final EventStore    EVENTS = createEventStore(500, 8);
+        final DensityLayers LAYERS = new DensityLayers(EVENTS);
+        final DensityGrid   GRID   = new DensityGrid(WIDTH, HEIGHT);
+        LAYERS.render(GRID, 8, OpacityDistribution.CUSTOM, null);
+        EVENTS.add(100, 75, 8, OpacityDistribution.CUSTOM, 1f);
+        LAYERS.render(GRID, 8, OpacityDistribution.CUSTOM, null);
+
+        final DensityGrid EXPECTED = new DensityGrid(WIDTH, HEIGHT);
+        EXPECTED.addEvents(EVENTS, null);
+        assertDataEquals(EXPECTED.getData(), GRID.getData());
+    }
+
+    private static EventStore createEventStore(final int NO_OF_EVENTS, final double RADIUS) {
+        final Random     RND    = new Random(42);
+        final EventStore EVENTS = new EventStore();
+        for (int i = 0 ; i < NO_OF_EVENTS ; i++) {
+            EVENTS.add(RND.nextDouble() * WIDTH, RND.nextDouble() * HEIGHT, RADIUS, OpacityDistribution.CUSTOM, 1f);
+        }
+        return EVENTS;
+    }
+
+    private static double quantized(final double RADIUS) {
+        return (double) KernelCache.quantize(RADIUS) / KernelCache.RADIUS_STEPS;
+    }
+
+    private static void assertDataEquals(final float[] EXPECTED, final float[] ACTUAL) {
+        assertEquals(EXPECTED.length, ACTUAL.length);
+        for (int i = 0 ; i < EXPECTED.length ; i++) { assertEquals(EXPECTED[i], ACTUAL[i], 1e-4f + Math.abs(EXPECTED[i]) * 1e-4f, "Density at index " + i); }
+    }
+}
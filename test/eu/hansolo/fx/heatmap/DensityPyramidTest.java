@@ -0,0 +1,83 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+
+public class DensityPyramidTest {
+    private static final int WIDTH     = 1000;
+    private static final int HEIGHT    = 700;
+    private static final int TILE_SIZE = 64;
+
+
+    @Test public void stampingUpdatesCachedLevels() {
+        final double[][]     EVENTS      = createEvents(400);
+        final DensityPyramid INCREMENTAL = new DensityPyramid(WIDTH, HEIGHT, TILE_SIZE, 1024);
+        for (int i = 0 ; i < 200 ; i++) { INCREMENTAL.addEvent(EVENTS[0][i], EVENTS[1][i], 12.5, OpacityDistribution.CUSTOM, 1f); }
+        // Compute and cache all tiles before stamping the remaining events
+        assertLevelsEqual(INCREMENTAL, INCREMENTAL);
+        for (int i = 200 ; i < 400 ; i++) { INCREMENTAL.addEvent(EVENTS[0][i], EVENTS[1][i], 12.5, OpacityDistribution.CUSTOM, 1f); }
+
+        final DensityPyramid EXPECTED = new DensityPyramid(WIDTH, HEIGHT, TILE_SIZE, 1024);
+        for (int i = 0 ; i < 400 ; i++) { EXPECTED.addEvent(EVENTS[0][i], EVENTS[1][i], 12.5, OpacityDistribution.CUSTOM, 1f); }
+        assertLevelsEqual(EXPECTED, INCREMENTAL);
+    }
+
+    @Test public void stampingChangesVersionOfAncestors() {
+        final DensityPyramid PYRAMID = new DensityPyramid(WIDTH, HEIGHT, TILE_SIZE, 1024);
+        final int            TOP     = PYRAMID.getNoOfLevels() - 1;
+        final long           VERSION = PYRAMID.getTileVersion(TOP, 0, 0);
+        final long           OTHER   = PYRAMID.getTileVersion(0, 0, 0);
+        PYRAMID.addEvent(500, 350, 10, OpacityDistribution.CUSTOM, 1f);
+        assertNotEquals(VERSION, PYRAMID.getTileVersion(TOP, 0, 0));
+        assertNotEquals(VERSION, PYRAMID.getTileVersion(0, 500 / TILE_SIZE, 350 / TILE_SIZE));
+        assertEquals(OTHER, PYRAMID.getTileVersion(0, 0, 0));
+        assertEquals(-1, PYRAMID.getTileVersion(0, WIDTH, 0));
+    }
+
+    private static void assertLevelsEqual(final DensityPyramid EXPECTED, final DensityPyramid ACTUAL) {
+        for (int level = 1 ; level < EXPECTED.getNoOfLevels() ; level++) {
+            for (int ty = 0 ; ty < EXPECTED.getNoOfTilesY(level) ; ty++) {
+                for (int tx = 0 ; tx < EXPECTED.getNoOfTilesX(level) ; tx++) {
+                    final DensityGrid EXPECTED_TILE = EXPECTED.getTile(level, tx, ty);
+                    final DensityGrid ACTUAL_TILE   = ACTUAL.getTile(level, tx, ty);
+                    if (null == EXPECTED_TILE) {
+                        assertNull(ACTUAL_TILE);
+                    } else {
+                        assertArrayEquals(EXPECTED_TILE.getData(), ACTUAL_TILE.getData(), 1e-6f, "Tile " + tx + ", " + ty + " of level " + level);
+                    }
+                }
+            }
+        }
+    }
+
+    private static double[][] createEvents(final int NO_OF_EVENTS) {
+        final Random     RND    = new Random(42);
+        final double[][] EVENTS = new double[2][NO_OF_EVENTS];
+        for (int i = 0 ; i < NO_OF_EVENTS ; i++) {
+            EVENTS[0][i] = RND.nextDouble() * WIDTH;
+            EVENTS[1][i] = RND.nextDouble() * HEIGHT;
+        }
+        return EVENTS;
+    }
+}
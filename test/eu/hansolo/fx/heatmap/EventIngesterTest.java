@@ -0,0 +1,169 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+public class EventIngesterTest {
+    private static final String[] NUMBERS = {
+        "0", "-0", "+0", "1", "-1", "+1", "0.5", ".5", "5.", "-.5", "+.5", "00012.5000", "-000.000",
+        "1e3", "1E3", "1e+3", "1e-3", "-1.5e-7", "2.5E+22", "1e22", "1e23", "1e-22", "1e-23", "123.456e-5",
+        "1e308", "1e309", "-1e309", "4.9e-324", "1e-400", "1e99999", "1e-99999",
+        "123456789012345", "1234567890123456", "12345678901234567890", "0.000000000000000000001234567890123456789",
+        "9007199254740993", "0.1", "0.2", "0.30000000000000004", "3.141592653589793238462643383279",
+        "1.7976931348623157e308", "2.2250738585072014E-308", "000000000000000000000000001",
+        "NaN", "Infinity", "-Infinity", "", "-", "+", ".", "e5", "1e", "1e+", "1.2.3", "1,5", "0x10", "12a", "--1", "1 2"
+    };
+
+
+    @TempDir Path directory;
+
+
+    @Test public void parseDoubleMatchesDoubleParseDouble() {
+        for (String number : NUMBERS) { assertParsed(number); }
+
+        final Random RND = new Random(42);
+        for (int i = 0 ; i < 20000 ; i++) {
+            final double VALUE = Double.longBitsToDouble(RND.nextLong());
+            assertParsed(Double.toString(VALUE));
+            assertParsed(String.format(Locale.US, "%." + RND.nextInt(20) + "f", RND.nextDouble() * Math.pow(10, RND.nextInt(12) - 4)));
+            assertParsed(String.format(Locale.US, "%." + RND.nextInt(18) + "e", (RND.nextDouble() - 0.5) * Math.pow(10, RND.nextInt(60) - 30)));
+            assertParsed(RND.nextInt(100000) + "." + RND.nextInt(100000));
+        }
+    }
+
+    @Test public void parseDoubleIgnoresPaddingAndQuotes() {
+        assertEquals(12.5, parse(" \t12.5\r"));
+        assertEquals(-3.0, parse("\"-3\""));
+        assertEquals(Double.NaN, parse(" \"\" "));
+    }
+
+    @Test public void readCsvHandlesLineEndingsAndComments() throws IOException {
+        final String CSV = "x;y;weight\r\n" +
+                           "# comment\r\n" +
+                           "1.5;2.5\r\n" +
+                           "\r\n" +
+                           "-3e2;+4;0.25\r\n" +
+                           "\"5\";\"6\";\"2\";ignored\n" +
+                           "7;8;";
+        final List<double[]> EVENTS = readCsv(CSV, ';', 2);
+        assertEquals(4, EVENTS.size());
+        assertEvent(EVENTS.get(0), 1.5, 2.5, 1);
+        assertEvent(EVENTS.get(1), -300, 4, 0.25);
+        assertEvent(EVENTS.get(2), 5, 6, 2);
+        assertEvent(EVENTS.get(3), 7, 8, 1);
+    }
+
+    @Test public void readCsvRejectsMalformedLines() {
+        assertThrows(IOException.class, () -> readCsv("1,2\n3,x\n", ',', 16));
+        assertThrows(IOException.class, () -> readCsv("1,2\n3\n", ',', 16));
+        assertThrows(IOException.class, () -> readCsv("1,2\n3,4,1e\n", ',', 16));
+        assertThrows(IOException.class, () -> readCsv("1,2\nNaN,4\n", ',', 16));
+        assertThrows(IOException.class, () -> readCsv("1,2\nx,y\n", ',', 16));
+    }
+
+    @Test public void readBinaryReadsWrittenRecords() throws IOException {
+        final Random     RND   = new Random(42);
+        final int        COUNT = 1000;
+        final double[][] DATA  = new double[3][COUNT];
+        for (int i = 0 ; i < COUNT ; i++) {
+            DATA[0][i] = RND.nextDouble() * 1000 - 100;
+            DATA[1][i] = RND.nextDouble() * 1000 - 100;
+            DATA[2][i] = RND.nextDouble() * 3;
+        }
+        for (EventRecordFormat format : EventRecordFormat.values()) {
+            for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+                final int        HEADER = 7;
+                // One incomplete record at the end that has to be ignored
+                final ByteBuffer BUFFER = ByteBuffer.allocate(HEADER + (COUNT + 1) * format.recordSize - 1).order(order);
+                BUFFER.position(HEADER);
+                for (int i = 0 ; i < COUNT ; i++) {
+                    for (int column = 0 ; column < (format.weighted ? 3 : 2) ; column++) {
+                        if (format.doublePrecision) { BUFFER.putDouble(DATA[column][i]); } else { BUFFER.putFloat((float) DATA[column][i]); }
+                    }
+                }
+                final Path FILE = directory.resolve(format + "_" + order + ".bin");
+                Files.write(FILE, BUFFER.array());
+
+                final List<double[]>       FROM_FILE    = new ArrayList<>();
+                final List<double[]>       FROM_CHANNEL = new ArrayList<>();
+                final ByteArrayInputStream INPUT        = new ByteArrayInputStream(BUFFER.array(), HEADER, BUFFER.capacity() - HEADER);
+                assertEquals(COUNT, new EventIngester(64).readBinary(FILE, format, order, HEADER, collect(FROM_FILE)));
+                assertEquals(COUNT, new EventIngester(64).readBinary(Channels.newChannel(INPUT), -1, format, order, collect(FROM_CHANNEL)));
+
+                for (int i = 0 ; i < COUNT ; i++) {
+                    final double X      = format.doublePrecision ? DATA[0][i] : (float) DATA[0][i];
+                    final double Y      = format.doublePrecision ? DATA[1][i] : (float) DATA[1][i];
+                    final double WEIGHT = format.weighted ? (float) DATA[2][i] : 1;
+                    assertEvent(FROM_FILE.get(i), X, Y, WEIGHT);
+                    assertEvent(FROM_CHANNEL.get(i), X, Y, WEIGHT);
+                }
+            }
+        }
+    }
+
+    private static void assertParsed(final String TEXT) {
+        double expected;
+        try {
+            expected = Double.parseDouble(TEXT);
+        } catch (NumberFormatException exception) {
+            expected = Double.NaN;
+        }
+        assertEquals(expected, parse(TEXT), TEXT);
+    }
+
+    private static double parse(final String TEXT) {
+        final byte[] BYTES = ("," + TEXT + ",").getBytes(StandardCharsets.ISO_8859_1);
+        return EventIngester.parseDouble(BYTES, 1, BYTES.length - 1);
+    }
+
+    private static List<double[]> readCsv(final String CSV, final char DELIMITER, final int CHUNK_SIZE) throws IOException {
+        final byte[]         BYTES  = CSV.getBytes(StandardCharsets.ISO_8859_1);
+        final List<double[]> EVENTS = new ArrayList<>();
+        final long           COUNT  = new EventIngester(CHUNK_SIZE).readCsv(new ByteArrayInputStream(BYTES), BYTES.length, DELIMITER, collect(EVENTS));
+        assertEquals(COUNT, EVENTS.size());
+        return EVENTS;
+    }
+
+    private static EventIngester.ChunkConsumer collect(final List<double[]> EVENTS) {
+        return (xs, ys, weights, count) -> {
+            for (int i = 0 ; i < count ; i++) { EVENTS.add(new double[] { xs[i], ys[i], weights[i] }); }
+        };
+    }
+
+    private static void assertEvent(final double[] EVENT, final double X, final double Y, final double WEIGHT) {
+        assertEquals(X, EVENT[0]);
+        assertEquals(Y, EVENT[1]);
+        assertEquals((float) WEIGHT, (float) EVENT[2]);
+    }
+}
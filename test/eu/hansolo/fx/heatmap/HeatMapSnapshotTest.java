@@ -0,0 +1,149 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+public class HeatMapSnapshotTest {
+    private static final int WIDTH  = 120;
+    private static final int HEIGHT = 80;
+
+    @TempDir Path directory;
+
+
+    @Test public void plainSnapshotSurvivesRoundTrip() throws IOException {
+        assertRoundTrip(false);
+    }
+
+    @Test public void compressedSnapshotSurvivesRoundTrip() throws IOException {
+        assertRoundTrip(true);
+    }
+
+    @Test public void snapshotDoesNotShareState() {
+        final EventStore      EVENTS   = createEventStore(100);
+        final DensityGrid     DENSITY  = createDensity(EVENTS);
+        final HeatMapSnapshot SNAPSHOT = new HeatMapSnapshot(WIDTH, HEIGHT, ColorMapping.BLUE_CYAN_GREEN_YELLOW_RED, OpacityDistribution.CUSTOM, 10, EVENTS, DENSITY);
+        final float[]         EXPECTED = DENSITY.getData().clone();
+        EVENTS.add(10, 10, 10, OpacityDistribution.CUSTOM, 1f);
+        DENSITY.stamp(DENSITY.getKernel(10, OpacityDistribution.CUSTOM), 0, 0, 1f);
+        assertEquals(100, SNAPSHOT.getNoOfEvents());
+        assertArrayEquals(EXPECTED, SNAPSHOT.getDensity().getData());
+
+        final EventStore RESTORED = SNAPSHOT.getEvents();
+        assertNotSame(RESTORED, SNAPSHOT.getEvents());
+        RESTORED.clear();
+        assertEquals(100, SNAPSHOT.getEvents().size());
+    }
+
+    @Test public void damagedHeaderThrowsIOException() throws IOException {
+        final Path FILE = directory.resolve("snapshot.hmsn");
+        createSnapshot(1000).write(FILE, false);
+        final byte[] DATA = Files.readAllBytes(FILE);
+
+        // Width * height far above the limit
+        assertThrows(IOException.class, () -> read(patchInt(DATA, 12, Integer.MAX_VALUE)));
+        // More events than the file contains
+        assertThrows(IOException.class, () -> read(patchInt(DATA, 28, Integer.MAX_VALUE)));
+        assertThrows(IOException.class, () -> read(patchInt(DATA, 28, -1)));
+        // Truncated payload
+        assertThrows(IOException.class, () -> read(Arrays.copyOf(DATA, DATA.length - 100)));
+    }
+
+    @Test public void compressedSnapshotWithWrongCountThrowsIOException() throws IOException {
+        final Path FILE = directory.resolve("snapshot.hmsn");
+        createSnapshot(1000).write(FILE, true);
+        assertThrows(IOException.class, () -> read(patchInt(Files.readAllBytes(FILE), 28, Integer.MAX_VALUE - 100)));
+    }
+
+    private void assertRoundTrip(final boolean COMPRESS) throws IOException {
+        final HeatMapSnapshot EXPECTED = createSnapshot(5000);
+        final Path            FILE     = directory.resolve("snapshot.hmsn");
+        EXPECTED.write(FILE, COMPRESS);
+
+        final HeatMapSnapshot ACTUAL = HeatMapSnapshot.read(FILE);
+        assertEquals(EXPECTED.getWidth(), ACTUAL.getWidth());
+        assertEquals(EXPECTED.getHeight(), ACTUAL.getHeight());
+        assertEquals(EXPECTED.getColorMapping(), ACTUAL.getColorMapping());
+        assertEquals(EXPECTED.getOpacityDistribution(), ACTUAL.getOpacityDistribution());
+        assertEquals(EXPECTED.getRadius(), ACTUAL.getRadius());
+        assertArrayEquals(EXPECTED.getDensity().getData(), ACTUAL.getDensity().getData());
+
+        final EventStore EXPECTED_EVENTS = EXPECTED.getEvents();
+        final EventStore ACTUAL_EVENTS   = ACTUAL.getEvents();
+        assertEquals(EXPECTED_EVENTS.size(), ACTUAL_EVENTS.size());
+        for (int i = 0 ; i < EXPECTED_EVENTS.size() ; i++) {
+            assertEquals(EXPECTED_EVENTS.getX(i), ACTUAL_EVENTS.getX(i));
+            assertEquals(EXPECTED_EVENTS.getY(i), ACTUAL_EVENTS.getY(i));
+            assertEquals(EXPECTED_EVENTS.getRadius(i), ACTUAL_EVENTS.getRadius(i));
+            assertEquals(EXPECTED_EVENTS.getOpacityDistribution(i), ACTUAL_EVENTS.getOpacityDistribution(i));
+            assertEquals(EXPECTED_EVENTS.getWeight(i), ACTUAL_EVENTS.getWeight(i));
+        }
+
+        final HeatMapSnapshot WITHOUT_DENSITY = new HeatMapSnapshot(WIDTH, HEIGHT, ColorMapping.INFRARED_1, OpacityDistribution.LINEAR, 5, EXPECTED_EVENTS, null);
+        WITHOUT_DENSITY.write(FILE, COMPRESS);
+        final HeatMapSnapshot RESTORED = HeatMapSnapshot.read(FILE);
+        assertFalse(RESTORED.hasDensity());
+        assertEquals(EXPECTED_EVENTS.size(), RESTORED.getNoOfEvents());
+    }
+
+    private HeatMapSnapshot read(final byte[] DATA) throws IOException {
+        final Path FILE = directory.resolve("damaged.hmsn");
+        Files.write(FILE, DATA);
+        return HeatMapSnapshot.read(FILE);
+    }
+
+    private static byte[] patchInt(final byte[] DATA, final int OFFSET, final int VALUE) {
+        final byte[] PATCHED = DATA.clone();
+        ByteBuffer.wrap(PATCHED).order(ByteOrder.LITTLE_ENDIAN).putInt(OFFSET, VALUE);
+        return PATCHED;
+    }
+
+    private static HeatMapSnapshot createSnapshot(final int NO_OF_EVENTS) {
+        final EventStore EVENTS = createEventStore(NO_OF_EVENTS);
+        return new HeatMapSnapshot(WIDTH, HEIGHT, ColorMapping.BLUE_CYAN_GREEN_YELLOW_RED, OpacityDistribution.EXPONENTIAL, 12.5, EVENTS, createDensity(EVENTS));
+    }
+
+    private static DensityGrid createDensity(final EventStore EVENTS) {
+        final DensityGrid DENSITY = new DensityGrid(WIDTH, HEIGHT);
+        DENSITY.addEvents(EVENTS, null);
+        return DENSITY;
+    }
+
+    private static EventStore createEventStore(final int NO_OF_EVENTS) {
+        final Random                RND           = new Random(42);
+        final OpacityDistribution[] DISTRIBUTIONS = OpacityDistribution.values();
+        final EventStore            EVENTS        = new EventStore();
+        for (int i = 0 ; i < NO_OF_EVENTS ; i++) {
+            EVENTS.add(RND.nextDouble() * WIDTH, RND.nextDouble() * HEIGHT, 5 + RND.nextInt(10), DISTRIBUTIONS[RND.nextInt(DISTRIBUTIONS.length)], RND.nextFloat() * 2);
+        }
+        return EVENTS;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+public class MappedTileStoreTest {
+    private static final int WIDTH          = 300;
+    private static final int HEIGHT         = 200;
+    private static final int TILE_SIZE      = 32;
+    private static final int CACHE_CAPACITY = 4;
+
+    @TempDir Path directory;
+
+
+    @Test public void evictedTilesSurviveReopening() throws IOException {
+        final Path          FILE     = directory.resolve("tiles.hmts");
+        final HeapTileStore EXPECTED = new HeapTileStore(WIDTH, HEIGHT, TILE_SIZE);
+        try (MappedTileStore store = new MappedTileStore(FILE, WIDTH, HEIGHT, TILE_SIZE, CACHE_CAPACITY)) {
+            // The events touch far more tiles than the cache holds
+            stamp(store, EXPECTED, 2000, new Random(42));
+            assertTilesEqual(EXPECTED, store);
+        }
+        try (MappedTileStore store = new MappedTileStore(FILE, WIDTH, HEIGHT, TILE_SIZE, CACHE_CAPACITY)) {
+            assertTilesEqual(EXPECTED, store);
+            // Stamp into tiles that have been read from the file
+            stamp(store, EXPECTED, 500, new Random(7));
+        }
+        try (MappedTileStore store = new MappedTileStore(FILE, WIDTH, HEIGHT, TILE_SIZE, CACHE_CAPACITY)) {
+            assertTilesEqual(EXPECTED, store);
+        }
+    }
+
+    @Test public void clearedStoreStaysEmpty() throws IOException {
+        final Path FILE = directory.resolve("tiles.hmts");
+        try (MappedTileStore store = new MappedTileStore(FILE, WIDTH, HEIGHT, TILE_SIZE, CACHE_CAPACITY)) {
+            stamp(store, new HeapTileStore(WIDTH, HEIGHT, TILE_SIZE), 1000, new Random(42));
+            store.clear();
+            assertTilesEqual(new HeapTileStore(WIDTH, HEIGHT, TILE_SIZE), store);
+        }
+        final HeapTileStore EXPECTED = new HeapTileStore(WIDTH, HEIGHT, TILE_SIZE);
+        try (MappedTileStore store = new MappedTileStore(FILE, WIDTH, HEIGHT, TILE_SIZE, CACHE_CAPACITY)) {
+            assertTilesEqual(EXPECTED, store);
+            // Tiles that are reused after clearing must not contain the old density
+            stamp(store, EXPECTED, 300, new Random(7));
+            assertTilesEqual(EXPECTED, store);
+        }
+        try (MappedTileStore store = new MappedTileStore(FILE, WIDTH, HEIGHT, TILE_SIZE, CACHE_CAPACITY)) {
+            assertTilesEqual(EXPECTED, store);
+        }
+    }
+
+    @Test public void storeWithOtherSizeIsRejected() throws IOException {
+        final Path FILE = directory.resolve("tiles.hmts");
+        new MappedTileStore(FILE, WIDTH, HEIGHT, TILE_SIZE, CACHE_CAPACITY).close();
+        assertThrows(IOException.class, () -> new MappedTileStore(FILE, WIDTH + 1, HEIGHT, TILE_SIZE, CACHE_CAPACITY));
+    }
+
+    private static void stamp(final TileStore STORE, final TileStore EXPECTED, final int NO_OF_EVENTS, final Random RND) {
+        final KernelCache KERNELS = new KernelCache();
+        for (int i = 0 ; i < NO_OF_EVENTS ; i++) {
+            final double X      = RND.nextDouble() * WIDTH;
+            final double Y      = RND.nextDouble() * HEIGHT;
+            final Kernel KERNEL = KERNELS.get(5 + RND.nextInt(20), OpacityDistribution.CUSTOM);
+            final float  WEIGHT = RND.nextFloat() * 2;
+            for (TileStore store : new TileStore[] { STORE, EXPECTED }) {
+                final int MIN_TX = Math.max(0, (int) Math.floor((X - KERNEL.getWidth()) / TILE_SIZE));
+                final int MAX_TX = Math.min((WIDTH - 1) / TILE_SIZE, (int) Math.floor((X + KERNEL.getWidth()) / TILE_SIZE));
+                final int MIN_TY = Math.max(0, (int) Math.floor((Y - KERNEL.getHeight()) / TILE_SIZE));
+                final int MAX_TY = Math.min((HEIGHT - 1) / TILE_SIZE, (int) Math.floor((Y + KERNEL.getHeight()) / TILE_SIZE));
+                for (int ty = MIN_TY ; ty <= MAX_TY ; ty++) {
+                    for (int tx = MIN_TX ; tx <= MAX_TX ; tx++) {
+                        store.getOrCreateTile(tx, ty).stamp(KERNEL, X - KERNEL.getWidth() * 0.5 - tx * TILE_SIZE, Y - KERNEL.getHeight() * 0.5 - ty * TILE_SIZE, WEIGHT);
+                        store.markModified(tx, ty);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void assertTilesEqual(final TileStore EXPECTED, final TileStore ACTUAL) {
+        for (int ty = 0 ; ty * TILE_SIZE < HEIGHT ; ty++) {
+            for (int tx = 0 ; tx * TILE_SIZE < WIDTH ; tx++) {
+                final DensityGrid EXPECTED_TILE = EXPECTED.getTile(tx, ty);
+                final DensityGrid ACTUAL_TILE   = ACTUAL.getTile(tx, ty);
+                if (null == EXPECTED_TILE) {
+                    assertNull(ACTUAL_TILE, "Tile " + tx + ", " + ty);
+                } else {
+                    assertArrayEquals(EXPECTED_TILE.getData(), ACTUAL_TILE.getData(), "Tile " + tx + ", " + ty);
+                }
+            }
+        }
+        assertEquals(EXPECTED.getMax(), ACTUAL.getMax());
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+public class SpatialIndexTest {
+    private static final int    WIDTH   = 200;
+    private static final int    HEIGHT  = 150;
+    // Events are spread over an area that is larger than the map
+    private static final double OUTSIDE = 60;
+
+
+    @Test public void queriesMatchBruteForceBeforeAndAfterPacking() {
+        for (int cellSize : new int[] { 1, SpatialIndex.DEFAULT_CELL_SIZE, 7, 64 }) {
+            final Random       RND    = new Random(cellSize);
+            final EventStore   EVENTS = new EventStore();
+            addEvents(EVENTS, 1000, RND);
+            final SpatialIndex INDEX  = new SpatialIndex(EVENTS, WIDTH, HEIGHT, cellSize);
+            // Only linked lists
+            assertQueries(INDEX, RND);
+
+            // More events than the tail may hold leads to packing
+            addEvents(EVENTS, 9000, RND);
+            INDEX.update();
+            assertQueries(INDEX, RND);
+
+            // Packed events and linked lists
+            addEvents(EVENTS, 500, RND);
+            INDEX.update();
+            assertQueries(INDEX, RND);
+
+            // Removed events lead to a rebuild
+            EVENTS.removeFirst(3000);
+            INDEX.update();
+            assertQueries(INDEX, RND);
+
+            EVENTS.clear();
+            addEvents(EVENTS, 200, RND);
+            INDEX.update();
+            assertQueries(INDEX, RND);
+        }
+    }
+
+    private static void assertQueries(final SpatialIndex INDEX, final Random RND) {
+        final EventStore EVENTS = INDEX.getEventStore();
+        assertEquals(EVENTS.size(), INDEX.size());
+        for (int query = 0 ; query < 200 ; query++) {
+            final double X1    = randomCoordinate(WIDTH, RND);
+            final double Y1    = randomCoordinate(HEIGHT, RND);
+            final double X2    = randomCoordinate(WIDTH, RND);
+            final double Y2    = randomCoordinate(HEIGHT, RND);
+            final double MIN_X = Math.min(X1, X2);
+            final double MIN_Y = Math.min(Y1, Y2);
+            final double MAX_X = Math.max(X1, X2);
+            final double MAX_Y = Math.max(Y1, Y2);
+            long   count = 0;
+            double sum   = 0;
+            for (int i = 0 ; i < EVENTS.size() ; i++) {
+                if (EVENTS.getX(i) >= MIN_X && EVENTS.getX(i) < MAX_X && EVENTS.getY(i) >= MIN_Y && EVENTS.getY(i) < MAX_Y) {
+                    count++;
+                    sum += EVENTS.getWeight(i);
+                }
+            }
+            assertEquals(count, INDEX.count(MIN_X, MIN_Y, MAX_X, MAX_Y));
+            assertEquals(sum, INDEX.sumOfWeights(MIN_X, MIN_Y, MAX_X, MAX_Y), 1e-6);
+
+            final double RADIUS  = RND.nextDouble() * 120;
+            final double RADIUS2 = RADIUS * RADIUS;
+            count = 0;
+            sum   = 0;
+            for (int i = 0 ; i < EVENTS.size() ; i++) {
+                if (distance2(EVENTS, i, X1, Y1) <= RADIUS2) {
+                    count++;
+                    sum += EVENTS.getWeight(i);
+                }
+            }
+            assertEquals(count, INDEX.countWithin(X1, Y1, RADIUS));
+            assertEquals(sum, INDEX.sumOfWeightsWithin(X1, Y1, RADIUS), 1e-6);
+
+            final int    K            = 1 + RND.nextInt(12);
+            final double MAX_DISTANCE = 0 == query % 4 ? Double.MAX_VALUE : RND.nextDouble() * 50;
+            final int[]  NEAREST      = INDEX.nearest(X1, Y1, K, MAX_DISTANCE);
+            assertArrayEquals(nearestDistances(EVENTS, X1, Y1, K, MAX_DISTANCE), distances2(EVENTS, NEAREST, X1, Y1), "Nearest " + K + " events to " + X1 + ", " + Y1);
+            assertEquals(0 == NEAREST.length ? -1 : NEAREST[0], INDEX.nearest(X1, Y1, MAX_DISTANCE));
+        }
+    }
+
+    private static double[] nearestDistances(final EventStore EVENTS, final double X, final double Y, final int K, final double MAX_DISTANCE) {
+        final double[] DISTANCES = new double[EVENTS.size()];
+        int            count     = 0;
+        for (int i = 0 ; i < EVENTS.size() ; i++) {
+            final double DISTANCE2 = distance2(EVENTS, i, X, Y);
+            if (DISTANCE2 <= MAX_DISTANCE * MAX_DISTANCE) { DISTANCES[count++] = DISTANCE2; }
+        }
+        Arrays.sort(DISTANCES, 0, count);
+        return Arrays.copyOf(DISTANCES, Math.min(K, count));
+    }
+
+    private static double[] distances2(final EventStore EVENTS, final int[] INDICES, final double X, final double Y) {
+        final double[] DISTANCES = new double[INDICES.length];
+        for (int i = 0 ; i < INDICES.length ; i++) { DISTANCES[i] = distance2(EVENTS, INDICES[i], X, Y); }
+        return DISTANCES;
+    }
+
+    private static double distance2(final EventStore EVENTS, final int INDEX, final double X, final double Y) {
+        final double DX = EVENTS.getX(INDEX) - X;
+        final double DY = EVENTS.getY(INDEX) - Y;
+        return DX * DX + DY * DY;
+    }
+
+    private static void addEvents(final EventStore EVENTS, final int NO_OF_EVENTS, final Random RND) {
+        for (int i = 0 ; i < NO_OF_EVENTS ; i++) {
+            EVENTS.add(randomCoordinate(WIDTH, RND), randomCoordinate(HEIGHT, RND), 10, OpacityDistribution.CUSTOM, RND.nextFloat() * 2);
+        }
+    }
+
+    private static double randomCoordinate(final int SIZE, final Random RND) {
+        return RND.nextDouble() * (SIZE + 2 * OUTSIDE) - OUTSIDE;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.heatmap;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+public class SummedAreaTableTest {
+    private static final int WIDTH  = 160;
+    private static final int HEIGHT = 120;
+
+
+    @Test public void sumsMatchScanningAfterEachChange() {
+        final Random      RND     = new Random(42);
+        final DensityGrid TABLE   = new DensityGrid(WIDTH, HEIGHT);
+        final DensityGrid SCANNED = new DensityGrid(WIDTH, HEIGHT);
+        TABLE.setSummedAreaTableEnabled(true);
+        assertSums(TABLE, SCANNED, RND);
+
+        // Single stamps, also partly outside of the grid
+        for (int i = 0 ; i < 50 ; i++) {
+            final Kernel KERNEL = TABLE.getKernel(3 + RND.nextInt(20), OpacityDistribution.CUSTOM);
+            final double LEFT   = RND.nextDouble() * (WIDTH + 40) - 20;
+            final double TOP    = RND.nextDouble() * (HEIGHT + 40) - 20;
+            final float  WEIGHT = RND.nextFloat() * 2;
+            TABLE.stamp(KERNEL, LEFT, TOP, WEIGHT);
+            SCANNED.stamp(KERNEL, LEFT, TOP, WEIGHT);
+            assertSums(TABLE, SCANNED, RND);
+        }
+
+        // Enough events with the same radius to be binned
+        final EventStore EVENTS = new EventStore();
+        for (int i = 0 ; i < 5000 ; i++) { EVENTS.add(RND.nextDouble() * WIDTH, RND.nextDouble() * HEIGHT, 6, OpacityDistribution.EXPONENTIAL, RND.nextFloat()); }
+        TABLE.addEvents(EVENTS, null);
+        SCANNED.addEvents(EVENTS, null);
+        assertSums(TABLE, SCANNED, RND);
+
+        // Subtract a region of another grid
+        final DensityGrid OTHER = new DensityGrid(WIDTH, HEIGHT);
+        OTHER.addEvents(EVENTS, 0, 1000, null);
+        TABLE.add(OTHER, -1f, 30, 20, 110, 90);
+        SCANNED.add(OTHER, -1f, 30, 20, 110, 90);
+        assertSums(TABLE, SCANNED, RND);
+
+        // Decay only changes the scale until it becomes too small
+        for (double factor : new double[] { 0.5, 0.9, 1e-4, 1e-4 }) {
+            TABLE.decay(factor);
+            SCANNED.decay(factor);
+            assertSums(TABLE, SCANNED, RND);
+            TABLE.stamp(TABLE.getKernel(10, OpacityDistribution.LINEAR), 70, 50, 1f);
+            SCANNED.stamp(SCANNED.getKernel(10, OpacityDistribution.LINEAR), 70, 50, 1f);
+            assertSums(TABLE, SCANNED, RND);
+        }
+
+        TABLE.clear(40, 30, 90, 70);
+        SCANNED.clear(40, 30, 90, 70);
+        assertSums(TABLE, SCANNED, RND);
+
+        for (int[] size : new int[][] { { WIDTH + 37, HEIGHT + 11 }, { WIDTH / 2, HEIGHT - 3 } }) {
+            TABLE.resize(size[0], size[1]);
+            SCANNED.resize(size[0], size[1]);
+            assertSums(TABLE, SCANNED, RND);
+            TABLE.stamp(TABLE.getKernel(15, OpacityDistribution.CUSTOM), size[0] - 20, size[1] - 20, 1f);
+            SCANNED.stamp(SCANNED.getKernel(15, OpacityDistribution.CUSTOM), size[0] - 20, size[1] - 20, 1f);
+            assertSums(TABLE, SCANNED, RND);
+        }
+    }
+
+    private static void assertSums(final DensityGrid TABLE, final DensityGrid SCANNED, final Random RND) {
+        assertEquals(SCANNED.getWidth(), TABLE.getWidth());
+        assertEquals(SCANNED.getHeight(), TABLE.getHeight());
+        final int    W         = TABLE.getWidth();
+        final int    H         = TABLE.getHeight();
+        final double TOLERANCE = 1e-9 * (1 + SCANNED.getSum(0, 0, W, H));
+        assertEquals(SCANNED.getSum(0, 0, W, H), TABLE.getSum(0, 0, W, H), TOLERANCE);
+        assertEquals(SCANNED.getSum(-10, -10, W + 10, H + 10), TABLE.getSum(-10, -10, W + 10, H + 10), TOLERANCE);
+        for (int i = 0 ; i < 100 ; i++) {
+            final int X0 = RND.nextInt(W + 20) - 10;
+            final int Y0 = RND.nextInt(H + 20) - 10;
+            final int X1 = X0 + RND.nextInt(W);
+            final int Y1 = Y0 + RND.nextInt(H);
+            assertEquals(SCANNED.getSum(X0, Y0, X1, Y1), TABLE.getSum(X0, Y0, X1, Y1), TOLERANCE, "Sum of " + X0 + ", " + Y0 + " - " + X1 + ", " + Y1);
+            assertEquals(SCANNED.getMean(X0, Y0, X1, Y1), TABLE.getMean(X0, Y0, X1, Y1), TOLERANCE);
+        }
+    }
+}